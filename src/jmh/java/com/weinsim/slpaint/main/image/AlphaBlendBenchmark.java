@@ -0,0 +1,67 @@
+package com.weinsim.slpaint.main.image;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Blends 1M random semi-transparent pixels onto an opaque or a
+ * semi-transparent destination, with {@link AlphaBlend} and with the floating
+ * point version it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AlphaBlendBenchmark {
+
+    private static final int NUM_PIXELS = 1 << 20;
+
+    @Param({ "opaque", "translucent" })
+    public String destination;
+
+    @Param({ "false", "true" })
+    public boolean premultiplied;
+
+    private final int[] src = new int[NUM_PIXELS];
+    private final int[] dst = new int[NUM_PIXELS];
+
+    @Setup
+    public void createPixels() {
+        Random random = new Random(0);
+        int dstAlpha = destination.equals("opaque") ? 255 : 128;
+        for (int i = 0; i < NUM_PIXELS; i++) {
+            src[i] = random.nextInt(1, 255) << 24 | random.nextInt() & 0xFFFFFF;
+            dst[i] = dstAlpha << 24 | random.nextInt() & 0xFFFFFF;
+        }
+    }
+
+    @Benchmark
+    public int fixedPoint() {
+        int hash = 0;
+        for (int i = 0; i < NUM_PIXELS; i++)
+            hash += AlphaBlend.sourceOver(src[i], dst[i], premultiplied);
+        return hash;
+    }
+
+    @Benchmark
+    public int floatingPoint() {
+        int hash = 0;
+        for (int i = 0; i < NUM_PIXELS; i++)
+            hash += AlphaBlendTest.doubleSourceOver(src[i], dst[i], premultiplied);
+        return hash;
+    }
+}
@@ -0,0 +1,101 @@
+package com.weinsim.slpaint.main.image;
+
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Fills the whole canvas (every other fill toggles the color back) with the
+ * scanline fill of {@link Image#floodFill(int, int, int)} and with the loop
+ * that the fill bucket tool used before, which kept a {@code LinkedList} of
+ * boxed coordinates and set one pixel at a time. The "comb" pattern has a
+ * vertical line in every other column that is open at alternating ends, which
+ * is the worst case for the number of spans.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FloodFillBenchmark {
+
+    private static final int[] FILL_XOFF = { 0, -1, 0, 1 };
+    private static final int[] FILL_YOFF = { 1, 0, -1, 0 };
+
+    @Param({ "1024", "4096", "8192" })
+    public int size;
+
+    @Param({ "plain", "comb" })
+    public String pattern;
+
+    private Image image;
+    private int color;
+
+    @Setup(Level.Iteration)
+    public void createImage() {
+        image = new Image(size, size, 0xffffffff);
+        if (pattern.equals("comb")) {
+            for (int x = 1; x < size; x += 2)
+                image.setPixels(x, (x & 2) == 0 ? 0 : 1, 1, size - 1, 0xff000000);
+        }
+        color = 0xffff0000;
+    }
+
+    @Benchmark
+    public Image scanline() {
+        image.floodFill(0, 0, color);
+        color ^= 0x00ffff00;
+        return image;
+    }
+
+    @Benchmark
+    public Image previous() {
+        previousFill(image, 0, 0, color);
+        color ^= 0x00ffff00;
+        return image;
+    }
+
+    /**
+     * The fill bucket tool before the scanline fill
+     */
+    private static void previousFill(Image image, int x, int y, int replaceColor) {
+        int baseColor = image.getPixel(x, y);
+        if (baseColor == replaceColor)
+            return;
+        LinkedList<Long> boundary = new LinkedList<>();
+        boundary.add((x & 0xFFFFFFFFL) << 32 | (y & 0xFFFFFFFFL));
+        boolean[][] discovered = new boolean[image.getWidth()][image.getHeight()];
+        while (!boundary.isEmpty()) {
+            long point = boundary.removeLast();
+            int pointX = (int) ((point >> 32) & 0xFFFFFFFFL);
+            int pointY = (int) (point & 0xFFFFFFFFL);
+            discovered[pointX][pointY] = true;
+            image.setPixel(pointX, pointY, replaceColor);
+            for (int i = 0; i < FILL_XOFF.length; i++) {
+                int newX = pointX + FILL_XOFF[i];
+                int newY = pointY + FILL_YOFF[i];
+                if (image.isInside(newX, newY)) {
+                    if (discovered[newX][newY])
+                        continue;
+
+                    if (image.getPixel(newX, newY) == baseColor) {
+                        boundary.add((newX & 0xFFFFFFFFL) << 32 | (newY & 0xFFFFFFFFL));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.weinsim.slpaint.main.image;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs the row kernels on 1M pixels with the scalar {@link PixelKernels} and
+ * with {@code VectorPixelKernels}. The vector kernels are only available when
+ * the benchmarks are built with both the {@code jmh} and the {@code vector}
+ * profile ({@code mvn -Pjmh,vector test-compile}). Passing
+ * {@code -jvmArgsAppend} to JMH replaces the module option of the fork, so it
+ * has to be repeated there.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class PixelKernelsBenchmark {
+
+    private static final int NUM_PIXELS = 1 << 20;
+
+    @Param({ "scalar", "vector" })
+    public String kernels;
+
+    private PixelKernels instance;
+
+    private final int[] src = new int[NUM_PIXELS];
+    private final int[] dst = new int[NUM_PIXELS];
+    private final int[] original = new int[NUM_PIXELS];
+
+    @Setup
+    public void createPixels() {
+        if (kernels.equals("scalar")) {
+            instance = new PixelKernels();
+        } else {
+            instance = PixelKernels.INSTANCE;
+            if (instance.getClass() == PixelKernels.class)
+                throw new IllegalStateException("The vector kernels are not available, build with -Pjmh,vector");
+        }
+
+        Random random = new Random(0);
+        for (int i = 0; i < NUM_PIXELS; i++) {
+            src[i] = random.nextInt(256) << 24 | random.nextInt() & 0xFFFFFF;
+            original[i] = 0xFF000000 | random.nextInt() & 0xFFFFFF;
+        }
+    }
+
+    @Benchmark
+    public int[] sourceOverRow() {
+        System.arraycopy(original, 0, dst, 0, NUM_PIXELS);
+        instance.sourceOverRow(src, 0, dst, 0, NUM_PIXELS, false);
+        return dst;
+    }
+
+    @Benchmark
+    public int[] sourceOverColor() {
+        System.arraycopy(original, 0, dst, 0, NUM_PIXELS);
+        instance.sourceOverRow(0x80d03010, dst, 0, NUM_PIXELS);
+        return dst;
+    }
+
+    @Benchmark
+    public int[] flattenRow() {
+        instance.flattenRow(src, 0, dst, 0, NUM_PIXELS, 0xFFFFFFFF);
+        return dst;
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return instance.contains(original, 0, NUM_PIXELS, 0x00123456);
+    }
+
+    @Benchmark
+    public int[] replace() {
+        System.arraycopy(original, 0, dst, 0, NUM_PIXELS);
+        instance.replace(dst, 0, NUM_PIXELS, original[NUM_PIXELS / 2], 0);
+        return dst;
+    }
+}
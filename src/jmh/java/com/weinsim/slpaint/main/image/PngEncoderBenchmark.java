@@ -0,0 +1,89 @@
+package com.weinsim.slpaint.main.image;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Saves a 4096 x 4096 ARGB image as PNG with {@link PngEncoder}, both with
+ * bands compressed on the common pool and as a single stream, and with
+ * {@link ImageIO#write}, which was used before. The image has flat areas,
+ * gradients and noise. The parallel encoder uses as many threads as the common
+ * pool has, which can be changed with
+ * {@code -jvmArgsAppend -Djava.util.concurrent.ForkJoinPool.common.parallelism=N}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PngEncoderBenchmark {
+
+    private static final int SIZE = 4096;
+
+    @Param({ "true", "false" })
+    public boolean alpha;
+
+    private BufferedImage image;
+    private File file;
+
+    @Setup
+    public void createImage() throws IOException {
+        image = new BufferedImage(SIZE, SIZE, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(0);
+        int[] row = new int[SIZE];
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                if (y < SIZE / 3)
+                    row[x] = 0xff000000 | x / 16 << 16 | y / 16 << 8 | (x + y) / 32;
+                else if (y < 2 * SIZE / 3)
+                    row[x] = (x / 256 + y / 256) % 2 == 0 ? 0xffffffff : 0x80d03010;
+                else
+                    row[x] = random.nextInt();
+            }
+            image.setRGB(0, y, SIZE, 1, row, 0, SIZE);
+        }
+        file = File.createTempFile("benchmark", ".png");
+    }
+
+    @TearDown
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Benchmark
+    public File parallel() throws IOException {
+        PngEncoder.write(image, file, true);
+        return file;
+    }
+
+    @Benchmark
+    public File singleStream() throws IOException {
+        PngEncoder.write(image, file, false);
+        return file;
+    }
+
+    @Benchmark
+    public File imageIO() throws IOException {
+        ImageIO.write(image, "png", file);
+        return file;
+    }
+}
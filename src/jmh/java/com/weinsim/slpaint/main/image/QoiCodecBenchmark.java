@@ -0,0 +1,99 @@
+package com.weinsim.slpaint.main.image;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encodes and decodes a 1024 x 1024 ARGB image with {@link QoiCodec} and with
+ * the PNG writer and reader of {@link ImageIO}. The "drawing" content has large
+ * flat areas and lines of a few colors, the "noise" content has a random color
+ * in every pixel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QoiCodecBenchmark {
+
+    private static final int SIZE = 1024;
+
+    @Param({ "drawing", "noise" })
+    public String content;
+
+    private int[] pixels;
+    private BufferedImage image;
+    private byte[] qoi, png;
+
+    @Setup
+    public void createImage() throws IOException {
+        Random random = new Random(0);
+        Image drawing = new Image(SIZE, SIZE, 0xffffffff);
+        if (content.equals("noise")) {
+            int[] row = new int[SIZE];
+            for (int y = 0; y < SIZE; y++) {
+                for (int x = 0; x < SIZE; x++)
+                    row[x] = random.nextInt();
+                drawing.setSubImage(0, y, SIZE, 1, row);
+            }
+        } else {
+            int[] colors = { 0xff000000, 0xffd03010, 0x802050a0, 0xff20c040 };
+            for (int i = 0; i < 200; i++)
+                drawing.drawLine(random.nextInt(SIZE), random.nextInt(SIZE), random.nextInt(SIZE),
+                        random.nextInt(SIZE), 1 + random.nextInt(20), colors[random.nextInt(colors.length)]);
+            drawing.floodFill(0, 0, 0xffffe080);
+        }
+        pixels = new int[SIZE * SIZE];
+        drawing.getPixels(0, 0, SIZE, SIZE, pixels, 0, SIZE);
+
+        image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, SIZE, SIZE, pixels, 0, SIZE);
+        qoi = QoiCodec.encode(pixels, SIZE, SIZE);
+        png = writePng(image);
+    }
+
+    private static byte[] writePng(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] encodeQoi() {
+        return QoiCodec.encode(pixels, SIZE, SIZE);
+    }
+
+    @Benchmark
+    public byte[] encodePng() throws IOException {
+        return writePng(image);
+    }
+
+    @Benchmark
+    public int[] decodeQoi() throws IOException {
+        return QoiCodec.decode(qoi);
+    }
+
+    @Benchmark
+    public BufferedImage decodePng() throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(png));
+    }
+}
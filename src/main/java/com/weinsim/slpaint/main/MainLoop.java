@@ -185,7 +185,7 @@ public class MainLoop {
     // Random random = new Random();
     // for (int i = 0; i < 1000; i++) {
     // long l = Math.abs(random.nextInt());
-    // System.out.format("%010d %s\n", l, MainApp.formatFilesize(l));
+    // System.out.format("%010d %s\n", l, SUtil.formatFilesize(l));
     // }
     // }
 
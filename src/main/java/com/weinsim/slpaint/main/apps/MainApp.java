@@ -2,7 +2,6 @@ package com.weinsim.slpaint.main.apps;
 
 import static org.lwjgl.glfw.GLFW.*;
 
-import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
@@ -16,7 +15,10 @@ import com.weinsim.slpaint.main.ColorPicker;
 import com.weinsim.slpaint.main.Loader;
 import com.weinsim.slpaint.main.image.Image;
 import com.weinsim.slpaint.main.image.ImageFormat;
+import com.weinsim.slpaint.main.image.ImageHistory;
 import com.weinsim.slpaint.main.image.ImageManager;
+import com.weinsim.slpaint.main.image.Interpolation;
+import com.weinsim.slpaint.main.image.ResizeFilter;
 import com.weinsim.slpaint.settings.BooleanSetting;
 import com.weinsim.slpaint.settings.ColorArraySetting;
 import com.weinsim.slpaint.settings.Settings;
@@ -41,10 +43,6 @@ import com.weinsim.slpaint.ui.components.ImageCanvas;
  *       closes the resize window. => add option for keyboard shortcut to not
  *       run if something is currently selected (similar to text input).
  *   Pencil tool
- *     Drawing with a semi-transparent color has weird artifacts because some
- *       pixels are drawn multiple times on consecutive frames, resulting in
- *       the wrong opacity
- *       => Make the pencil tool also use the temp framebuffer?
  *     Sizes 1 & 2 and 3 & 4 look the same
  *     Make sizes UI prettier
  *   Selection (/ drag tools)
@@ -337,7 +335,7 @@ public final class MainApp extends App {
         window.setTitle(String.format("%s%s - SLPaint", hasUnsavedChanges ? "" + (char) 0x2022 + " " : "", filename));
 
         // update image texture
-        getImage().updateOpenGLTexture();
+        getDisplayImage().updateOpenGLTexture();
     }
 
     @Override
@@ -345,6 +343,7 @@ public final class MainApp extends App {
         if (canClose || !imageManager.hasUnsavedChanges() || !isAskUnsavedChanges()) {
             if (super.finish()) {
                 Settings.finish();
+                ImageHistory.finish();
                 return true;
             }
             return false;
@@ -390,21 +389,23 @@ public final class MainApp extends App {
      * Stretches / squishes the image.
      * Not to be confused with {@link MainApp#cropImage(int, int)}.
      */
-    public void resizeImage(int newWidth, int newHeight) {
+    public void resizeImage(int newWidth, int newHeight, ResizeFilter filter) {
+        if (isImageLoading())
+            return;
         finishActiveTool();
 
         newWidth = Math.min(Math.max(MIN_IMAGE_SIZE, newWidth), MAX_IMAGE_SIZE);
         newHeight = Math.min(Math.max(MIN_IMAGE_SIZE, newHeight), MAX_IMAGE_SIZE);
 
+        getImage().resize(newWidth, newHeight, filter);
         renderer.setTempFBOSize(newWidth, newHeight);
-        renderer.resizeImage(getImage(), newWidth, newHeight);
 
         addImageSnapshot();
     }
 
     /**
      * Crops the image. Not to be confused with
-     * {@link MainApp#resizeImage(int, int)}.
+     * {@link MainApp#resizeImage(int, int, ResizeFilter)}.
      */
     public void cropImage(int newWidth, int newHeight) {
         cropImage(0, 0, newWidth, newHeight);
@@ -412,9 +413,11 @@ public final class MainApp extends App {
 
     /**
      * Crops the image. Not to be confused with
-     * {@link MainApp#resizeImage(int, int)}.
+     * {@link MainApp#resizeImage(int, int, ResizeFilter)}.
      */
     public void cropImage(int x, int y, int newWidth, int newHeight) {
+        if (isImageLoading())
+            return;
         finishActiveTool();
 
         Image image = getImage();
@@ -431,6 +434,8 @@ public final class MainApp extends App {
     }
 
     public void rotateImageRight() {
+        if (isImageLoading())
+            return;
         finishActiveTool();
         Image image = getImage();
         image.rotateRight();
@@ -439,6 +444,8 @@ public final class MainApp extends App {
     }
 
     public void rotateImageLeft() {
+        if (isImageLoading())
+            return;
         finishActiveTool();
         Image image = getImage();
         image.rotateLeft();
@@ -447,25 +454,33 @@ public final class MainApp extends App {
     }
 
     public void rotateImage180() {
+        if (isImageLoading())
+            return;
         finishActiveTool();
         getImage().rotate180();
         addImageSnapshot();
     }
 
     public void flipImageHorizontal() {
+        if (isImageLoading())
+            return;
         finishActiveTool();
         getImage().flipHorizontal();
         addImageSnapshot();
     }
 
     public void flipImageVertical() {
+        if (isImageLoading())
+            return;
         finishActiveTool();
         getImage().flipVertical();
         addImageSnapshot();
     }
 
-    public void setImage(BufferedImage image) {
-        getImage().setBufferedImage(image);
+    public void setImage(Image image) {
+        if (isImageLoading())
+            return;
+        getImage().setImage(image);
         renderer.setTempFBOSize(image.getWidth(), image.getHeight());
         addImageSnapshot();
     }
@@ -475,8 +490,9 @@ public final class MainApp extends App {
         addImageSnapshot();
     }
 
-    public void renderImageToImage(Image image, int x, int y, int width, int height) {
-        renderer.renderImageToImage(image, x, y, width, height, getImage());
+    public void renderTransformedImage(Image image, double x, double y, double width, double height, double angle,
+            Interpolation interpolation) {
+        getImage().drawTransformedImage(image, x, y, width, height, angle, interpolation);
         addImageSnapshot();
     }
 
@@ -557,10 +573,29 @@ public final class MainApp extends App {
         imageManager.addSnapshot();
     }
 
+    public void discardImageChanges() {
+        imageManager.discardUncommittedChanges();
+    }
+
     public Image getImage() {
         return imageManager.getImage();
     }
 
+    /**
+     * @see ImageManager#getDisplayImage()
+     */
+    public Image getDisplayImage() {
+        return imageManager.getDisplayImage();
+    }
+
+    public boolean isImageLoading() {
+        return imageManager.isLoading();
+    }
+
+    public double getImageLoadingProgress() {
+        return imageManager.getLoadingProgress();
+    }
+
     public long getFilesize() {
         return imageManager.getFilesize();
     }
@@ -772,24 +807,6 @@ public final class MainApp extends App {
         return customColorButtonArray;
     }
 
-    public static String formatFilesize(long filesize) {
-        final String[] prefixes = { "k", "M", "G", "T" };
-        long remainder = 0;
-        for (int i = 0; i < prefixes.length + 1; i++) {
-            if (filesize < 1024) {
-                if (i == 0) {
-                    return filesize + "B";
-                } else {
-                    String unit = prefixes[i - 1] + "B";
-                    return "%d.%02d%s".formatted(filesize, (remainder * 100) / 1024, unit);
-                }
-            }
-            remainder = (filesize & 0x3FF);
-            filesize = filesize >> 10;
-        }
-        return "[Filesize too large!]";
-    }
-
     public static int toInt(Vector4f color) {
         return SUtil.toARGB(color.x * 255, color.y * 255, color.z * 255, color.w * 255);
     }
@@ -1,5 +1,7 @@
 package com.weinsim.slpaint.main.apps;
 
+import com.weinsim.slpaint.main.image.Image;
+import com.weinsim.slpaint.main.image.ResizeFilter;
 import com.weinsim.slpaint.renderengine.Window;
 import com.weinsim.slpaint.sutil.ui.UI;
 import com.weinsim.slpaint.sutil.ui.elements.UINumberInput;
@@ -12,13 +14,27 @@ public final class ResizeApp extends App {
 
     public static final int CROP = 1, SCALE = 0;
 
+    /**
+     * Maximum width and height of the preview in pixels
+     */
+    private static final int PREVIEW_SIZE = 256;
+
     private MainApp mainApp;
 
+    /**
+     * A downscaled copy of the image that the preview is computed from, so that
+     * the full image is only resized (or cropped) once in {@link #done()}.
+     */
+    private Image proxy, preview;
+    private int previewWidth, previewHeight, previewMode;
+    private ResizeFilter previewFilter;
+
     private UINumberInput widthInput;
 
     private int widthPixels = 0, heightPixels = 0;
     private double widthPercentage = 0, heightPercentage = 0;
     private int resizeMode;
+    private ResizeFilter filter = ResizeFilter.LANCZOS3;
 
     private boolean lockRatio;
 
@@ -48,6 +64,11 @@ public final class ResizeApp extends App {
         maxWidthPercentage = 100.0 * MainApp.MAX_IMAGE_SIZE / initialWidth;
         maxHeightPercentage = 100.0 * MainApp.MAX_IMAGE_SIZE / initialHeight;
 
+        // the context of this window is current, so the textures of the proxy and
+        // preview belong to this window
+        proxy = mainApp.getImage().createProxy(PREVIEW_SIZE);
+        updatePreview();
+
         loadUI();
     }
 
@@ -67,6 +88,53 @@ public final class ResizeApp extends App {
             UI.select(widthInput);
 
         window.setTitle(getTitle());
+
+        updatePreview();
+    }
+
+    @Override
+    public boolean finish() {
+        proxy.cleanUp();
+        preview.cleanUp();
+        return super.finish();
+    }
+
+    /**
+     * Recomputes the preview from the proxy if the size, resize mode or filter
+     * changed since the last time.
+     */
+    private void updatePreview() {
+        if (preview != null && previewWidth == widthPixels && previewHeight == heightPixels
+                && previewMode == resizeMode && previewFilter == filter)
+            return;
+        previewWidth = widthPixels;
+        previewHeight = heightPixels;
+        previewMode = resizeMode;
+        previewFilter = filter;
+
+        // the preview shows the result scaled by this factor
+        double scale = Math.min((double) PREVIEW_SIZE / Math.max(widthPixels, heightPixels), 1);
+        int width = Math.max((int) Math.round(widthPixels * scale), 1),
+                height = Math.max((int) Math.round(heightPixels * scale), 1);
+
+        Image newPreview;
+        if (resizeMode == CROP) {
+            int scaledWidth = Math.max((int) Math.round(initialWidth * scale), 1),
+                    scaledHeight = Math.max((int) Math.round(initialHeight * scale), 1);
+            if (scaledWidth == proxy.getWidth() && scaledHeight == proxy.getHeight()) {
+                newPreview = proxy.createCroppedImage(0, 0, width, height, mainApp.getSecondaryColor());
+            } else {
+                Image scaled = proxy.createResizedImage(scaledWidth, scaledHeight, ResizeFilter.BOX);
+                newPreview = scaled.createCroppedImage(0, 0, width, height, mainApp.getSecondaryColor());
+                scaled.cleanUp();
+            }
+        } else {
+            newPreview = proxy.createResizedImage(width, height, filter);
+        }
+
+        if (preview != null)
+            preview.cleanUp();
+        preview = newPreview;
     }
 
     @Override
@@ -79,6 +147,18 @@ public final class ResizeApp extends App {
         return new ResizeUI(this);
     }
 
+    public int getPreviewTextureID() {
+        return preview.getTextureID();
+    }
+
+    public int getPreviewWidth() {
+        return preview.getWidth();
+    }
+
+    public int getPreviewHeight() {
+        return preview.getHeight();
+    }
+
     public void setWidthInput(UINumberInput widthInput) {
         this.widthInput = widthInput;
     }
@@ -87,7 +167,7 @@ public final class ResizeApp extends App {
         mainApp.queueEvent(
                 switch (resizeMode) {
                     case CROP -> () -> mainApp.cropImage(widthPixels, heightPixels);
-                    case SCALE -> () -> mainApp.resizeImage(widthPixels, heightPixels);
+                    case SCALE -> () -> mainApp.resizeImage(widthPixels, heightPixels, filter);
                     default -> throw new IllegalArgumentException("resizeMode must be either CROP or SCALE");
                 });
         requestClose();
@@ -223,6 +303,17 @@ public final class ResizeApp extends App {
         this.resizeMode = resizeMode;
     }
 
+    /**
+     * @return The index of the selected filter in {@link ResizeFilter#values()}
+     */
+    public int getFilter() {
+        return filter.ordinal();
+    }
+
+    public void setFilter(int filter) {
+        this.filter = ResizeFilter.values()[filter];
+    }
+
     public boolean isLockRatio() {
         return lockRatio;
     }
@@ -0,0 +1,71 @@
+package com.weinsim.slpaint.main.image;
+
+/**
+ * Porter-Duff source-over compositing of ARGB pixels onto a destination with
+ * straight (non-premultiplied) alpha, using integer arithmetic only. The
+ * source can either have straight or premultiplied alpha. The result has
+ * straight alpha.
+ *
+ * <p>
+ * Divisions by 255 use {@code (x + 1 + (x >> 8)) >> 8}, which is exact for
+ * {@code 0 <= x < 65535}. Only pixels blended onto a semi-transparent
+ * destination need a real division (one per pixel instead of one per
+ * channel). Compared to the exact result, channels are at most 1 too large.
+ * </p>
+ */
+final class AlphaBlend {
+
+    private AlphaBlend() {
+    }
+
+    /**
+     * @return {@code floor(x / 255)} for {@code 0 <= x < 65535}
+     */
+    static int div255(int x) {
+        return (x + 1 + (x >> 8)) >> 8;
+    }
+
+    /**
+     * Blends {@code src} over {@code dst}.
+     *
+     * @param premultiplied Wether the color channels of {@code src} are
+     *                      premultiplied with its alpha
+     */
+    static int sourceOver(int src, int dst, boolean premultiplied) {
+        int srcAlpha = src >>> 24;
+        if (srcAlpha == 0)
+            return dst;
+        if (srcAlpha == 255)
+            return src;
+
+        int dstAlpha = dst >>> 24;
+        int invSrcAlpha = 255 - srcAlpha;
+        int alpha = 255 - div255(invSrcAlpha * (255 - dstAlpha));
+
+        if (dstAlpha == 255) {
+            int r, g, b;
+            if (premultiplied) {
+                // out = s + (255 - srcAlpha) * d / 255
+                r = ((src >> 16) & 0xFF) + div255(invSrcAlpha * ((dst >> 16) & 0xFF));
+                g = ((src >> 8) & 0xFF) + div255(invSrcAlpha * ((dst >> 8) & 0xFF));
+                b = (src & 0xFF) + div255(invSrcAlpha * (dst & 0xFF));
+            } else {
+                // out = (srcAlpha * s + (255 - srcAlpha) * d) / 255
+                r = div255(srcAlpha * ((src >> 16) & 0xFF) + invSrcAlpha * ((dst >> 16) & 0xFF));
+                g = div255(srcAlpha * ((src >> 8) & 0xFF) + invSrcAlpha * ((dst >> 8) & 0xFF));
+                b = div255(srcAlpha * (src & 0xFF) + invSrcAlpha * (dst & 0xFF));
+            }
+            return alpha << 24 | Math.min(r, 255) << 16 | Math.min(g, 255) << 8 | Math.min(b, 255);
+        }
+
+        // out = (srcAlpha * 255 * s + (255 - srcAlpha) * dstAlpha * d)
+        // / (srcAlpha * 255 + (255 - srcAlpha) * dstAlpha)
+        int srcFactor = premultiplied ? 255 * 255 : srcAlpha * 255,
+                dstFactor = invSrcAlpha * dstAlpha;
+        long inverse = (1L << 32) / (srcAlpha * 255 + dstFactor) + 1;
+        int r = (int) ((srcFactor * ((src >> 16) & 0xFF) + dstFactor * ((dst >> 16) & 0xFF)) * inverse >>> 32),
+                g = (int) ((srcFactor * ((src >> 8) & 0xFF) + dstFactor * ((dst >> 8) & 0xFF)) * inverse >>> 32),
+                b = (int) ((srcFactor * (src & 0xFF) + dstFactor * (dst & 0xFF)) * inverse >>> 32);
+        return alpha << 24 | Math.min(r, 255) << 16 | Math.min(g, 255) << 8 | Math.min(b, 255);
+    }
+}
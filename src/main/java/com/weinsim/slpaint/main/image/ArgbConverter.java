@@ -0,0 +1,259 @@
+package com.weinsim.slpaint.main.image;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Converts the rows of a {@code BufferedImage} to non-premultiplied ARGB
+ * pixels. The layouts that image readers usually produce (packed ints,
+ * interleaved bytes, palettes) are read directly from the data buffer, so a
+ * whole image can be converted with nothing but a buffer for a few rows.
+ * Anything else is drawn with {@code Graphics2D}, one band of rows at a time.
+ */
+final class ArgbConverter {
+
+    private static final VarHandle BIG_ENDIAN_INT = MethodHandles.byteArrayViewVarHandle(int[].class,
+            ByteOrder.BIG_ENDIAN);
+
+    private enum Layout {
+        INT_ARGB, INT_RGB, BYTE_ABGR, BYTE_RGB, BYTE_GRAY, BYTE_INDEXED, PACKED_INDEXED, GENERIC
+    }
+
+    private final BufferedImage image;
+    private final int width;
+    private final Layout layout;
+
+    private final SampleModel sampleModel;
+    private final int translateX, translateY;
+    private final int dataOffset;
+    private int[] intData;
+    private byte[] byteData;
+
+    /**
+     * The position of each component within a pixel for {@code BYTE_RGB}. For
+     * {@code BYTE_GRAY} and {@code BYTE_INDEXED}, {@code red} is the position
+     * of the only component. {@code alpha} is {@code -1} if there is no alpha
+     * channel.
+     */
+    private int red, green, blue, alpha;
+    private int pixelStride, scanlineStride;
+    /**
+     * The ARGB colors of the palette for {@code BYTE_INDEXED} and
+     * {@code PACKED_INDEXED}, padded to cover every possible index.
+     */
+    private int[] palette;
+
+    ArgbConverter(BufferedImage image) {
+        this.image = image;
+        width = image.getWidth();
+
+        WritableRaster raster = image.getRaster();
+        sampleModel = raster.getSampleModel();
+        translateX = raster.getSampleModelTranslateX();
+        translateY = raster.getSampleModelTranslateY();
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        dataOffset = dataBuffer.getOffset();
+
+        layout = findLayout(image.getColorModel(), dataBuffer);
+    }
+
+    private Layout findLayout(ColorModel colorModel, DataBuffer dataBuffer) {
+        if (dataBuffer.getNumBanks() != 1 || colorModel.isAlphaPremultiplied())
+            return Layout.GENERIC;
+
+        if (dataBuffer instanceof DataBufferInt intBuffer
+                && sampleModel instanceof SinglePixelPackedSampleModel packedModel) {
+            intData = intBuffer.getData();
+            pixelStride = 1;
+            scanlineStride = packedModel.getScanlineStride();
+            return switch (image.getType()) {
+                case BufferedImage.TYPE_INT_ARGB -> Layout.INT_ARGB;
+                case BufferedImage.TYPE_INT_RGB -> Layout.INT_RGB;
+                default -> Layout.GENERIC;
+            };
+        }
+
+        if (!(dataBuffer instanceof DataBufferByte byteBuffer))
+            return Layout.GENERIC;
+        byteData = byteBuffer.getData();
+
+        if (colorModel instanceof IndexColorModel indexColorModel) {
+            int bits = sampleModel.getSampleSize(0);
+            if (bits > 8)
+                return Layout.GENERIC;
+            palette = new int[1 << bits];
+            int mapSize = Math.min(indexColorModel.getMapSize(), palette.length);
+            int[] rgbs = new int[indexColorModel.getMapSize()];
+            indexColorModel.getRGBs(rgbs);
+            System.arraycopy(rgbs, 0, palette, 0, mapSize);
+
+            if (sampleModel instanceof MultiPixelPackedSampleModel packedModel) {
+                scanlineStride = packedModel.getScanlineStride();
+                return Layout.PACKED_INDEXED;
+            }
+            if (sampleModel instanceof ComponentSampleModel componentModel && bits == 8) {
+                pixelStride = componentModel.getPixelStride();
+                scanlineStride = componentModel.getScanlineStride();
+                red = componentModel.getBandOffsets()[0];
+                return Layout.BYTE_INDEXED;
+            }
+            return Layout.GENERIC;
+        }
+
+        if (!(colorModel instanceof ComponentColorModel)
+                || !(sampleModel instanceof ComponentSampleModel componentModel))
+            return Layout.GENERIC;
+        for (int size : componentModel.getSampleSize()) {
+            if (size != 8)
+                return Layout.GENERIC;
+        }
+
+        ColorSpace colorSpace = colorModel.getColorSpace();
+        int numBands = componentModel.getNumBands();
+        int[] bandOffsets = componentModel.getBandOffsets();
+        pixelStride = componentModel.getPixelStride();
+        scanlineStride = componentModel.getScanlineStride();
+        if (colorSpace.isCS_sRGB() && (numBands == 3 || numBands == 4)) {
+            red = bandOffsets[0];
+            green = bandOffsets[1];
+            blue = bandOffsets[2];
+            alpha = numBands == 4 ? bandOffsets[3] : -1;
+            // the layout of TYPE_4BYTE_ABGR, which is what the PNG reader
+            // produces for images with alpha
+            if (pixelStride == 4 && alpha == 0 && blue == 1 && green == 2 && red == 3)
+                return Layout.BYTE_ABGR;
+            return Layout.BYTE_RGB;
+        }
+        // Java2D copies gray values without any gamma conversion, but only if
+        // there is no alpha channel
+        if (colorSpace.getType() == ColorSpace.TYPE_GRAY && numBands == 1) {
+            red = bandOffsets[0];
+            return Layout.BYTE_GRAY;
+        }
+        return Layout.GENERIC;
+    }
+
+    /**
+     * Writes the pixels of the rows {@code y} to {@code y + h - 1} of the image
+     * to {@code dst}, starting at {@code offset} with a stride of the image
+     * width.
+     */
+    void convertRows(int y, int h, int[] dst, int offset) {
+        if (layout == Layout.GENERIC) {
+            drawRows(y, h, dst, offset);
+            return;
+        }
+
+        for (int row = 0; row < h; row++)
+            convertRow(y + row, dst, offset + row * width);
+    }
+
+    private void convertRow(int y, int[] dst, int offset) {
+        final int[] intData = this.intData;
+        final byte[] byteData = this.byteData;
+        final int width = this.width, pixelStride = this.pixelStride;
+        final int red = this.red, green = this.green, blue = this.blue, alpha = this.alpha;
+        int index = dataOffset + (y - translateY) * scanlineStride - translateX * pixelStride;
+        switch (layout) {
+            case INT_ARGB -> System.arraycopy(intData, index, dst, offset, width);
+            case INT_RGB -> {
+                for (int x = 0; x < width; x++)
+                    dst[offset + x] = 0xff000000 | intData[index + x];
+            }
+            case BYTE_ABGR -> {
+                // read each pixel as one int and swap red and blue
+                for (int x = 0; x < width; x++, index += 4) {
+                    int abgr = (int) BIG_ENDIAN_INT.get(byteData, index);
+                    dst[offset + x] = (abgr & 0xff00ff00) | (abgr >>> 16 & 0xff) | (abgr & 0xff) << 16;
+                }
+            }
+            case BYTE_RGB -> {
+                if (alpha < 0) {
+                    for (int x = 0; x < width; x++, index += pixelStride) {
+                        dst[offset + x] = 0xff000000
+                                | (byteData[index + red] & 0xff) << 16
+                                | (byteData[index + green] & 0xff) << 8
+                                | (byteData[index + blue] & 0xff);
+                    }
+                } else {
+                    for (int x = 0; x < width; x++, index += pixelStride) {
+                        dst[offset + x] = (byteData[index + alpha] & 0xff) << 24
+                                | (byteData[index + red] & 0xff) << 16
+                                | (byteData[index + green] & 0xff) << 8
+                                | (byteData[index + blue] & 0xff);
+                    }
+                }
+            }
+            case BYTE_GRAY -> {
+                for (int x = 0; x < width; x++, index += pixelStride) {
+                    int gray = byteData[index + red] & 0xff;
+                    dst[offset + x] = 0xff000000 | gray << 16 | gray << 8 | gray;
+                }
+            }
+            case BYTE_INDEXED -> {
+                final int[] palette = this.palette;
+                for (int x = 0; x < width; x++, index += pixelStride)
+                    dst[offset + x] = palette[byteData[index + red] & 0xff];
+            }
+            case PACKED_INDEXED -> {
+                final int[] palette = this.palette;
+                MultiPixelPackedSampleModel packedModel = (MultiPixelPackedSampleModel) sampleModel;
+                int bits = packedModel.getPixelBitStride();
+                int mask = (1 << bits) - 1;
+                int bitOffset = packedModel.getDataBitOffset() - translateX * bits;
+                for (int x = 0; x < width; x++, bitOffset += bits) {
+                    int value = byteData[index + (bitOffset >> 3)] >> (8 - bits - (bitOffset & 7));
+                    dst[offset + x] = palette[value & mask];
+                }
+            }
+            case GENERIC -> throw new IllegalStateException();
+        }
+    }
+
+    private void drawRows(int y, int h, int[] dst, int offset) {
+        DataBufferInt buffer = new DataBufferInt(dst, width * h, offset);
+        WritableRaster raster = Raster.createPackedRaster(buffer, width, h, width,
+                new int[] { 0x00ff0000, 0x0000ff00, 0x000000ff, 0xff000000 }, null);
+        BufferedImage band = new BufferedImage(ColorModel.getRGBdefault(), raster, false, null);
+
+        Graphics2D g = band.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(image.getSubimage(0, y, width, h), 0, 0, null);
+        g.dispose();
+    }
+
+    /**
+     * Creates a {@code TileGrid} containing the pixels of {@code image}.
+     */
+    static TileGrid toGrid(BufferedImage image) {
+        int width = image.getWidth(),
+                height = image.getHeight();
+        TileGrid grid = new TileGrid(width, height, 0);
+        ArgbConverter converter = new ArgbConverter(image);
+        int bandHeight = Math.min(TileGrid.TILE_SIZE, height);
+        int[] band = new int[width * bandHeight];
+        for (int y = 0; y < height; y += bandHeight) {
+            int h = Math.min(bandHeight, height - y);
+            converter.convertRows(y, h, band, 0);
+            grid.write(0, y, width, h, band, 0, width);
+        }
+        return grid;
+    }
+}
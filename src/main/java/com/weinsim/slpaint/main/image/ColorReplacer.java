@@ -0,0 +1,89 @@
+package com.weinsim.slpaint.main.image;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Replaces all pixels of a {@link TileGrid} that match a given color. Since
+ * there is no connectivity constraint, the grid is split into bands of tile
+ * rows that are processed in parallel on the common {@link ForkJoinPool}.
+ * Every band owns its tiles, so no synchronization is needed.
+ */
+final class ColorReplacer extends RecursiveTask<Boolean> {
+
+    /**
+     * Bands with at most this many tile rows are not split any further.
+     */
+    private static final int MAX_BAND_SIZE = 1;
+
+    private final TileGrid grid;
+    private final int baseColor, color, tolerance;
+    private final int startTileY, endTileY;
+
+    private ColorReplacer(TileGrid grid, int baseColor, int color, int tolerance, int startTileY, int endTileY) {
+        this.grid = grid;
+        this.baseColor = baseColor;
+        this.color = color;
+        this.tolerance = tolerance;
+        this.startTileY = startTileY;
+        this.endTileY = endTileY;
+    }
+
+    /**
+     * @return Wether any pixel has been changed
+     */
+    static boolean replace(TileGrid grid, int baseColor, int color, int tolerance) {
+        return ForkJoinPool.commonPool().invoke(
+                new ColorReplacer(grid, baseColor, color, tolerance, 0, grid.numTilesY));
+    }
+
+    @Override
+    protected Boolean compute() {
+        if (endTileY - startTileY > MAX_BAND_SIZE) {
+            int middle = (startTileY + endTileY) >>> 1;
+            ColorReplacer top = new ColorReplacer(grid, baseColor, color, tolerance, startTileY, middle);
+            ColorReplacer bottom = new ColorReplacer(grid, baseColor, color, tolerance, middle, endTileY);
+            top.fork();
+            boolean changed = bottom.compute();
+            return top.join() | changed;
+        }
+
+        boolean changed = false;
+        for (int ty = startTileY; ty < endTileY; ty++) {
+            for (int tx = 0; tx < grid.numTilesX; tx++)
+                changed |= replaceInTile(tx, ty);
+        }
+        return changed;
+    }
+
+    private boolean replaceInTile(int tx, int ty) {
+        final int shift = TileGrid.TILE_SHIFT;
+        int index = ty * grid.numTilesX + tx;
+        int[] tile = grid.tiles[index];
+        if (tile == null) {
+            int tileColor = grid.tileColors[index];
+            if (tileColor == color || !FloodFill.matches(tileColor, baseColor, tolerance))
+                return false;
+            grid.tileColors[index] = color;
+            return true;
+        }
+
+        int w = Math.min(TileGrid.TILE_SIZE, grid.width - (tx << shift)),
+                h = Math.min(TileGrid.TILE_SIZE, grid.height - (ty << shift));
+        boolean changed = false;
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int c = tile[(y << shift) | x];
+                if (c == color || !FloodFill.matches(c, baseColor, tolerance))
+                    continue;
+
+                // only copy / modify the tile once it is clear that something changes
+                if (grid.shared[index])
+                    tile = grid.writableTile(index);
+                tile[(y << shift) | x] = color;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+}
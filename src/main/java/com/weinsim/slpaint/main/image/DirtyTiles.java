@@ -0,0 +1,109 @@
+package com.weinsim.slpaint.main.image;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of which parts of a {@link TileGrid} have been modified, as one
+ * bounding box per tile. Unlike a single bounding box for the whole grid, two
+ * small changes far apart from each other only mark two small areas. Marking
+ * an area only touches the tiles it intersects, so it is cheap enough to be
+ * done for every span of a rasterized shape.
+ */
+final class DirtyTiles {
+
+    final int width, height;
+    private final int numTilesX;
+    /**
+     * The dirty area of every tile in grid coordinates (inclusive bounds), only
+     * valid if the tile is in {@code dirtyList}
+     */
+    private final int[] minX, minY, maxX, maxY;
+    /**
+     * The indices of all dirty tiles in the order they were first modified
+     */
+    private final int[] dirtyList;
+    private final boolean[] isDirty;
+    private int numDirty;
+
+    DirtyTiles(int width, int height) {
+        this.width = width;
+        this.height = height;
+        numTilesX = (width + TileGrid.TILE_SIZE - 1) >> TileGrid.TILE_SHIFT;
+        int numTiles = numTilesX * ((height + TileGrid.TILE_SIZE - 1) >> TileGrid.TILE_SHIFT);
+
+        minX = new int[numTiles];
+        minY = new int[numTiles];
+        maxX = new int[numTiles];
+        maxY = new int[numTiles];
+        dirtyList = new int[numTiles];
+        isDirty = new boolean[numTiles];
+    }
+
+    /**
+     * Marks the area {@code [x0, x1) x [y0, y1)} as dirty. Parts of the area
+     * outside of the grid are ignored.
+     */
+    void add(int x0, int y0, int x1, int y1) {
+        x0 = Math.max(x0, 0);
+        y0 = Math.max(y0, 0);
+        x1 = Math.min(x1, width);
+        y1 = Math.min(y1, height);
+        if (x0 >= x1 || y0 >= y1)
+            return;
+
+        final int shift = TileGrid.TILE_SHIFT;
+        for (int ty = y0 >> shift; ty <= (y1 - 1) >> shift; ty++) {
+            int tileY0 = Math.max(y0, ty << shift),
+                    tileY1 = Math.min(y1, (ty + 1) << shift) - 1;
+            for (int tx = x0 >> shift; tx <= (x1 - 1) >> shift; tx++) {
+                int tileX0 = Math.max(x0, tx << shift),
+                        tileX1 = Math.min(x1, (tx + 1) << shift) - 1;
+
+                int index = ty * numTilesX + tx;
+                if (!isDirty[index]) {
+                    isDirty[index] = true;
+                    dirtyList[numDirty++] = index;
+                    minX[index] = tileX0;
+                    minY[index] = tileY0;
+                    maxX[index] = tileX1;
+                    maxY[index] = tileY1;
+                } else {
+                    minX[index] = Math.min(minX[index], tileX0);
+                    minY[index] = Math.min(minY[index], tileY0);
+                    maxX[index] = Math.max(maxX[index], tileX1);
+                    maxY[index] = Math.max(maxY[index], tileY1);
+                }
+            }
+        }
+    }
+
+    void addAll() {
+        add(0, 0, width, height);
+    }
+
+    boolean isEmpty() {
+        return numDirty == 0;
+    }
+
+    /**
+     * Calls {@code action} once for the dirty area of every dirty tile.
+     */
+    void forEach(Image.RegionConsumer action) {
+        for (int i = 0; i < numDirty; i++) {
+            int index = dirtyList[i];
+            action.accept(minX[index], minY[index],
+                    maxX[index] - minX[index] + 1,
+                    maxY[index] - minY[index] + 1);
+        }
+    }
+
+    void clear() {
+        if (numDirty > dirtyList.length / 4) {
+            Arrays.fill(isDirty, false);
+        } else {
+            for (int i = 0; i < numDirty; i++)
+                isDirty[dirtyList[i]] = false;
+        }
+        numDirty = 0;
+    }
+}
@@ -0,0 +1,246 @@
+package com.weinsim.slpaint.main.image;
+
+import java.util.Arrays;
+
+/**
+ * Scanline flood fill on a {@link TileGrid}. Finds the 4-connected area of
+ * pixels around a seed whose color matches the seed's color (see
+ * {@link FloodFill#matches(int, int, int)}), one horizontal span at a time.
+ * Pending seeds are kept on a primitive stack and visited pixels in a bitset,
+ * so nothing is allocated per pixel. Pixels are read one short row segment at
+ * a time (see {@link FloodFill#segment(int, int)}), except for spans that are
+ * only one pixel wide (see {@link FloodFill#fillSinglePixels}).
+ */
+final class FloodFill {
+
+    @FunctionalInterface
+    interface SpanConsumer {
+
+        /**
+         * Called once for every span {@code [x0, x1) x {y}} of the area. The
+         * consumer may modify the pixels of the span.
+         */
+        void accept(int x0, int x1, int y);
+    }
+
+    private static final int NUM_SEGMENTS = 4;
+    /**
+     * Short enough that narrow spans (e.g. going down a one pixel wide column)
+     * don't read much more than they need, and long enough that wide spans
+     * only need a few reads per row. Divides {@link TileGrid#TILE_SIZE}.
+     */
+    private static final int SEGMENT_SHIFT = 6,
+            SEGMENT_SIZE = 1 << SEGMENT_SHIFT,
+            SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private final TileGrid grid;
+    private final int width, height;
+    private final int baseColor;
+    private final int tolerance;
+
+    private final long[] visited;
+
+    /**
+     * Copies of recently read row segments
+     * ({@code [x & ~SEGMENT_MASK, (x & ~SEGMENT_MASK) + SEGMENT_SIZE) x {y}}),
+     * which never cross a tile border. Rows are mapped to slots by
+     * {@code y % NUM_SEGMENTS}, so a row and its two neighbors never evict each
+     * other. Pixels are only modified by the consumer after they are marked as
+     * visited, so stale copies never matter.
+     */
+    private final int[][] segments = new int[NUM_SEGMENTS][SEGMENT_SIZE];
+    private final int[] segmentY = new int[NUM_SEGMENTS],
+            segmentIndex = new int[NUM_SEGMENTS];
+
+    /**
+     * Pairs of (x, y) coordinates
+     */
+    private int[] stack;
+    private int stackSize;
+
+    FloodFill(TileGrid grid, int baseColor, int tolerance) {
+        this.grid = grid;
+        this.baseColor = baseColor;
+        this.tolerance = tolerance;
+
+        width = grid.width;
+        height = grid.height;
+
+        visited = new long[(int) (((long) width * height + 63) >> 6)];
+        stack = new int[256];
+        stackSize = 0;
+
+        Arrays.fill(segmentY, -1);
+    }
+
+    void run(int x, int y, SpanConsumer consumer) {
+        final int mask = SEGMENT_MASK;
+        push(x, y);
+        while (stackSize > 0) {
+            stackSize -= 2;
+            int seedX = stack[stackSize],
+                    seedY = stack[stackSize + 1];
+            if (!isFillable(seedX, seedY))
+                continue;
+            if (!isFillable(seedX - 1, seedY) && !isFillable(seedX + 1, seedY)) {
+                fillSinglePixels(seedX, seedY, consumer);
+                continue;
+            }
+
+            int[] row = segment(seedX, seedY);
+            int x0 = seedX, x1 = seedX + 1;
+            while (x0 > 0) {
+                if ((x0 & mask) == 0)
+                    row = segment(x0 - 1, seedY);
+                if (!isFillable(x0 - 1, seedY, row[(x0 - 1) & mask]))
+                    break;
+                x0--;
+            }
+            row = segment(seedX, seedY);
+            while (x1 < width) {
+                if ((x1 & mask) == 0)
+                    row = segment(x1, seedY);
+                if (!isFillable(x1, seedY, row[x1 & mask]))
+                    break;
+                x1++;
+            }
+
+            setVisited(x0, x1, seedY);
+            consumer.accept(x0, x1, seedY);
+
+            if (seedY > 0)
+                pushSpans(x0, x1, seedY - 1);
+            if (seedY < height - 1)
+                pushSpans(x0, x1, seedY + 1);
+        }
+    }
+
+    /**
+     * Fills {@code (x, y)}, a fillable pixel whose left and right neighbors
+     * aren't fillable, and follows the column up or down for as long as the
+     * next pixel is such a one pixel wide span as well. Reading single pixels
+     * instead of row segments and not going through the stack makes thin
+     * vertical lines about as cheap as filling them pixel by pixel.
+     */
+    private void fillSinglePixels(int x, int y, SpanConsumer consumer) {
+        while (true) {
+            setVisited(x, x + 1, y);
+            consumer.accept(x, x + 1, y);
+
+            boolean up = y > 0 && isFillable(x, y - 1),
+                    down = y < height - 1 && isFillable(x, y + 1);
+            if (up && down)
+                push(x, y - 1);
+            else if (!up && !down)
+                return;
+
+            y = down ? y + 1 : y - 1;
+            if (isFillable(x - 1, y) || isFillable(x + 1, y)) {
+                push(x, y);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Pushes one seed for every run of fillable pixels in {@code [x0, x1) x {y}}.
+     */
+    private void pushSpans(int x0, int x1, int y) {
+        boolean inRun = false;
+        for (int x = x0; x < x1;) {
+            int[] row = segment(x, y);
+            int segmentEnd = Math.min(x1, (x | SEGMENT_MASK) + 1);
+            for (; x < segmentEnd; x++) {
+                if (isFillable(x, y, row[x & SEGMENT_MASK])) {
+                    if (!inRun)
+                        push(x, y);
+                    inRun = true;
+                } else {
+                    inRun = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The pixels of the row segment containing {@code (x, y)}, indexed
+     *         by {@code x & SEGMENT_MASK}
+     */
+    private int[] segment(int x, int y) {
+        int slot = y % NUM_SEGMENTS,
+                index = x >> SEGMENT_SHIFT;
+        int[] segment = segments[slot];
+        if (segmentY[slot] != y || segmentIndex[slot] != index) {
+            int segmentX = index << SEGMENT_SHIFT;
+            grid.readRow(segmentX, y, Math.min(SEGMENT_SIZE, width - segmentX), segment, 0);
+            segmentY[slot] = y;
+            segmentIndex[slot] = index;
+        }
+        return segment;
+    }
+
+    /**
+     * Like {@link FloodFill#isFillable(int, int, int)}, but reads the single
+     * pixel from the grid. {@code x} may be outside of the image.
+     */
+    private boolean isFillable(int x, int y) {
+        if (x < 0 || x >= width)
+            return false;
+        long index = (long) y * width + x;
+        if ((visited[(int) (index >>> 6)] & (1L << index)) != 0)
+            return false;
+        return matches(grid.get(x, y), baseColor, tolerance);
+    }
+
+    private boolean isFillable(int x, int y, int color) {
+        long index = (long) y * width + x;
+        if ((visited[(int) (index >>> 6)] & (1L << index)) != 0)
+            return false;
+        return matches(color, baseColor, tolerance);
+    }
+
+    /**
+     * @param tolerance The maximum difference of each ARGB channel (0 - 255)
+     * @return Wether {@code color} and {@code baseColor} differ by at most
+     *         {@code tolerance} in every channel
+     */
+    static boolean matches(int color, int baseColor, int tolerance) {
+        if (tolerance == 0)
+            return color == baseColor;
+
+        for (int shift = 0; shift < 32; shift += 8) {
+            int a = (color >>> shift) & 0xFF,
+                    b = (baseColor >>> shift) & 0xFF;
+            if (Math.abs(a - b) > tolerance)
+                return false;
+        }
+        return true;
+    }
+
+    private void setVisited(int x0, int x1, int y) {
+        long from = (long) y * width + x0,
+                to = (long) y * width + x1;
+        int fromWord = (int) (from >>> 6),
+                toWord = (int) ((to - 1) >>> 6);
+        long fromMask = -1L << from,
+                toMask = -1L >>> -to;
+        if (fromWord == toWord) {
+            visited[fromWord] |= fromMask & toMask;
+            return;
+        }
+        visited[fromWord] |= fromMask;
+        for (int i = fromWord + 1; i < toWord; i++)
+            visited[i] = -1L;
+        visited[toWord] |= toMask;
+    }
+
+    private void push(int x, int y) {
+        if (stackSize + 2 > stack.length) {
+            int[] newStack = new int[stack.length * 2];
+            System.arraycopy(stack, 0, newStack, 0, stackSize);
+            stack = newStack;
+        }
+        stack[stackSize++] = x;
+        stack[stackSize++] = y;
+    }
+}
@@ -0,0 +1,141 @@
+package com.weinsim.slpaint.main.image;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Rotates a {@link TileGrid} by 90 degrees. The rotated grid is filled one tile
+ * at a time, and every tile in blocks of {@code BLOCK_SIZE} x
+ * {@code BLOCK_SIZE} pixels, so that the column-wise reads from the source
+ * stay in the cache. Bands of tile rows are processed in parallel on the
+ * common {@link ForkJoinPool}. Every band owns its tiles, so no
+ * synchronization is needed. Tiles that only cover uniform source tiles of a
+ * single color stay uniform.
+ */
+final class GridRotation extends RecursiveAction {
+
+    private static final int BLOCK_SIZE = 64;
+    /**
+     * Bands with at most this many tile rows are not split any further.
+     */
+    private static final int MAX_BAND_SIZE = 1;
+
+    private final TileGrid src, dst;
+    private final boolean invertX, invertY;
+    private final int startTileY, endTileY;
+
+    private GridRotation(TileGrid src, TileGrid dst, boolean invertX, boolean invertY, int startTileY,
+            int endTileY) {
+        this.src = src;
+        this.dst = dst;
+        this.invertX = invertX;
+        this.invertY = invertY;
+        this.startTileY = startTileY;
+        this.endTileY = endTileY;
+    }
+
+    /**
+     * Pixel {@code (x, y)} of the rotated grid is pixel
+     * {@code (invertY ? width - 1 - y : y, invertX ? height - 1 - x : x)} of
+     * {@code src}.
+     */
+    static TileGrid rotate(TileGrid src, boolean invertX, boolean invertY) {
+        TileGrid dst = new TileGrid(src.height, src.width, 0);
+        ForkJoinPool.commonPool().invoke(new GridRotation(src, dst, invertX, invertY, 0, dst.numTilesY));
+        return dst;
+    }
+
+    @Override
+    protected void compute() {
+        if (endTileY - startTileY > MAX_BAND_SIZE) {
+            int middle = (startTileY + endTileY) >>> 1;
+            invokeAll(new GridRotation(src, dst, invertX, invertY, startTileY, middle),
+                    new GridRotation(src, dst, invertX, invertY, middle, endTileY));
+            return;
+        }
+
+        for (int ty = startTileY; ty < endTileY; ty++) {
+            for (int tx = 0; tx < dst.numTilesX; tx++)
+                rotateTile(tx, ty);
+        }
+    }
+
+    private void rotateTile(int tx, int ty) {
+        final int shift = TileGrid.TILE_SHIFT,
+                mask = TileGrid.TILE_MASK;
+        int x0 = tx << shift,
+                y0 = ty << shift,
+                x1 = Math.min(x0 + TileGrid.TILE_SIZE, dst.width),
+                y1 = Math.min(y0 + TileGrid.TILE_SIZE, dst.height);
+        int index = ty * dst.numTilesX + tx;
+
+        // source area: x from the destination rows, y from the destination columns
+        int srcX0 = invertY ? src.width - y1 : y0,
+                srcX1 = invertY ? src.width - 1 - y0 : y1 - 1,
+                srcY0 = invertX ? src.height - x1 : x0,
+                srcY1 = invertX ? src.height - 1 - x0 : x1 - 1;
+        if (isUniform(srcX0 >> shift, srcY0 >> shift, srcX1 >> shift, srcY1 >> shift)) {
+            dst.tileColors[index] = src.tileColors[(srcY0 >> shift) * src.numTilesX + (srcX0 >> shift)];
+            return;
+        }
+
+        int[] tile = new int[TileGrid.TILE_AREA];
+        for (int by = y0; by < y1; by += BLOCK_SIZE) {
+            int blockY1 = Math.min(by + BLOCK_SIZE, y1);
+            for (int bx = x0; bx < x1; bx += BLOCK_SIZE) {
+                int blockX1 = Math.min(bx + BLOCK_SIZE, x1);
+                for (int y = by; y < blockY1; y++) {
+                    int srcX = invertY ? src.width - 1 - y : y;
+                    copyColumn(srcX, bx, blockX1, tile, (y & mask) << shift);
+                }
+            }
+        }
+        dst.tiles[index] = tile;
+    }
+
+    /**
+     * Copies the source pixels of the destination row segment {@code [x0, x1)}
+     * (which lie in column {@code srcX} of the source) into {@code tile},
+     * starting at {@code rowOffset}.
+     */
+    private void copyColumn(int srcX, int x0, int x1, int[] tile, int rowOffset) {
+        final int shift = TileGrid.TILE_SHIFT,
+                mask = TileGrid.TILE_MASK;
+        int step = invertX ? -TileGrid.TILE_SIZE : TileGrid.TILE_SIZE;
+        int x = x0;
+        while (x < x1) {
+            int srcY = invertX ? src.height - 1 - x : x;
+            // number of pixels until the column leaves the current source tile
+            int n = Math.min(x1 - x, invertX ? (srcY & mask) + 1 : TileGrid.TILE_SIZE - (srcY & mask));
+
+            int srcIndex = (srcY >> shift) * src.numTilesX + (srcX >> shift);
+            int[] srcTile = src.tiles[srcIndex];
+            int dstOffset = rowOffset | (x & mask);
+            if (srcTile == null) {
+                Arrays.fill(tile, dstOffset, dstOffset + n, src.tileColors[srcIndex]);
+            } else {
+                int srcOffset = ((srcY & mask) << shift) | (srcX & mask);
+                for (int i = 0; i < n; i++, srcOffset += step)
+                    tile[dstOffset + i] = srcTile[srcOffset];
+            }
+            x += n;
+        }
+    }
+
+    /**
+     * @return Wether all source tiles in the given (inclusive) range are uniform
+     *         tiles of the same color
+     */
+    private boolean isUniform(int tx0, int ty0, int tx1, int ty1) {
+        int color = src.tileColors[ty0 * src.numTilesX + tx0];
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                int index = ty * src.numTilesX + tx;
+                if (src.tiles[index] != null || src.tileColors[index] != color)
+                    return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,223 +1,378 @@
 package com.weinsim.slpaint.main.image;
 
-import static org.lwjgl.opengl.GL11.*;
-import static org.lwjgl.opengl.GL12.*;
-import static org.lwjgl.opengl.GL30.*;
-
-import java.awt.AlphaComposite;
-import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferInt;
-import java.nio.IntBuffer;
-import java.util.Arrays;
-
-import org.lwjgl.BufferUtils;
+import java.util.ArrayList;
 
 import com.weinsim.slpaint.renderengine.Cleanable;
 import com.weinsim.slpaint.sutil.SUtil;
-import com.weinsim.slpaint.sutil.math.SVector;
 
 public class Image implements Cleanable {
 
-    private int textureID;
+    /**
+     * Receives an area {@code [x, x + width) x [y, y + height)} of an image
+     */
+    @FunctionalInterface
+    public interface RegionConsumer {
+        void accept(int x, int y, int width, int height);
+    }
+
+    @FunctionalInterface
+    public interface RegionPredicate {
+        boolean test(int x, int y, int width, int height);
+    }
 
-    private BufferedImage bufferedImage;
-    private int[] pixelArray; // the backing array of bufferedImage
-    private int width, height;
+    @FunctionalInterface
+    public interface TextureConsumer {
+        /**
+         * Receives a texture that shows the area {@code [x, x + width) x [y, y +
+         * height)} of an image
+         */
+        void accept(int textureID, int x, int y, int width, int height);
+    }
 
-    private boolean dirty;
-    private int dirtyMinX;
-    private int dirtyMaxX;
-    private int dirtyMinY;
-    private int dirtyMaxY;
+    /**
+     * Created once the image is drawn for the first time
+     */
+    private TextureTiles textures;
 
-    public Image(BufferedImage image) {
-        textureID = glGenTextures();
+    private TileGrid grid;
+    /**
+     * Reused by every call of {@link Image#drawLine}
+     */
+    private final LineRasterizer lineRasterizer = new LineRasterizer();
+    /**
+     * The pixels drawn by the current stroke, or {@code null} if no stroke is in
+     * progress
+     */
+    private StrokeCoverage stroke;
+    /**
+     * Scratch buffer for blending one row of pixels at a time
+     */
+    private int[] rowBuffer;
+
+    /**
+     * The areas that have to be uploaded to the textures
+     */
+    private DirtyTiles dirtyTiles;
+
+    /**
+     * Same as the dirty areas, but only reset by {@link ImageHistory} (instead of
+     * after every texture upload).
+     */
+    private DirtyTiles changedTiles;
+
+    /**
+     * The operations performed on the image since the log was started, or
+     * {@code null} if no log is recorded. Only used by {@link ImageHistory}.
+     */
+    private ArrayList<ImageOperation> operationLog;
+    /**
+     * Wether every modification since the log was started is covered by
+     * {@code operationLog}
+     */
+    private boolean operationLogComplete;
+    /**
+     * The number of nested operations currently being performed. Only the
+     * outermost one is logged.
+     */
+    private int operationDepth;
 
+    public Image(BufferedImage image) {
         setBufferedImage(image);
     }
 
-    public void setBufferedImage(BufferedImage image) {
-        setBufferedImage(image, false);
+    /**
+     * Creates a new image where every pixel has the given color. No pixel data is
+     * allocated until the image is drawn on.
+     */
+    public Image(int width, int height, int color) {
+        this(new TileGrid(width, height, color));
     }
 
-    /**
-     * 
-     * @param image
-     * @param copy  Wether to copy the underlying image data.
-     */
-    public void setBufferedImage(BufferedImage image, boolean copy) {
-        // convert image to ARGB format
-        if (image.getType() != BufferedImage.TYPE_INT_ARGB) {
-            BufferedImage newImage = new BufferedImage(image.getWidth(), image.getHeight(),
-                    BufferedImage.TYPE_INT_ARGB);
-
-            Graphics2D g = newImage.createGraphics();
-            g.setComposite(AlphaComposite.Src);
-            g.drawImage(image, 0, 0, null);
-            g.dispose();
-
-            image = newImage;
-        } else if (copy) {
-            image = copyBufferedImage(image);
-        }
+    Image(TileGrid grid) {
+        setGrid(grid);
+    }
 
-        bufferedImage = image;
-        pixelArray = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
-        width = image.getWidth();
-        height = image.getHeight();
+    public void setBufferedImage(BufferedImage image) {
+        setGrid(ArgbConverter.toGrid(image));
+    }
 
-        updateOpenGLTexture(false);
+    /**
+     * Replaces the contents of this image with a copy of the contents of
+     * {@code image}.
+     */
+    public void setImage(Image image) {
+        setGrid(image.grid.copy());
     }
 
-    public void updateOpenGLTexture() {
-        if (dirty) {
-            updateOpenGLTexture(true);
+    /**
+     * Sets the size of the image and sets every pixel to the given color.
+     */
+    public void reset(int newWidth, int newHeight, int color) {
+        if (newWidth == getWidth() && newHeight == getHeight()) {
+            setPixels(0, 0, newWidth, newHeight, color);
+        } else {
+            setGrid(new TileGrid(newWidth, newHeight, color));
         }
     }
 
-    public void updateOpenGLTexture(boolean subArea) {
-        IntBuffer buffer = BufferUtils.createIntBuffer(width * height);
-        buffer.put(pixelArray);
-        buffer.flip();
+    void setGrid(TileGrid grid) {
+        if (isLoggingOperations())
+            operationLogComplete = false;
 
-        glBindTexture(GL_TEXTURE_2D, textureID);
+        this.grid = grid;
+        // the coverage of a running stroke doesn't match the new pixels
+        stroke = null;
 
-        if (subArea) {
-            int dirtyWidth = dirtyMaxX - dirtyMinX + 1,
-                    dirtyHeight = dirtyMaxY - dirtyMinY + 1;
+        if (dirtyTiles == null || dirtyTiles.width != grid.width || dirtyTiles.height != grid.height) {
+            dirtyTiles = new DirtyTiles(grid.width, grid.height);
+            changedTiles = new DirtyTiles(grid.width, grid.height);
+            if (textures != null) {
+                textures.cleanUp();
+                textures = null;
+            }
+        }
+        dirtyTiles.addAll();
+        changedTiles.addAll();
+    }
 
-            glPixelStorei(GL_UNPACK_ROW_LENGTH, width);
-            glPixelStorei(GL_UNPACK_SKIP_PIXELS, dirtyMinX);
-            glPixelStorei(GL_UNPACK_SKIP_ROWS, dirtyMinY);
+    TileGrid getGrid() {
+        return grid;
+    }
 
-            glTexSubImage2D(GL_TEXTURE_2D, 0, dirtyMinX, dirtyMinY, dirtyWidth, dirtyHeight, GL_BGRA,
-                    GL_UNSIGNED_INT_8_8_8_8_REV, buffer);
+    /**
+     * Makes all tiles intersecting the given area identical to the corresponding
+     * tiles of {@code src}, which must have the same size as this image.
+     */
+    void restoreArea(TileGrid src, int x, int y, int w, int h) {
+        final int shift = TileGrid.TILE_SHIFT;
+        for (int ty = y >> shift; ty <= (y + h - 1) >> shift; ty++) {
+            for (int tx = x >> shift; tx <= (x + w - 1) >> shift; tx++) {
+                int index = ty * grid.numTilesX + tx;
+                grid.shareTile(index, src, index);
+            }
+        }
 
-            dirty = false;
+        setDirty(x, y, x + w, y + h);
+    }
 
-            glPixelStorei(GL_UNPACK_ROW_LENGTH, 0);
-            glPixelStorei(GL_UNPACK_SKIP_PIXELS, 0);
-            glPixelStorei(GL_UNPACK_SKIP_ROWS, 0);
-        } else {
-            glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+    /**
+     * Calls {@code action} for every area that has been modified since the
+     * texture was last updated. The areas don't overlap and each of them lies
+     * within a single tile, so two small changes far apart from each other are
+     * reported as two small areas.
+     */
+    public void forEachDirtyRegion(RegionConsumer action) {
+        dirtyTiles.forEach(action);
+    }
 
-            glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0, GL_BGRA,
-                    GL_UNSIGNED_INT_8_8_8_8_REV, buffer);
-        }
+    /**
+     * Like {@link Image#forEachDirtyRegion}, but for the areas that have been
+     * modified since the last call to {@link Image#clearChangedRegions()}.
+     */
+    void forEachChangedRegion(RegionConsumer action) {
+        changedTiles.forEach(action);
+    }
 
-        glGenerateMipmap(GL_TEXTURE_2D);
+    boolean hasChangedRegions() {
+        return !changedTiles.isEmpty();
     }
 
-    private static BufferedImage copyBufferedImage(BufferedImage oldImage) {
-        int width = oldImage.getWidth(),
-                height = oldImage.getHeight();
-        int[] oldPixels = ((DataBufferInt) oldImage.getRaster().getDataBuffer()).getData();
+    void clearChangedRegions() {
+        changedTiles.clear();
+    }
 
-        BufferedImage newImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        int[] newPixels = ((DataBufferInt) newImage.getRaster().getDataBuffer()).getData();
+    /**
+     * Starts a new operation log, replacing the current one.
+     */
+    void startOperationLog() {
+        operationLog = new ArrayList<>();
+        // lines drawn from now on depend on the coverage of the running stroke
+        operationLogComplete = stroke == null;
+    }
 
-        System.arraycopy(oldPixels, 0, newPixels, 0, oldPixels.length);
+    void stopOperationLog() {
+        operationLog = null;
+    }
 
-        return newImage;
+    /**
+     * @return The operations performed since the log was started, or
+     *         {@code null} if they don't reproduce all modifications since then
+     *         (e.g. because pixels were modified by a method that isn't logged)
+     */
+    ArrayList<ImageOperation> getOperationLog() {
+        return operationLogComplete && stroke == null ? operationLog : null;
     }
 
-    public BufferedImage createBufferedImageCopy() {
-        return copyBufferedImage(bufferedImage);
+    private boolean isLoggingOperations() {
+        return operationLog != null && operationDepth == 0;
     }
 
-    public void crop(int startX, int startY, int newWidth, int newHeight, int backgroundColor) {
-        if (newWidth == width && newHeight == height)
-            return;
+    /**
+     * Runs {@code body}, which must have the same effect as
+     * {@code operation.apply(this)}, and adds {@code operation} to the operation
+     * log.
+     */
+    private void perform(ImageOperation operation, Runnable body) {
+        if (isLoggingOperations())
+            operationLog.add(operation);
+
+        operationDepth++;
+        try {
+            body.run();
+        } catch (RuntimeException e) {
+            // replaying the operation would fail as well
+            operationLogComplete = false;
+            throw e;
+        } finally {
+            operationDepth--;
+        }
+    }
 
-        BufferedImage oldImage = bufferedImage,
-                newImage = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_ARGB);
+    /**
+     * Copies the areas modified since the last call into the textures and deletes
+     * the textures that haven't been drawn in a while. Has to be called once per
+     * frame for images that are drawn with
+     * {@link Image#forEachTextureTile}.
+     */
+    public void updateOpenGLTexture() {
+        uploadDirtyRegions();
+        if (textures != null)
+            textures.nextFrame();
+    }
 
-        int oldWidth = oldImage.getWidth(),
-                oldHeight = oldImage.getHeight();
+    private void uploadDirtyRegions() {
+        if (textures != null)
+            forEachDirtyRegion((x, y, w, h) -> textures.update(grid, x, y, w, h));
+        dirtyTiles.clear();
+    }
 
-        int[] oldPixels = ((DataBufferInt) oldImage.getRaster().getDataBuffer()).getData(),
-                newPixels = ((DataBufferInt) newImage.getRaster().getDataBuffer()).getData();
+    private TextureTiles getTextures() {
+        uploadDirtyRegions();
+        if (textures == null)
+            textures = new TextureTiles(getWidth(), getHeight());
+        return textures;
+    }
 
-        if (startX < 0 || startX + newWidth > oldWidth || startY < 0 || startY + newHeight > oldHeight)
-            Arrays.fill(newPixels, backgroundColor);
+    /**
+     * Calls {@code draw} for every texture tile of the image that covers an area
+     * accepted by {@code visible}. Only the textures of visible tiles are created
+     * (or kept up to date), and for zoomed out views they have a lower
+     * resolution.
+     *
+     * @param zoom The number of screen pixels per image pixel
+     */
+    public void forEachTextureTile(double zoom, RegionPredicate visible, TextureConsumer draw) {
+        getTextures().forEach(grid, zoom, visible, draw);
+    }
 
-        // all coordinates are w.r.t. the new image
-        int copyStartX = Math.max(0, -startX),
-                copyStartY = Math.max(0, -startY);
-        int copyEndX = Math.min(oldWidth - startX, newWidth),
-                copyEndY = Math.min(oldHeight - startY, newHeight);
-        int copyWidth = copyEndX - copyStartX;
+    /**
+     * Creates a {@code BufferedImage} (of type {@code TYPE_INT_ARGB}) containing a
+     * copy of the pixels of this image. This is only needed for exporting the
+     * image (saving, clipboard).
+     */
+    public BufferedImage createBufferedImage() {
+        return grid.createBufferedImage();
+    }
 
-        if (copyWidth > 0) {
-            for (int y = copyStartY; y < copyEndY; y++) {
-                int oldIndex = (y + startY) * oldWidth + (copyStartX + startX),
-                        newIndex = y * newWidth + copyStartX;
-                System.arraycopy(oldPixels, oldIndex, newPixels, newIndex, copyWidth);
-            }
-        }
+    public void crop(int startX, int startY, int newWidth, int newHeight, int backgroundColor) {
+        perform(new ImageOperation.Crop(startX, startY, newWidth, newHeight, backgroundColor), () -> {
+            if (newWidth == getWidth() && newHeight == getHeight())
+                return;
 
-        setBufferedImage(newImage);
+            setGrid(grid.crop(startX, startY, newWidth, newHeight, backgroundColor));
+        });
     }
 
-    public void resize(int newWidth, int newHeight, int[] pixels) {
-        BufferedImage image = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_ARGB);
-        int[] imagePixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
-        System.arraycopy(pixels, 0, imagePixels, 0, pixels.length);
+    /**
+     * Scales the image to the new size. The work is spread across all available
+     * cores.
+     */
+    public void resize(int newWidth, int newHeight, ResizeFilter filter) {
+        perform(new ImageOperation.Resize(newWidth, newHeight, filter), () -> {
+            if (newWidth == getWidth() && newHeight == getHeight())
+                return;
 
-        setBufferedImage(image);
+            setGrid(SeparableResampler.resize(grid, newWidth, newHeight, filter));
+        });
     }
 
     public void rotateLeft() {
-        rotate(false, true);
+        perform(new ImageOperation.Reorient(ImageOperation.Orientation.ROTATE_LEFT), () -> rotate(false, true));
     }
 
     public void rotateRight() {
-        rotate(true, false);
+        perform(new ImageOperation.Reorient(ImageOperation.Orientation.ROTATE_RIGHT), () -> rotate(true, false));
     }
 
     private void rotate(boolean invertX, boolean invertY) {
-        int newWidth = height,
-                newHeight = width;
-        BufferedImage image = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_ARGB);
-        int[] imagePixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
-        for (int y = 0; y < newHeight; y++) {
-            for (int x = 0; x < newWidth; x++) {
-                int oldIndex = (invertX ? height - 1 - x : x) * width + (invertY ? width - 1 - y : y);
-                imagePixels[y * newWidth + x] = pixelArray[oldIndex];
-            }
-        }
-        setBufferedImage(image);
+        setGrid(GridRotation.rotate(grid, invertX, invertY));
     }
 
     public void rotate180() {
-        flip(true, true);
+        perform(new ImageOperation.Reorient(ImageOperation.Orientation.ROTATE_180), () -> flip(true, true));
     }
 
     public void flipHorizontal() {
-        flip(true, false);
+        perform(new ImageOperation.Reorient(ImageOperation.Orientation.FLIP_HORIZONTAL), () -> flip(true, false));
     }
 
     public void flipVertical() {
-        flip(false, true);
+        perform(new ImageOperation.Reorient(ImageOperation.Orientation.FLIP_VERTICAL), () -> flip(false, true));
     }
 
+    /**
+     * Flips the image in place, swapping / reversing one pair of rows at a time.
+     */
     private void flip(boolean flipX, boolean flipY) {
-        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        int[] imagePixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int oldIndex = (flipY ? height - 1 - y : y) * width + (flipX ? width - 1 - x : x);
-                imagePixels[y * width + x] = pixelArray[oldIndex];
+        int width = getWidth(),
+                height = getHeight();
+        int[] row = new int[width],
+                mirroredRow = new int[width];
+        int numRows = flipY ? (height + 1) / 2 : height;
+        for (int y = 0; y < numRows; y++) {
+            int mirroredY = flipY ? height - 1 - y : y;
+            grid.readRow(0, y, width, row, 0);
+            if (flipX)
+                reverse(row);
+            if (mirroredY == y) {
+                if (flipX)
+                    grid.writeRow(0, y, width, row, 0);
+                continue;
             }
+
+            grid.readRow(0, mirroredY, width, mirroredRow, 0);
+            if (flipX)
+                reverse(mirroredRow);
+            grid.writeRow(0, mirroredY, width, row, 0);
+            grid.writeRow(0, y, width, mirroredRow, 0);
+        }
+
+        setDirty(0, 0, width, height);
+    }
+
+    private static void reverse(int[] row) {
+        for (int i = 0, j = row.length - 1; i < j; i++, j--) {
+            int temp = row[i];
+            row[i] = row[j];
+            row[j] = temp;
         }
-        setBufferedImage(image);
     }
 
     public int getPixel(int x, int y) {
         checkBounds(x, y);
 
-        return pixelArray[y * width + x];
+        return grid.get(x, y);
+    }
+
+    /**
+     * Copies the pixels of the given area into {@code dst}, starting at
+     * {@code offset} with a row stride of {@code stride}.
+     */
+    public void getPixels(int x, int y, int w, int h, int[] dst, int offset, int stride) {
+        checkBounds(x, y, w, h);
+
+        grid.read(x, y, w, h, dst, offset, stride);
     }
 
     /**
@@ -230,29 +385,94 @@ public class Image implements Cleanable {
      * @see Image#drawPixel
      */
     public void setPixel(int x, int y, int color) {
-        checkBounds(x, y);
+        perform(new ImageOperation.SetPixel(x, y, color), () -> {
+            checkBounds(x, y);
 
-        pixelArray[y * width + x] = color;
-        setDirty(x, y);
+            grid.set(x, y, color);
+            setDirty(x, y, x + 1, y + 1);
+        });
     }
 
     public void setPixels(int x, int y, int w, int h, int color) {
-        checkBounds(x, y, w, h);
+        perform(new ImageOperation.SetPixels(x, y, w, h, color), () -> {
+            checkBounds(x, y, w, h);
 
-        if (w == width) {
-            int fromIndex = y * width + x,
-                    toIndex = (y + h) * width;
-            Arrays.fill(pixelArray, fromIndex, toIndex, color);
-        } else {
-            for (int row = y; row < y + h; row++) {
-                int fromIndex = row * width + x,
-                        toIndex = fromIndex + w;
-                Arrays.fill(pixelArray, fromIndex, toIndex, color);
+            grid.fill(x, y, w, h, color);
+
+            setDirty(x, y, x + w, y + h);
+        });
+    }
+
+    public void floodFill(int x, int y, int color) {
+        floodFill(x, y, color, 0);
+    }
+
+    /**
+     * Sets all pixels of the 4-connected area around {@code (x, y)} whose color
+     * differs from the color at {@code (x, y)} by at most {@code tolerance} (in
+     * every ARGB channel, 0 - 255) to {@code color}. Like
+     * {@link Image#setPixel(int, int, int)}, this does not respect the color's
+     * alpha value.
+     */
+    public void floodFill(int x, int y, int color, int tolerance) {
+        perform(new ImageOperation.FloodFill(x, y, color, tolerance), () -> {
+            checkBounds(x, y);
+
+            int baseColor = grid.get(x, y);
+            if (baseColor == color && tolerance == 0)
+                return;
+
+            new FloodFill(grid, baseColor, tolerance).run(x, y, (x0, x1, row) -> {
+                grid.fillRow(x0, row, x1 - x0, color);
+                setDirty(x0, row, x1, row + 1);
+            });
+        });
+    }
+
+    /**
+     * Sets all pixels of the image whose color differs from {@code baseColor} by
+     * at most {@code tolerance} (in every ARGB channel, 0 - 255) to
+     * {@code color}, regardless of whether they are connected. The rows of the
+     * image are processed in parallel.
+     */
+    public void replaceColor(int baseColor, int color, int tolerance) {
+        perform(new ImageOperation.ReplaceColor(baseColor, color, tolerance), () -> {
+            if (ColorReplacer.replace(grid, baseColor, color, tolerance)) {
+                setDirty(0, 0, getWidth(), getHeight());
             }
-        }
+        });
+    }
+
+    /**
+     * @return A mask of the 4-connected area around {@code (x, y)} whose color
+     *         differs from the color at {@code (x, y)} by at most
+     *         {@code tolerance} (in every ARGB channel, 0 - 255)
+     * @see Image#floodFill(int, int, int, int)
+     */
+    public SelectionMask magicWand(int x, int y, int tolerance) {
+        checkBounds(x, y);
+
+        SelectionMask mask = new SelectionMask(getWidth(), getHeight());
+        new FloodFill(grid, grid.get(x, y), tolerance).run(x, y, mask::setSpan);
+        return mask;
+    }
+
+    /**
+     * Sets all pixels of {@code mask} to {@code color}. Like
+     * {@link Image#setPixel(int, int, int)}, this does not respect the color's
+     * alpha value.
+     */
+    public void setPixels(SelectionMask mask, int color) {
+        checkMaskSize(mask);
+        int[] bounds = mask.getBounds();
+        if (bounds == null)
+            return;
+
+        int x0 = bounds[0], x1 = bounds[0] + bounds[2];
+        for (int y = bounds[1]; y < bounds[1] + bounds[3]; y++)
+            mask.forEachSpan(y, x0, x1, (from, to, row) -> grid.fillRow(from, row, to - from, color));
 
-        setDirty(x, y);
-        setDirty(x + w - 1, y + h - 1);
+        setDirty(x0, bounds[1], x1, bounds[1] + bounds[3]);
     }
 
     /**
@@ -263,52 +483,36 @@ public class Image implements Cleanable {
      * @see Image#setPixel
      */
     public void drawPixel(int x, int y, int color) {
-        checkBounds(x, y);
+        perform(new ImageOperation.DrawPixel(x, y, color), () -> {
+            checkBounds(x, y);
 
-        drawPixelUnsafe(x, y, color, false);
+            drawPixelUnsafe(x, y, color, false);
 
-        setDirty(x, y);
+            setDirty(x, y, x + 1, y + 1);
+        });
     }
 
     private void drawPixelUnsafe(int x, int y, int color, boolean premultipliedAlpha) {
-        int srcAlpha = SUtil.alpha(color);
-
+        int srcAlpha = color >>> 24;
         if (srcAlpha == 0)
             return;
 
-        int c;
-        if (srcAlpha == 255) {
-            c = color;
-        } else {
-            int srcRed = SUtil.red(color),
-                    srcGreen = SUtil.green(color),
-                    srcBlue = SUtil.blue(color);
-
-            int dst = getPixel(x, y);
-            int dstRed = SUtil.red(dst),
-                    dstGreen = SUtil.green(dst),
-                    dstBlue = SUtil.blue(dst),
-                    dstAlpha = SUtil.alpha(dst);
-
-            double sFactor = srcAlpha / 255.0,
-                    dFactor = (1 - srcAlpha / 255.0) * dstAlpha / 255.0;
-            double sum = sFactor + dFactor;
-            if (premultipliedAlpha)
-                sFactor = 1;
-
-            c = SUtil.toARGB(
-                    (sFactor * srcRed + dFactor * dstRed) / sum,
-                    (sFactor * srcGreen + dFactor * dstGreen) / sum,
-                    (sFactor * srcBlue + dFactor * dstBlue) / sum,
-                    255 - (255 - srcAlpha) * (255 - dstAlpha) / 255);
-
-            // c = SUtil.toARGB(
-            // ((255 - srcAlpha) * dstRed + srcAlpha * srcRed) / 255,
-            // ((255 - srcAlpha) * dstGreen + srcAlpha * srcGreen) / 255,
-            // ((255 - srcAlpha) * dstBlue + srcAlpha * srcBlue) / 255,
-            // 255 - (255 - srcAlpha) * (255 - dstAlpha) / 255);
-        }
-        pixelArray[y * width + x] = c;
+        grid.set(x, y, srcAlpha == 255 ? color : AlphaBlend.sourceOver(color, grid.get(x, y), premultipliedAlpha));
+    }
+
+    /**
+     * Starts a stroke of consecutive lines (e.g. of the pencil tool). Until
+     * {@link Image#endStroke()} is called, lines drawn with
+     * {@link Image#drawLine} skip pixels that an earlier line of the stroke has
+     * already drawn, so overlapping segments of a semi-transparent stroke
+     * don't get more opaque.
+     */
+    public void beginStroke() {
+        perform(new ImageOperation.BeginStroke(), () -> stroke = new StrokeCoverage(getWidth(), getHeight()));
+    }
+
+    public void endStroke() {
+        perform(new ImageOperation.EndStroke(), () -> stroke = null);
     }
 
     public void drawLine(int x0, int y0, int x1, int y1, int size, int color) {
@@ -316,64 +520,49 @@ public class Image implements Cleanable {
     }
 
     public void drawLine(int x0, int y0, int x1, int y1, int size, int color, boolean ignoreAlpha) {
-        final int maxOffset = (size - 1) / 2;
-
-        // https://iquilezles.org/articles/distfunctions2d/
-        SVector ba = new SVector(x1 - x0, y1 - y0);
-        double invBaSq = 1.0 / ba.magSq();
-
-        double maxDistSq = ((double) size * size) / 4;
-        int dx = Math.abs(x0 - x1);
-        int dy = Math.abs(y0 - y1);
-        if (dx > dy) {
-            int minx = Math.min(x0, x1),
-                    maxx = Math.max(x0, x1);
-            for (int x = minx - maxOffset; x <= maxx + maxOffset; x++) {
-                int py = x1 == x0 ? y0 : (int) Math.round(SUtil.map(x, x0, x1, y0, y1));
-                for (int yoff = -2 * maxOffset; yoff <= 2 * maxOffset; yoff++) {
-                    int y = py + yoff;
-                    if (!isInside(x, y))
-                        continue;
-                    SVector pa = new SVector(x - x0, y - y0);
-                    double h = Math.min(Math.max(pa.dot(ba) * invBaSq, 0), 1);
-                    if (Double.isFinite(h)) {
-                        pa.x -= ba.x * h;
-                        pa.y -= ba.y * h;
-                    }
-                    double distSq = pa.magSq();
-                    if (distSq < maxDistSq) {
-                        if (ignoreAlpha)
-                            setPixel(x, y, color);
-                        else
-                            drawPixel(x, y, color);
-                    }
-                }
-            }
-        } else {
-            int miny = Math.min(y0, y1),
-                    maxy = Math.max(y0, y1);
-            for (int y = miny - maxOffset; y <= maxy + maxOffset; y++) {
-                int px = y1 == y0 ? x0 : (int) Math.round(SUtil.map(y, y0, y1, x0, x1));
-                for (int xoff = -2 * maxOffset; xoff <= 2 * maxOffset; xoff++) {
-                    int x = px + xoff;
-                    if (!isInside(x, y))
-                        continue;
-                    SVector pa = new SVector(x - x0, y - y0);
-                    double h = Math.min(Math.max(pa.dot(ba) * invBaSq, 0), 1);
-                    if (Double.isFinite(h)) {
-                        pa.x -= ba.x * h;
-                        pa.y -= ba.y * h;
-                    }
-                    double distSq = pa.magSq();
-                    if (distSq < maxDistSq) {
-                        if (ignoreAlpha)
-                            setPixel(x, y, color);
-                        else
-                            drawPixel(x, y, color);
+        perform(new ImageOperation.DrawLine(x0, y0, x1, y1, size, color, ignoreAlpha), () -> {
+            if (!ignoreAlpha && SUtil.alpha(color) == 0)
+                return;
+
+            LineRasterizer line = lineRasterizer;
+            line.set(x0, y0, x1, y1, size, getWidth(), getHeight());
+
+            boolean opaque = ignoreAlpha || SUtil.alpha(color) == 255;
+            for (int y = line.getMinY(); y <= line.getMaxY(); y++) {
+                if (!line.span(y))
+                    continue;
+
+                int start = line.spanStart, end = line.spanEnd;
+                if (opaque) {
+                    grid.fillRow(start, y, end - start, color);
+                } else if (stroke != null) {
+                    // only blend the parts of the span that the stroke hasn't drawn yet
+                    int x = stroke.nextUncovered(start, end, y);
+                    while (x < end) {
+                        int runEnd = stroke.nextCovered(x, end, y);
+                        blendRow(x, y, runEnd - x, color);
+                        x = stroke.nextUncovered(runEnd, end, y);
                     }
+                    stroke.cover(start, end, y);
+                } else {
+                    blendRow(start, y, end - start, color);
                 }
+
+                // marking every span instead of the bounding box keeps long diagonal
+                // lines from marking large areas
+                setDirty(start, y, end, y + 1);
             }
-        }
+        });
+    }
+
+    /**
+     * Blends {@code color} over the pixels in {@code [x, x + length) x {y}}.
+     */
+    private void blendRow(int x, int y, int length, int color) {
+        int[] row = getRowBuffer(length);
+        grid.readRow(x, y, length, row, 0);
+        PixelKernels.INSTANCE.sourceOverRow(color, row, 0, length);
+        grid.writeRow(x, y, length, row, 0);
     }
 
     public void magic(int x0, int y0, int color) {
@@ -394,29 +583,60 @@ public class Image implements Cleanable {
         }
     }
 
-    public BufferedImage getSubImage(int x, int y, int w, int h, Integer backgroundColor) {
+    /**
+     * Creates a new {@code Image} containing the given area of this image. The
+     * tiles are shared (copy on write), so this doesn't copy any pixel data if the
+     * area is aligned to the tile grid.
+     * 
+     * @param backgroundColor If not {@code null}, pixels of this color are made
+     *                        fully transparent in the new image.
+     */
+    public Image getSubImage(int x, int y, int w, int h, Integer backgroundColor) {
         checkBounds(x, y, w, h);
 
-        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
-        int[] outPixels = ((DataBufferInt) out.getRaster().getDataBuffer()).getData();
-
-        int srcStride = width,
-                dstStride = w;
+        TileGrid subGrid = grid.crop(x, y, w, h, 0);
 
-        if (backgroundColor == null || backgroundColor == 0) {
-            for (int row = 0; row < h; row++) {
-                System.arraycopy(pixelArray, (y + row) * srcStride + x, outPixels, row * dstStride, w);
-            }
-            return out;
-        } else {
-            for (int row = 0; row < h; row++) {
-                for (int col = 0; col < w; col++) {
-                    int c = pixelArray[(y + row) * srcStride + (x + col)];
-                    outPixels[row * dstStride + col] = (c == backgroundColor) ? 0 : c;
+        if (backgroundColor != null && backgroundColor != 0) {
+            final int bg = backgroundColor;
+            for (int index = 0; index < subGrid.tiles.length; index++) {
+                int[] tile = subGrid.tiles[index];
+                if (tile == null) {
+                    if (subGrid.tileColors[index] == bg)
+                        subGrid.tileColors[index] = 0;
+                    continue;
                 }
+
+                if (!PixelKernels.INSTANCE.contains(tile, 0, tile.length, bg))
+                    continue;
+
+                tile = subGrid.writableTile(index);
+                PixelKernels.INSTANCE.replace(tile, 0, tile.length, bg, 0);
             }
-            return out;
         }
+
+        return new Image(subGrid);
+    }
+
+    /**
+     * Like {@link Image#getSubImage(int, int, int, int, Integer)}, but pixels of
+     * the area that are not part of {@code mask} are made fully transparent.
+     */
+    public Image getSubImage(SelectionMask mask, int x, int y, int w, int h, Integer backgroundColor) {
+        checkMaskSize(mask);
+        Image subImage = getSubImage(x, y, w, h, backgroundColor);
+
+        TileGrid subGrid = subImage.grid;
+        int[] gapStart = new int[1];
+        for (int row = y; row < y + h; row++) {
+            gapStart[0] = x;
+            mask.forEachSpan(row, x, x + w, (from, to, r) -> {
+                subGrid.fillRow(gapStart[0] - x, r - y, from - gapStart[0], 0);
+                gapStart[0] = to;
+            });
+            subGrid.fillRow(gapStart[0] - x, row - y, x + w - gapStart[0], 0);
+        }
+
+        return subImage;
     }
 
     /**
@@ -444,6 +664,16 @@ public class Image implements Cleanable {
      * @param pixels Are expected to have premultiplied alpha
      */
     private void drawSubImage(int x, int y, int w, int h, int[] pixels, boolean doAlphaBlending) {
+        // the caller may reuse the array
+        ImageOperation operation = isLoggingOperations()
+                ? new ImageOperation.SubImage(x, y, w, h, pixels.clone(), doAlphaBlending)
+                : null;
+        perform(operation, () -> drawSubImageUnlogged(x, y, w, h, pixels, doAlphaBlending));
+    }
+
+    private void drawSubImageUnlogged(int x, int y, int w, int h, int[] pixels, boolean doAlphaBlending) {
+        int width = getWidth(),
+                height = getHeight();
         if (x >= width || x + w <= 0 || y >= height || y + h <= 0)
             return;
 
@@ -458,66 +688,128 @@ public class Image implements Cleanable {
         int numRows = y1 - y0;
 
         if (doAlphaBlending) {
+            int[] dstRow = getRowBuffer(len);
             for (int row = 0; row < numRows; row++) {
-                for (int col = 0; col < len; col++) {
-                    int c = pixels[row * stride + offset + col];
-                    drawPixelUnsafe(col + x0, row + y0, c, true);
-                }
+                grid.readRow(x0, y0 + row, len, dstRow, 0);
+                PixelKernels.INSTANCE.sourceOverRow(pixels, offset + row * stride, dstRow, 0, len, true);
+                grid.writeRow(x0, y0 + row, len, dstRow, 0);
             }
         } else {
-            for (int row = 0; row < numRows; row++) {
-                System.arraycopy(pixels, row * stride + offset, pixelArray, (y0 + row) * width + x0, len);
-            }
+            grid.write(x0, y0, len, numRows, pixels, offset, stride);
         }
 
-        setDirty(x0, y0);
-        setDirty(x1 - 1, y1 - 1);
+        setDirty(x0, y0, x1, y1);
     }
 
-    private void setDirty(int x, int y) {
-        if (!dirty) {
-            dirtyMinX = x;
-            dirtyMaxX = x;
-            dirtyMinY = y;
-            dirtyMaxY = y;
-        } else {
-            dirtyMinX = Math.min(dirtyMinX, x);
-            dirtyMaxX = Math.max(dirtyMaxX, x);
-            dirtyMinY = Math.min(dirtyMinY, y);
-            dirtyMaxY = Math.max(dirtyMaxY, y);
-        }
-        dirty = true;
+    /**
+     * Draws {@code image} scaled to {@code width} x {@code height} at
+     * {@code (x, y)} and rotated by {@code angle} degrees (clockwise) around the
+     * center of that rectangle, blending it with the existing pixels. The
+     * resampling is spread across all available cores.
+     */
+    public void drawTransformedImage(Image image, double x, double y, double width, double height, double angle,
+            Interpolation interpolation) {
+        drawTransformedGrid(image.grid, x, y, width, height, angle, interpolation);
     }
 
-    @Override
-    public void cleanUp() {
-        glDeleteTextures(textureID);
+    void drawTransformedGrid(TileGrid src, double x, double y, double width, double height, double angle,
+            Interpolation interpolation) {
+        // the copy shares its tiles with src, so it stays valid if the drawn image
+        // is modified later
+        ImageOperation operation = isLoggingOperations()
+                ? new ImageOperation.TransformedImage(src.copy(), x, y, width, height, angle, interpolation)
+                : null;
+        perform(operation, () -> {
+            int[] area = Resampler.draw(src, grid, x, y, width, height, angle, interpolation);
+            if (area == null)
+                return;
+
+            setDirty(area[0], area[1], area[2], area[3]);
+        });
     }
 
     /**
-     * 
-     * @param copy Wether to return a copy of the underlying {@code BufferedImage}
-     *             or the {@code BufferedImage} itself
-     * @return
+     * Creates a new image containing this image scaled to {@code width} x
+     * {@code height} and rotated by {@code angle} degrees (clockwise). The new
+     * image has the size of the bounding box of the rotated image, every pixel
+     * outside of the rotated image is fully transparent.
      */
-    public BufferedImage getBufferedImage(boolean copy) {
-        return copy ? copyBufferedImage(bufferedImage) : bufferedImage;
+    public Image createTransformedImage(double width, double height, double angle, Interpolation interpolation) {
+        double[] size = Resampler.getBoundingSize(width, height, angle);
+        TileGrid result = new TileGrid(
+                Math.max((int) Math.ceil(size[0]), 1),
+                Math.max((int) Math.ceil(size[1]), 1),
+                0);
+        Resampler.draw(grid, result, (result.width - width) / 2, (result.height - height) / 2, width, height, angle,
+                interpolation);
+        return new Image(result);
     }
 
-    public BufferedImage getBufferedImage() {
-        return getBufferedImage(false);
+    /**
+     * Creates a copy of this image that is downscaled by a whole number factor,
+     * such that neither side is longer than {@code maxSize} pixels. Meant as a
+     * cheap stand-in for previews that are recomputed often.
+     */
+    public Image createProxy(int maxSize) {
+        int factor = Math.max((Math.max(getWidth(), getHeight()) + maxSize - 1) / maxSize, 1);
+        return new Image(factor == 1 ? grid.copy() : Resampler.downscale(grid, factor));
+    }
+
+    /**
+     * Creates a new image containing this image scaled to the new size. This
+     * image is left unchanged.
+     */
+    public Image createResizedImage(int newWidth, int newHeight, ResizeFilter filter) {
+        return new Image(SeparableResampler.resize(grid, newWidth, newHeight, filter));
+    }
+
+    /**
+     * Creates a new image containing the given area of this image, see
+     * {@link Image#crop(int, int, int, int, int)}. This image is left unchanged.
+     */
+    public Image createCroppedImage(int startX, int startY, int newWidth, int newHeight, int backgroundColor) {
+        return new Image(grid.crop(startX, startY, newWidth, newHeight, backgroundColor));
     }
 
+    private int[] getRowBuffer(int length) {
+        if (rowBuffer == null || rowBuffer.length < length)
+            rowBuffer = new int[Math.max(length, TileGrid.TILE_SIZE)];
+        return rowBuffer;
+    }
+
+    /**
+     * Marks the area {@code [x0, x1) x [y0, y1)} as modified.
+     */
+    private void setDirty(int x0, int y0, int x1, int y1) {
+        if (isLoggingOperations())
+            operationLogComplete = false;
+
+        dirtyTiles.add(x0, y0, x1, y1);
+        changedTiles.add(x0, y0, x1, y1);
+    }
+
+    @Override
+    public void cleanUp() {
+        if (textures != null) {
+            textures.cleanUp();
+            textures = null;
+        }
+    }
+
+    /**
+     * Only for small images (like previews) that fit into a single texture.
+     * Larger images have to be drawn with {@link Image#forEachTextureTile}.
+     */
     public int getTextureID() {
-        return textureID;
+        return getTextures().getSingleTexture(grid);
     }
 
     public int getWidth() {
-        return width;
+        return grid.width;
     }
 
     public int getHeight() {
-        return height;
+        return grid.height;
     }
 
     private void checkBounds(int x, int y) {
@@ -530,7 +822,14 @@ public class Image implements Cleanable {
         checkBounds(x + w - 1, y + h - 1);
     }
 
+    private void checkMaskSize(SelectionMask mask) {
+        if (mask.width != getWidth() || mask.height != getHeight()) {
+            throw new RuntimeException(String.format("Mask size %dx%d doesn't match image size %dx%d",
+                    mask.width, mask.height, getWidth(), getHeight()));
+        }
+    }
+
     public boolean isInside(int x, int y) {
-        return x >= 0 && x < width && y >= 0 && y < height;
+        return x >= 0 && x < grid.width && y >= 0 && y < grid.height;
     }
 }
\ No newline at end of file
@@ -3,14 +3,11 @@ package com.weinsim.slpaint.main.image;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Iterator;
 
 import javax.imageio.ImageIO;
-import javax.imageio.ImageReader;
-import javax.imageio.stream.ImageInputStream;
 
 public class ImageFile {
 
@@ -20,7 +17,6 @@ public class ImageFile {
     private final ImageFormat format;
 
     private final BufferedImage loadedImage;
-    private BufferedImage lastSavedImage = null;
 
     /**
      * Creates a new {@code ImageFile} and loads the image from the specified path
@@ -30,29 +26,23 @@ public class ImageFile {
         this.file = new File(path);
 
         // load image from file
-        FileInputStream fis = new FileInputStream(file);
-        try (ImageInputStream iis = ImageIO.createImageInputStream(fis)) {
-            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
-            String formatName = null;
-            if (readers.hasNext()) {
-                ImageReader reader = readers.next();
-                formatName = reader.getFormatName();
-                format = ImageFormat.fromString(formatName);
-                if (format == null) {
-                    throw new IOException(String.format(
-                            "Unknown image format: \"%s\". This format is not known by the interface main.ImageFormat.",
-                            formatName));
-                }
-                reader.setInput(iis);
-                loadedImage = reader.read(0);
-            } else {
-                throw new IOException(String.format(
-                        "No fitting ImageReader was found for the given file (%s)",
-                        file.getAbsolutePath()));
-            }
+        try (ImageLoader loader = new ImageLoader(file)) {
+            format = loader.format;
+            loadedImage = loader.read();
         }
     }
 
+    /**
+     * Creates a new {@code ImageFile} for a file whose pixels are loaded
+     * separately (see {@link ImageLoader}).
+     */
+    ImageFile(File file, ImageFormat format) {
+        this.file = file;
+        this.format = format;
+
+        loadedImage = null;
+    }
+
     public ImageFile(String path, BufferedImage image, ImageFormat format) throws IOException {
         this.file = new File(path);
         this.format = format;
@@ -72,21 +62,35 @@ public class ImageFile {
         // Remove alpha channel if it is known that the format doesn't support alpha.
         BufferedImage saveImage = image;
         if (!format.supportsAlpha) {
-            saveImage = new BufferedImage(
-                    image.getWidth(),
-                    image.getHeight(),
-                    BufferedImage.TYPE_INT_RGB);
-
-            Graphics2D g = saveImage.createGraphics();
-            g.drawImage(image, 0, 0, Color.WHITE, null);
-            g.dispose();
+            int width = image.getWidth(),
+                    height = image.getHeight();
+            saveImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+            // a raster without parent has exactly width * height pixels
+            if (image.getType() == BufferedImage.TYPE_INT_ARGB && image.getRaster().getParent() == null) {
+                int[] src = ((DataBufferInt) image.getRaster().getDataBuffer()).getData(),
+                        dst = ((DataBufferInt) saveImage.getRaster().getDataBuffer()).getData();
+                for (int y = 0; y < height; y++)
+                    PixelKernels.INSTANCE.flattenRow(src, y * width, dst, y * width, width, Color.WHITE.getRGB());
+            } else {
+                Graphics2D g = saveImage.createGraphics();
+                g.drawImage(image, 0, 0, Color.WHITE, null);
+                g.dispose();
+            }
         }
 
-        if (ImageIO.write(saveImage, format.extensions[0], file)) {
-            lastSavedImage = image;
+        if (format == ImageFormat.PNG) {
+            PngEncoder.write(saveImage, file);
+            return;
+        }
+        if (format == ImageFormat.QOI) {
+            QoiCodec.write(saveImage, file);
             return;
         }
 
+        if (ImageIO.write(saveImage, format.extensions[0], file))
+            return;
+
         throw new IOException(String.format("No appropriate ImageWriter found (format=%s)", format.toString()));
     }
 
@@ -94,10 +98,6 @@ public class ImageFile {
         return loadedImage;
     }
 
-    public BufferedImage getLastSavedImage() {
-        return lastSavedImage;
-    }
-
     public ImageFormat getFormat() {
         return format;
     }
@@ -4,7 +4,8 @@ public enum ImageFormat {
 
     PNG("png", true),
     JPG("JPEG Files", new String[] { "jpg", "jpeg" }, false),
-    BMP("bmp", false);
+    BMP("bmp", false),
+    QOI("qoi", true);
     // WBMP("wbmp"),
     // GIF("gif");
 
@@ -1,52 +1,271 @@
 package com.weinsim.slpaint.main.image;
 
 import java.awt.image.BufferedImage;
-import java.util.LinkedList;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import com.weinsim.slpaint.settings.IntSetting;
+import com.weinsim.slpaint.sutil.SUtil;
+
+/**
+ * Undo history of an {@link Image}. Instead of a full copy of the image, every
+ * change only stores the tiles that were actually modified (within the areas
+ * reported by {@link Image#forEachChangedRegion}). Changes that alter the size of
+ * the image store the entire previous pixel grid instead, which is cheap
+ * because the tiles are shared with the image.
+ *
+ * <p>
+ * {@link ImageHistory#addSnapshot()} only determines which tiles have changed.
+ * The pixels of these tiles are copied into the change by a background worker
+ * while the image can already be edited further (the previous state is kept
+ * alive by the copy-on-write tiles of {@link ImageHistory#current}).
+ * </p>
+ *
+ * <p>
+ * If every modification of a change was done through an operation that the
+ * image logs (see {@link ImageOperation}), the change only stores these
+ * operations instead of pixels. Such a change is redone by applying its
+ * operations again, and undone by restoring the nearest keyframe before it and
+ * replaying the operations of all changes after the keyframe. A keyframe (the
+ * full pixel grid, sharing its tiles with later states) is stored for every
+ * {@code KEYFRAME_INTERVAL} consecutive operation changes, which keeps undo
+ * fast while a long series of strokes only costs a few bytes per stroke.
+ * </p>
+ *
+ * <p>
+ * All changes except for the most recent one are compressed in the background
+ * and decompressed when they are undone or redone. Once the history uses more
+ * heap memory than the memory budget, the oldest changes are moved to an
+ * {@link UndoSwapFile} and only loaded again when they are needed.
+ * </p>
+ */
 public class ImageHistory {
 
-    private static final int MAX_NUM_CHANGES = 64;
+    /**
+     * In MiB. Once the history uses more heap memory than this, the oldest
+     * changes are moved to the swap file. The most recent change always stays in
+     * memory.
+     */
+    private static IntSetting memoryBudget = new IntSetting("undoMemoryBudget");
+
+    /**
+     * Once the swap file holds more data than this, the oldest changes are
+     * discarded.
+     */
+    private static final long MAX_SWAP_USAGE = 16L << 30;
+
+    /**
+     * The maximum number of operation changes that have to be replayed to undo
+     * one of them
+     */
+    private static final int KEYFRAME_INTERVAL = 16;
+
+    private static final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Undo History Worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static UndoSwapFile swapFile = null;
+    private static boolean swapFileFailed = false;
 
     private final Image image;
 
-    private LinkedList<BufferedImage> history;
+    /**
+     * {@code changes.get(i)} converts between state {@code i} and state
+     * {@code i + 1}.
+     */
+    private final ArrayList<Change> changes;
     /**
      * Points to the current state of the image
      */
     private int index;
 
+    /**
+     * The pixels of the current state. All tiles are shared with the image, so
+     * this only costs memory for the tiles that have been modified since the last
+     * snapshot.
+     */
+    private volatile Snapshot current;
+    private long nextStateID;
+
     public ImageHistory(Image image) {
         this.image = image;
 
-        history = new LinkedList<>();
-        history.add(image.createBufferedImageCopy());
+        changes = new ArrayList<>();
         index = 0;
 
+        image.clearChangedRegions();
+        image.startOperationLog();
+        current = new Snapshot(nextStateID++, image.getGrid().copy());
+
         // System.out.println(this);
     }
 
     public void addSnapshot() {
+        if (!image.hasChangedRegions())
+            return;
+
         // if prior changes were undone, remove these changes
-        int numBefore = history.size() - 1 - index;
-        for (int i = 0; i < numBefore; i++)
-            history.removeLast();
+        while (changes.size() > index)
+            changes.removeLast().discard();
+
+        ArrayList<ImageOperation> operations = image.getOperationLog();
+        Change change = operations != null
+                ? createOperationChange(operations)
+                : createChange(current.grid, image);
+        image.clearChangedRegions();
+        image.startOperationLog();
+
+        if (!changes.isEmpty())
+            compressInBackground(changes.getLast());
+
+        change.beforeID = current.id;
+        change.afterID = nextStateID++;
+        changes.add(change);
+        index++;
 
-        // if list is too big, remove oldest snapshot
-        if (history.size() == MAX_NUM_CHANGES)
-            history.removeFirst();
+        enforceMemoryBudget();
 
-        history.add(image.createBufferedImageCopy());
-        index = history.size() - 1;
+        current = new Snapshot(change.afterID, image.getGrid().copy());
 
         // System.out.format("%s: Added snapshot\n", this.toString());
     }
 
+    /**
+     * Creates a change that is added after all current changes, stores
+     * {@code operations} and (if needed) the current state as a keyframe.
+     */
+    private OperationChange createOperationChange(ArrayList<ImageOperation> operations) {
+        // keyframes can only be restored by replaying operation changes
+        if (!changes.isEmpty() && changes.getLast() instanceof OperationChange previous
+                && previous.changesSinceKeyframe + 1 < KEYFRAME_INTERVAL)
+            return new OperationChange(operations, null, previous.changesSinceKeyframe + 1);
+
+        return new OperationChange(operations, new GridChange(current.grid), 0);
+    }
+
+    /**
+     * Creates a change from {@code before} to the current pixels of
+     * {@code image}, covering the areas that the image reports as changed.
+     */
+    private static Change createChange(TileGrid before, Image image) {
+        TileGrid after = image.getGrid();
+        if (before.width != after.width || before.height != after.height)
+            return new GridChange(before.copy());
+
+        final int shift = TileGrid.TILE_SHIFT;
+        ArrayList<int[]> patchAreas = new ArrayList<>();
+        // every changed region lies within a single tile
+        image.forEachChangedRegion((x, y, w, h) -> {
+            int tileIndex = (y >> shift) * before.numTilesX + (x >> shift);
+            int[] tile = before.tiles[tileIndex];
+            // tiles are copied before they are modified, so an identical tile means that
+            // nothing has changed
+            if (tile == after.tiles[tileIndex]
+                    && (tile != null || before.tileColors[tileIndex] == after.tileColors[tileIndex]))
+                return;
+
+            patchAreas.add(new int[] { x, y, w, h });
+        });
+        return PatchChange.capture(before, patchAreas);
+    }
+
+    /**
+     * Moves the oldest changes to the swap file until the heap usage is within
+     * the memory budget, and discards the oldest changes if the swap file gets
+     * too big (or can't be used).
+     */
+    private void enforceMemoryBudget() {
+        long maxMemoryUsage = getMemoryBudget() * (1L << 20);
+        long memoryUsage = 0;
+        for (Change change : changes) {
+            if (!change.spilled)
+                memoryUsage += getMemoryUsage(change);
+        }
+        UndoSwapFile swapFile = getSwapFile();
+
+        for (int i = 0; i < changes.size() - 1 && memoryUsage > maxMemoryUsage; i++) {
+            Change change = changes.get(i);
+            if (change.spilled)
+                continue;
+
+            if (swapFile == null) {
+                // only changes before the current state can be discarded
+                int count = getNumDependentChanges(i);
+                if (i + count > index)
+                    break;
+                for (int j = 0; j < count; j++) {
+                    Change removed = changes.remove(i);
+                    memoryUsage -= getMemoryUsage(removed);
+                    removed.discard();
+                    index--;
+                }
+                i--;
+            } else {
+                memoryUsage -= getMemoryUsage(change);
+                change.spilled = true;
+                worker.execute(() -> {
+                    try {
+                        change.spill(swapFile);
+                    } catch (IOException | RuntimeException e) {
+                        e.printStackTrace();
+                        System.err.println("Unable to write to the undo swap file. Old changes will be discarded instead.");
+                        disableSwapFile();
+                        // the pixels are still on the heap and have to be counted again
+                        change.spilled = false;
+                    }
+                });
+            }
+        }
+
+        long swapUsage = getSwapUsage();
+        while (swapUsage > MAX_SWAP_USAGE && changes.size() > 1) {
+            int count = getNumDependentChanges(0);
+            if (count > index || count == changes.size())
+                break;
+            for (int j = 0; j < count; j++) {
+                Change change = changes.removeFirst();
+                swapUsage -= change.getSwapUsage();
+                change.discard();
+                index--;
+            }
+        }
+    }
+
+    /**
+     * @return The number of changes starting at {@code changes.get(i)} that have
+     *         to be discarded together, because the operation changes without a
+     *         keyframe following it can't be undone without it
+     */
+    private int getNumDependentChanges(int i) {
+        int count = 1;
+        while (i + count < changes.size() && changes.get(i + count) instanceof OperationChange operationChange
+                && operationChange.keyframe == null)
+            count++;
+        return count;
+    }
+
     public void undo() {
         if (!canUndo())
             return;
 
+        discardUncommittedChanges();
+        // restoring the state must not be logged, finishChange starts a new log
+        image.stopOperationLog();
+
         index--;
-        image.setBufferedImage(history.get(index), true);
+        Change change = changes.get(index);
+        switch (change) {
+            case OperationChange operationChange -> restoreByReplay(index);
+            case PatchChange patchChange -> patchChange.swap(image);
+            case GridChange gridChange -> gridChange.swap(image);
+        }
+        finishChange(change, change.beforeID);
 
         // System.out.format("%s: Undo\n", this.toString());
     }
@@ -59,26 +278,598 @@ public class ImageHistory {
         if (!canRedo())
             return;
 
+        discardUncommittedChanges();
+        image.stopOperationLog();
+
+        Change change = changes.get(index);
+        switch (change) {
+            case OperationChange operationChange -> operationChange.replay(image);
+            case PatchChange patchChange -> patchChange.swap(image);
+            case GridChange gridChange -> gridChange.swap(image);
+        }
+        finishChange(change, change.afterID);
         index++;
-        image.setBufferedImage(history.get(index), true);
 
         // System.out.format("%s: Redo\n", this.toString());
     }
 
     public boolean canRedo() {
-        return index < history.size() - 1;
+        return index < changes.size();
+    }
+
+    private void finishChange(Change change, long newStateID) {
+        if (!(change instanceof OperationChange))
+            change.spilled = false;
+        if (change != changes.getLast())
+            compressInBackground(change);
+
+        image.clearChangedRegions();
+        image.startOperationLog();
+        current = new Snapshot(newStateID, image.getGrid().copy());
+
+        enforceMemoryBudget();
+    }
+
+    /**
+     * Brings the image into the state before {@code changes.get(changeIndex)}, an
+     * operation change, by restoring the nearest keyframe and replaying the
+     * changes after it.
+     */
+    private void restoreByReplay(int changeIndex) {
+        int keyframeIndex = changeIndex;
+        while (((OperationChange) changes.get(keyframeIndex)).keyframe == null)
+            keyframeIndex--;
+
+        OperationChange keyframeChange = (OperationChange) changes.get(keyframeIndex);
+        restoreGrid(keyframeChange.keyframe.getGrid());
+        keyframeChange.spilled = false;
+
+        for (int i = keyframeIndex; i < changeIndex; i++)
+            ((OperationChange) changes.get(i)).replay(image);
+    }
+
+    /**
+     * Makes the pixels of the image identical to {@code grid}, only touching the
+     * tiles that differ if the size is the same.
+     */
+    private void restoreGrid(TileGrid grid) {
+        TileGrid imageGrid = image.getGrid();
+        if (grid.width != imageGrid.width || grid.height != imageGrid.height) {
+            image.setGrid(grid.copy());
+            return;
+        }
+
+        final int shift = TileGrid.TILE_SHIFT;
+        for (int ty = 0; ty < grid.numTilesY; ty++) {
+            for (int tx = 0; tx < grid.numTilesX; tx++) {
+                int tileIndex = ty * grid.numTilesX + tx;
+                int[] tile = grid.tiles[tileIndex];
+                if (tile == imageGrid.tiles[tileIndex]
+                        && (tile != null || grid.tileColors[tileIndex] == imageGrid.tileColors[tileIndex]))
+                    continue;
+
+                int x = tx << shift, y = ty << shift;
+                image.restoreArea(grid, x, y,
+                        Math.min(TileGrid.TILE_SIZE, grid.width - x), Math.min(TileGrid.TILE_SIZE, grid.height - y));
+            }
+        }
+    }
+
+    /**
+     * Reverts all modifications of the image that haven't been added to the
+     * history yet (e.g. the hole left by a selection that was canceled).
+     */
+    void discardUncommittedChanges() {
+        if (!image.hasChangedRegions())
+            return;
+
+        TileGrid grid = current.grid;
+        if (grid.width != image.getWidth() || grid.height != image.getHeight())
+            image.setGrid(grid.copy());
+        else
+            image.forEachChangedRegion((x, y, w, h) -> image.restoreArea(grid, x, y, w, h));
+
+        image.clearChangedRegions();
+        image.startOperationLog();
+    }
+
+    /**
+     * Removes all changes. Has to be called when the history is no longer used so
+     * that the space used in the swap file can be reused.
+     */
+    public void clear() {
+        for (Change change : changes)
+            change.discard();
+        changes.clear();
+        index = 0;
+        image.stopOperationLog();
+    }
+
+    private static void compressInBackground(Change change) {
+        worker.execute(change::compress);
+    }
+
+    /**
+     * Blocks until the background worker has finished everything that was
+     * submitted so far (capturing, compressing and spilling changes).
+     */
+    static void awaitBackgroundWork() {
+        try {
+            worker.submit(() -> {
+            }).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Undo history worker failed", e);
+        }
     }
 
-    public BufferedImage getCurrentImage() {
-        return history.get(index);
+    private static synchronized UndoSwapFile getSwapFile() {
+        if (swapFile == null && !swapFileFailed) {
+            try {
+                swapFile = new UndoSwapFile();
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.err.println("Unable to create undo swap file. Old changes will be discarded instead.");
+                swapFileFailed = true;
+            }
+        }
+        return swapFileFailed ? null : swapFile;
+    }
+
+    /**
+     * Stops moving changes to the swap file. The changes that are already in it
+     * stay there.
+     */
+    private static synchronized void disableSwapFile() {
+        swapFileFailed = true;
+    }
+
+    /**
+     * Deletes the swap file. Has to be called before the program exits.
+     */
+    public static synchronized void finish() {
+        worker.shutdownNow();
+        if (swapFile != null) {
+            swapFile.delete();
+            swapFile = null;
+        }
+        swapFileFailed = true;
+    }
+
+    /**
+     * Thread safe.
+     *
+     * @return An immutable snapshot of the current state of the image
+     */
+    public Snapshot getCurrentSnapshot() {
+        return current;
     }
 
     public int size() {
-        return history.size();
+        return changes.size() + 1;
+    }
+
+    /**
+     * @return The approximate number of bytes of heap memory used by the stored
+     *         changes
+     */
+    public long getMemoryUsage() {
+        long memoryUsage = 0;
+        for (Change change : changes)
+            memoryUsage += getMemoryUsage(change);
+        return memoryUsage;
+    }
+
+    private long getMemoryUsage(Change change) {
+        if (change instanceof OperationChange operationChange)
+            return operationChange.getMemoryUsage(current.grid);
+        return change.getMemoryUsage();
+    }
+
+    /**
+     * @return The number of bytes that the stored changes occupy in the swap file
+     */
+    public long getSwapUsage() {
+        long swapUsage = 0;
+        for (Change change : changes)
+            swapUsage += change.getSwapUsage();
+        return swapUsage;
+    }
+
+    /**
+     * @return The memory budget of the undo history in MiB
+     */
+    public static int getMemoryBudget() {
+        return memoryBudget.get();
+    }
+
+    public static void setMemoryBudget(int memoryBudget) {
+        ImageHistory.memoryBudget.set(memoryBudget);
+    }
+
+    public String getMemoryReport() {
+        long numPatches = 0, numOperations = 0;
+        for (Change change : changes) {
+            if (change instanceof PatchChange patchChange)
+                numPatches += patchChange.getNumPatches();
+            if (change instanceof OperationChange operationChange)
+                numOperations += operationChange.operations.size();
+        }
+        return String.format("%d changes, %d patches, %d operations, %s / %s, %s swapped",
+                changes.size(), numPatches, numOperations,
+                SUtil.formatFilesize(getMemoryUsage()),
+                SUtil.formatFilesize(getMemoryBudget() * (1L << 20)),
+                SUtil.formatFilesize(getSwapUsage()));
     }
 
     @Override
     public String toString() {
-        return String.format("ImageHistory [size=%d, index=%d]", history.size(), index);
+        return String.format("ImageHistory [size=%d, index=%d, memory=%s]",
+                size(), index, SUtil.formatFilesize(getMemoryUsage()));
+    }
+
+    /**
+     * The pixels of the image at a specific point in the history. Never modified
+     * after creation, so it can be read from any thread.
+     */
+    public static final class Snapshot {
+
+        private final long id;
+        private final TileGrid grid;
+
+        private Snapshot(long id, TileGrid grid) {
+            this.id = id;
+            this.grid = grid;
+        }
+
+        public BufferedImage createBufferedImage() {
+            return grid.createBufferedImage();
+        }
+
+        /**
+         * @return An id that uniquely identifies this state of the image within the
+         *         history
+         */
+        public long getID() {
+            return id;
+        }
+    }
+
+    private static abstract sealed class Change permits PatchChange, GridChange, OperationChange {
+
+        long beforeID, afterID;
+
+        /**
+         * Wether this change has been (or is about to be) moved to the swap file.
+         * Only set on the main thread, the worker resets it if moving the change
+         * fails.
+         */
+        volatile boolean spilled = false;
+
+        abstract void compress();
+
+        abstract void spill(UndoSwapFile swapFile) throws IOException;
+
+        /**
+         * Frees all resources of this change. After this, the change must not be
+         * used anymore.
+         */
+        abstract void discard();
+
+        abstract long getMemoryUsage();
+
+        abstract long getSwapUsage();
+    }
+
+    private static final class PatchChange extends Change {
+
+        /**
+         * Only to be accessed after {@code capture} has completed.
+         */
+        private ArrayList<ImagePatch> patches;
+        private Future<?> capture;
+        private volatile boolean discarded = false;
+        private final int numPatches;
+        private final long estimatedMemoryUsage;
+
+        private PatchChange(int numPatches, long estimatedMemoryUsage) {
+            this.numPatches = numPatches;
+            this.estimatedMemoryUsage = estimatedMemoryUsage;
+        }
+
+        /**
+         * Creates a change that copies the given areas ({@code {x, y, width,
+         * height}}) of {@code before} on the background worker. {@code before} must
+         * not be modified afterwards.
+         */
+        static PatchChange capture(TileGrid before, ArrayList<int[]> patchAreas) {
+            long estimatedMemoryUsage = 0;
+            for (int[] area : patchAreas)
+                estimatedMemoryUsage += (long) area[2] * area[3] * Integer.BYTES;
+
+            PatchChange change = new PatchChange(patchAreas.size(), estimatedMemoryUsage);
+            change.capture = worker.submit(() -> {
+                ArrayList<ImagePatch> patches = new ArrayList<>(patchAreas.size());
+                for (int[] area : patchAreas)
+                    patches.add(ImagePatch.create(before, area[0], area[1], area[2], area[3]));
+                change.patches = patches;
+            });
+            return change;
+        }
+
+        /**
+         * Blocks until the pixels of this change have been copied.
+         */
+        private void awaitCapture() {
+            try {
+                capture.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException("Unable to capture undo history change", e);
+            }
+        }
+
+        int getNumPatches() {
+            return numPatches;
+        }
+
+        /**
+         * Swaps the contents of the image with the contents stored in this change.
+         */
+        void swap(Image image) {
+            awaitCapture();
+            for (ImagePatch patch : patches)
+                patch.swap(image);
+        }
+
+        // compress() and spill() are only called on the worker, after the capture
+
+        @Override
+        void compress() {
+            if (discarded)
+                return;
+            for (ImagePatch patch : patches)
+                patch.compress();
+        }
+
+        @Override
+        void spill(UndoSwapFile swapFile) throws IOException {
+            if (discarded)
+                return;
+            for (ImagePatch patch : patches)
+                patch.spill(swapFile);
+        }
+
+        @Override
+        void discard() {
+            discarded = true;
+            capture.cancel(false);
+            if (capture.isCancelled())
+                return;
+
+            awaitCapture();
+            for (ImagePatch patch : patches)
+                patch.discard();
+        }
+
+        @Override
+        long getMemoryUsage() {
+            if (!capture.isDone())
+                return estimatedMemoryUsage;
+
+            awaitCapture();
+            long usage = 0;
+            for (ImagePatch patch : patches)
+                usage += patch.getMemoryUsage();
+            return usage;
+        }
+
+        @Override
+        long getSwapUsage() {
+            if (!capture.isDone())
+                return 0;
+
+            awaitCapture();
+            long usage = 0;
+            for (ImagePatch patch : patches)
+                usage += patch.getSwapUsage();
+            return usage;
+        }
+    }
+
+    private static final class GridChange extends Change {
+
+        private TileGrid grid;
+
+        /**
+         * While the change is stored in the swap file, {@code grid} only contains
+         * the colors of the uniform tiles and the other tiles are stored in these
+         * patches.
+         */
+        private ArrayList<ImagePatch> tilePatches;
+        private boolean discarded = false;
+
+        GridChange(TileGrid grid) {
+            this.grid = grid;
+        }
+
+        /**
+         * Swaps the contents of the image with the contents stored in this change.
+         */
+        synchronized void swap(Image image) {
+            TileGrid oldGrid = image.getGrid();
+            image.setGrid(getGrid());
+            grid = oldGrid;
+        }
+
+        /**
+         * @return The stored grid, after loading its tiles back from the swap file
+         *         if necessary
+         */
+        synchronized TileGrid getGrid() {
+            if (tilePatches != null) {
+                for (ImagePatch patch : tilePatches)
+                    patch.writeTo(grid);
+                tilePatches = null;
+            }
+            return grid;
+        }
+
+        @Override
+        void compress() {
+            // the tiles are shared with other grids, so compressing them wouldn't free any
+            // memory
+        }
+
+        @Override
+        synchronized void spill(UndoSwapFile swapFile) throws IOException {
+            if (tilePatches != null || discarded)
+                return;
+
+            final int shift = TileGrid.TILE_SHIFT;
+            TileGrid skeleton = new TileGrid(grid.width, grid.height, 0);
+            ArrayList<ImagePatch> patches = new ArrayList<>();
+            try {
+                for (int ty = 0; ty < grid.numTilesY; ty++) {
+                    for (int tx = 0; tx < grid.numTilesX; tx++) {
+                        int tileIndex = ty * grid.numTilesX + tx;
+                        skeleton.tileColors[tileIndex] = grid.tileColors[tileIndex];
+                        if (grid.tiles[tileIndex] == null)
+                            continue;
+
+                        int x0 = tx << shift,
+                                y0 = ty << shift,
+                                x1 = Math.min((tx + 1) << shift, grid.width),
+                                y1 = Math.min((ty + 1) << shift, grid.height);
+                        ImagePatch patch = ImagePatch.create(grid, x0, y0, x1 - x0, y1 - y0);
+                        patches.add(patch);
+                        patch.spill(swapFile);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // the grid stays on the heap, free the tiles that were already written
+                for (ImagePatch patch : patches)
+                    patch.discard();
+                throw e;
+            }
+            grid = skeleton;
+            tilePatches = patches;
+        }
+
+        @Override
+        synchronized void discard() {
+            discarded = true;
+            if (tilePatches != null) {
+                for (ImagePatch patch : tilePatches)
+                    patch.discard();
+            }
+        }
+
+        @Override
+        synchronized long getMemoryUsage() {
+            return tilePatches == null ? grid.getAllocatedBytes() : 0;
+        }
+
+        /**
+         * @return The number of bytes used by the tiles that aren't shared with
+         *         {@code reference}
+         */
+        synchronized long getMemoryUsage(TileGrid reference) {
+            if (tilePatches != null)
+                return 0;
+            if (grid.width != reference.width || grid.height != reference.height)
+                return grid.getAllocatedBytes();
+
+            long numTiles = 0;
+            for (int i = 0; i < grid.tiles.length; i++) {
+                if (grid.tiles[i] != null && grid.tiles[i] != reference.tiles[i])
+                    numTiles++;
+            }
+            return numTiles * TileGrid.TILE_AREA * Integer.BYTES;
+        }
+
+        @Override
+        synchronized long getSwapUsage() {
+            long usage = 0;
+            if (tilePatches != null) {
+                for (ImagePatch patch : tilePatches)
+                    usage += patch.getSwapUsage();
+            }
+            return usage;
+        }
+    }
+
+    private static final class OperationChange extends Change {
+
+        final ArrayList<ImageOperation> operations;
+        /**
+         * The state before this change, or {@code null} if it has to be
+         * reconstructed from the keyframe of an earlier change
+         */
+        final GridChange keyframe;
+        /**
+         * The number of changes between the last keyframe and this change
+         */
+        final int changesSinceKeyframe;
+
+        OperationChange(ArrayList<ImageOperation> operations, GridChange keyframe, int changesSinceKeyframe) {
+            this.operations = operations;
+            this.keyframe = keyframe;
+            this.changesSinceKeyframe = changesSinceKeyframe;
+        }
+
+        /**
+         * Applies the operations to the image, which has to be in the state
+         * before this change. The operation log of the image has to be stopped.
+         */
+        void replay(Image image) {
+            for (ImageOperation operation : operations)
+                operation.apply(image);
+        }
+
+        @Override
+        void compress() {
+            // the operations are tiny, and the keyframe shares its tiles with other
+            // grids
+        }
+
+        @Override
+        void spill(UndoSwapFile swapFile) throws IOException {
+            if (keyframe != null)
+                keyframe.spill(swapFile);
+        }
+
+        @Override
+        void discard() {
+            if (keyframe != null)
+                keyframe.discard();
+        }
+
+        @Override
+        long getMemoryUsage() {
+            long usage = keyframe != null ? keyframe.getMemoryUsage() : 0;
+            return usage + getOperationsMemoryUsage();
+        }
+
+        /**
+         * Like {@link OperationChange#getMemoryUsage()}, but only counts the tiles
+         * of the keyframe that aren't shared with {@code reference}. Most tiles of
+         * a keyframe usually are, so counting all of them would make keyframes
+         * look as expensive as full copies of the image.
+         */
+        long getMemoryUsage(TileGrid reference) {
+            long usage = keyframe != null ? keyframe.getMemoryUsage(reference) : 0;
+            return usage + getOperationsMemoryUsage();
+        }
+
+        private long getOperationsMemoryUsage() {
+            long usage = 0;
+            for (ImageOperation operation : operations)
+                usage += operation.getMemoryUsage();
+            return usage;
+        }
+
+        @Override
+        long getSwapUsage() {
+            return keyframe != null ? keyframe.getSwapUsage() : 0;
+        }
     }
-}
\ No newline at end of file
+}
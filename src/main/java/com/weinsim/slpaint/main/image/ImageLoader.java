@@ -0,0 +1,293 @@
+package com.weinsim.slpaint.main.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.function.DoubleConsumer;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Reads the first image of a file. Large images can be loaded in two stages:
+ * first a subsampled preview that is quick to show, then the full resolution
+ * pixels (usually on a separate thread, see {@link ImageManager}).
+ *
+ * <p>
+ * QOI files are decoded with {@link QoiCodec}, everything else with an
+ * {@code ImageReader}.
+ * </p>
+ */
+final class ImageLoader implements AutoCloseable {
+
+    /**
+     * Images with more pixels than this are loaded with a preview first.
+     */
+    private static final long LARGE_IMAGE_PIXELS = 1L << 24;
+    /**
+     * The maximum number of pixels of a preview, which is small enough to fit
+     * into a single texture.
+     */
+    private static final long PREVIEW_PIXELS = 1L << 22;
+    /**
+     * The share of the progress of {@link ImageLoader#readGrid(DoubleConsumer)}
+     * that is spent decoding the file. The rest is spent copying the pixels into
+     * the tile grid.
+     */
+    private static final double DECODE_PROGRESS = 0.9;
+
+    final File file;
+    final ImageFormat format;
+    final int width, height;
+
+    /**
+     * {@code null} for QOI files.
+     */
+    private final ImageInputStream stream;
+    private final ImageReader reader;
+
+    private volatile boolean aborted;
+
+    ImageLoader(File file) throws IOException {
+        this.file = file;
+
+        if (isQoi(file)) {
+            stream = null;
+            reader = null;
+            format = ImageFormat.QOI;
+            try (QoiCodec.Decoder decoder = openQoi()) {
+                width = decoder.width;
+                height = decoder.height;
+            }
+            return;
+        }
+
+        stream = ImageIO.createImageInputStream(file);
+        if (stream == null)
+            throw new IOException(String.format("Unable to open file (%s)", file.getAbsolutePath()));
+
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                throw new IOException(String.format(
+                        "No fitting ImageReader was found for the given file (%s)",
+                        file.getAbsolutePath()));
+            }
+            reader = readers.next();
+            String formatName = reader.getFormatName();
+            format = ImageFormat.fromString(formatName);
+            if (format == null) {
+                reader.dispose();
+                throw new IOException(String.format(
+                        "Unknown image format: \"%s\". This format is not known by the interface main.ImageFormat.",
+                        formatName));
+            }
+            reader.setInput(stream);
+            width = reader.getWidth(0);
+            height = reader.getHeight(0);
+        } catch (IOException | RuntimeException e) {
+            stream.close();
+            throw e;
+        }
+    }
+
+    private static boolean isQoi(File file) throws IOException {
+        byte[] header = new byte[QoiCodec.MAGIC.length];
+        try (InputStream in = new FileInputStream(file)) {
+            return in.readNBytes(header, 0, header.length) == header.length && QoiCodec.isQoi(header);
+        }
+    }
+
+    private QoiCodec.Decoder openQoi() throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return new QoiCodec.Decoder(in);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return Wether the image is large enough to be loaded with a preview first
+     */
+    boolean isLarge() {
+        return (long) width * height > LARGE_IMAGE_PIXELS;
+    }
+
+    /**
+     * Reads the whole image at full resolution.
+     */
+    BufferedImage read() throws IOException {
+        if (reader != null)
+            return reader.read(0);
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        try (QoiCodec.Decoder decoder = openQoi()) {
+            decoder.read(pixels, 0, pixels.length);
+        }
+        return image;
+    }
+
+    /**
+     * Reads every n-th pixel of every n-th row of the image, where n is chosen
+     * such that the result has at most {@code PREVIEW_PIXELS} pixels.
+     */
+    BufferedImage readPreview() throws IOException {
+        double ratio = (double) width * height / PREVIEW_PIXELS;
+        int subsampling = Math.max(1, (int) Math.ceil(Math.sqrt(ratio)));
+
+        if (reader == null)
+            return readQoiPreview(subsampling);
+
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return reader.read(0, param);
+    }
+
+    private BufferedImage readQoiPreview(int subsampling) throws IOException {
+        int previewWidth = (width + subsampling - 1) / subsampling,
+                previewHeight = (height + subsampling - 1) / subsampling;
+        BufferedImage preview = new BufferedImage(previewWidth, previewHeight, BufferedImage.TYPE_INT_ARGB);
+        int[] previewPixels = ((DataBufferInt) preview.getRaster().getDataBuffer()).getData();
+
+        // the whole file has to be decoded anyway, but only one row is kept
+        int[] row = new int[width];
+        try (QoiCodec.Decoder decoder = openQoi()) {
+            for (int y = 0; y < height; y++) {
+                decoder.read(row, 0, width);
+                if (y % subsampling != 0)
+                    continue;
+                int offset = y / subsampling * previewWidth;
+                for (int x = 0; x < previewWidth; x++)
+                    previewPixels[offset + x] = row[x * subsampling];
+            }
+        }
+        return preview;
+    }
+
+    /**
+     * Reads the whole image at full resolution and copies it into a new
+     * {@code TileGrid}, one row of tiles at a time.
+     *
+     * @param progress Receives the fraction of the work that is done so far,
+     *                 from the thread that is reading
+     * @return The pixels of the image, or {@code null} if loading was aborted
+     */
+    TileGrid readGrid(DoubleConsumer progress) throws IOException {
+        if (reader == null)
+            return readQoiGrid(progress);
+
+        reader.addIIOReadProgressListener(new IIOReadProgressListener() {
+            @Override
+            public void imageProgress(ImageReader source, float percentageDone) {
+                progress.accept(percentageDone / 100 * DECODE_PROGRESS);
+            }
+
+            @Override
+            public void sequenceStarted(ImageReader source, int minIndex) {
+            }
+
+            @Override
+            public void sequenceComplete(ImageReader source) {
+            }
+
+            @Override
+            public void imageStarted(ImageReader source, int imageIndex) {
+            }
+
+            @Override
+            public void imageComplete(ImageReader source) {
+            }
+
+            @Override
+            public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+            }
+
+            @Override
+            public void thumbnailProgress(ImageReader source, float percentageDone) {
+            }
+
+            @Override
+            public void thumbnailComplete(ImageReader source) {
+            }
+
+            @Override
+            public void readAborted(ImageReader source) {
+            }
+        });
+        // an abort request is only noticed once reading has started
+        if (aborted)
+            return null;
+        BufferedImage image = reader.read(0);
+        reader.removeAllIIOReadProgressListeners();
+        if (aborted)
+            return null;
+
+        // convert one band at a time instead of creating a second full size
+        // copy of the image
+        TileGrid grid = new TileGrid(width, height, 0);
+        ArgbConverter converter = new ArgbConverter(image);
+        int bandHeight = Math.min(TileGrid.TILE_SIZE, height);
+        int[] band = new int[width * bandHeight];
+        for (int y = 0; y < height && !aborted; y += bandHeight) {
+            int h = Math.min(bandHeight, height - y);
+            converter.convertRows(y, h, band, 0);
+            grid.write(0, y, width, h, band, 0, width);
+            progress.accept(DECODE_PROGRESS + (1 - DECODE_PROGRESS) * (y + h) / height);
+        }
+        return aborted ? null : grid;
+    }
+
+    /**
+     * Decodes straight into the grid without an intermediate full size image.
+     */
+    private TileGrid readQoiGrid(DoubleConsumer progress) throws IOException {
+        TileGrid grid = new TileGrid(width, height, 0);
+        int bandHeight = Math.min(TileGrid.TILE_SIZE, height);
+        int[] band = new int[width * bandHeight];
+        try (QoiCodec.Decoder decoder = openQoi()) {
+            for (int y = 0; y < height && !aborted; y += bandHeight) {
+                int h = Math.min(bandHeight, height - y);
+                decoder.read(band, 0, width * h);
+                grid.write(0, y, width, h, band, 0, width);
+                progress.accept((double) (y + h) / height);
+            }
+        }
+        return aborted ? null : grid;
+    }
+
+    /**
+     * Stops a running call of {@link ImageLoader#readGrid(DoubleConsumer)} as
+     * soon as possible. May be called from any thread.
+     */
+    void abort() {
+        aborted = true;
+        if (reader != null)
+            reader.abort();
+    }
+
+    boolean isAborted() {
+        return aborted;
+    }
+
+    @Override
+    public void close() {
+        if (reader == null)
+            return;
+        reader.dispose();
+        try {
+            stream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
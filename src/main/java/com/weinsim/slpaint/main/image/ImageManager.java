@@ -3,6 +3,7 @@ package com.weinsim.slpaint.main.image;
 import static org.lwjgl.util.nfd.NativeFileDialog.*;
 
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
 
 import org.lwjgl.PointerBuffer;
@@ -25,6 +26,22 @@ public class ImageManager {
     private ImageHistory imageHistory;
     private ImageFile imageFile;
     private Image image;
+    /**
+     * The id of the {@link ImageHistory.Snapshot} that was last saved to (or
+     * loaded from) {@code imageFile}, or {@code -1} if there is none.
+     */
+    private volatile long savedStateID = -1;
+
+    /**
+     * Loads the full resolution pixels of the opened file while a preview is
+     * shown, or {@code null} if no image is being loaded.
+     */
+    private volatile ImageLoader activeLoader;
+    /**
+     * Shown instead of {@code image} while {@code activeLoader} is running.
+     */
+    private Image previewImage;
+    private volatile double loadingProgress;
 
     public ImageManager(MainApp app) {
         this.app = app;
@@ -33,12 +50,15 @@ public class ImageManager {
 
     public ImageManager(MainApp app, String path) {
         this.app = app;
+        ImageLoader loader = null;
         try {
-            ImageFile imageFile = new ImageFile(path);
-            Image image = new Image(imageFile.getLoadedImage());
-            setEverything(imageFile, image);
+            loader = new ImageLoader(new File(path));
+            BufferedImage bufferedImage = loader.isLarge() ? loader.readPreview() : loader.read();
+            setLoadedImage(loader, bufferedImage);
         } catch (IOException e) {
             e.printStackTrace();
+            if (loader != null)
+                loader.close();
         }
         if (image == null)
             setEverything(null, createNewImage());
@@ -53,9 +73,7 @@ public class ImageManager {
      * @implNote Has to be called from the main thread.
      */
     private Image createNewImage(int width, int height) {
-        Image image = new Image(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB));
-        image.setPixels(0, 0, width, height, app.getSecondaryColor());
-        return image;
+        return new Image(width, height, app.getSecondaryColor());
     }
 
     /**
@@ -86,7 +104,7 @@ public class ImageManager {
         if (checkUnsavedChanges())
             return;
 
-        ImageFile newFile = null;
+        ImageLoader loader = null;
         BufferedImage bufferedImage = null;
         while (true) {
             String newPath;
@@ -115,13 +133,15 @@ public class ImageManager {
                 }
             }
 
-            newFile = null;
+            loader = null;
             try {
-                newFile = new ImageFile(newPath);
-                bufferedImage = newFile.getLoadedImage();
+                loader = new ImageLoader(new File(newPath));
+                bufferedImage = loader.isLarge() ? loader.readPreview() : loader.read();
                 break;
             } catch (IOException e) {
                 e.printStackTrace();
+                if (loader != null)
+                    loader.close();
             }
 
             if (showErrorDialog("open") == UI.OK_OPTION)
@@ -130,18 +150,78 @@ public class ImageManager {
                 return;
         }
 
-        final ImageFile finalNewFile = newFile;
+        final ImageLoader finalLoader = loader;
         final BufferedImage finalBufferedImage = bufferedImage;
         app.queueEvent(() -> {
-            setEverything(finalNewFile, new Image(finalBufferedImage));
+            setLoadedImage(finalLoader, finalBufferedImage);
             app.resetImageTransform();
         });
     }
 
+    /**
+     * Replaces the image with the result of {@code loader}. If the image is
+     * large, {@code bufferedImage} is only shown as a preview until the full
+     * resolution pixels have been loaded on a separate thread. Otherwise, the
+     * loader is closed.
+     * 
+     * @param bufferedImage The full image or a preview, depending on
+     *                      {@link ImageLoader#isLarge()}
+     * @implNote Has to be called from the main thread.
+     */
+    private void setLoadedImage(ImageLoader loader, BufferedImage bufferedImage) {
+        ImageFile newFile = new ImageFile(loader.file, loader.format);
+        if (!loader.isLarge()) {
+            loader.close();
+            setEverything(newFile, new Image(bufferedImage));
+            return;
+        }
+
+        // Nothing can be drawn on the image until it is loaded, so the
+        // placeholder doesn't need to allocate any pixels.
+        setEverything(newFile, new Image(loader.width, loader.height, 0));
+        previewImage = new Image(bufferedImage);
+        loadingProgress = 0;
+        activeLoader = loader;
+
+        Thread thread = new Thread(() -> loadImpl(loader), "Image Loader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void loadImpl(ImageLoader loader) {
+        TileGrid grid = null;
+        try {
+            grid = loader.readGrid(progress -> loadingProgress = progress);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            loader.close();
+        }
+
+        final TileGrid finalGrid = grid;
+        app.queueEvent(() -> {
+            // another image has been opened in the meantime
+            if (activeLoader != loader)
+                return;
+
+            activeLoader = null;
+            discardPreviewImage();
+            if (finalGrid != null)
+                setEverything(imageFile, new Image(finalGrid));
+            else
+                setEverything(null, createNewImage());
+        });
+
+        if (grid == null && !loader.isAborted() && showErrorDialog("open") == UI.OK_OPTION)
+            openImpl();
+    }
+
     /**
      * @implNote Has to be called from the main thread.
      */
     public void saveAs() {
+        if (isLoading())
+            return;
         (new Thread(this::saveAsImpl, "Image Saver")).start();
     }
 
@@ -187,8 +267,10 @@ public class ImageManager {
             }
 
             newFile = null;
+            ImageHistory.Snapshot snapshot = imageHistory.getCurrentSnapshot();
             try {
-                newFile = new ImageFile(newPath, imageHistory.getCurrentImage(), format);
+                newFile = new ImageFile(newPath, snapshot.createBufferedImage(), format);
+                savedStateID = snapshot.getID();
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -210,14 +292,18 @@ public class ImageManager {
      * @implNote Has to be called from the main thread.
      */
     public void save() {
+        if (isLoading())
+            return;
         (new Thread(imageFile == null ? this::saveAsImpl : this::saveImpl, "Image Saver")).start();
     }
 
     private boolean saveImpl() {
         while (true) {
             boolean success = false;
+            ImageHistory.Snapshot snapshot = imageHistory.getCurrentSnapshot();
             try {
-                imageFile.saveImage(imageHistory.getCurrentImage());
+                imageFile.saveImage(snapshot.createBufferedImage());
+                savedStateID = snapshot.getID();
                 success = true;
             } catch (IOException e) {
                 e.printStackTrace();
@@ -297,9 +383,9 @@ public class ImageManager {
         // return false;
         // if (imageFile == null)
         // return true;
-        if (imageFile == null || imageFile.getLastSavedImage() == null)
+        if (imageFile == null || savedStateID == -1)
             return imageHistory.canUndo();
-        return imageHistory.getCurrentImage() != imageFile.getLastSavedImage();
+        return imageHistory.getCurrentSnapshot().getID() != savedStateID;
     }
 
     private static int showErrorDialog(String action) {
@@ -316,8 +402,30 @@ public class ImageManager {
         this.imageFile = imageFile;
 
         if (image != null) {
+            ImageLoader loader = activeLoader;
+            if (loader != null) {
+                loader.abort();
+                activeLoader = null;
+                discardPreviewImage();
+            }
+
+            if (this.image != null && this.image != image)
+                this.image.cleanUp();
             this.image = image;
+            if (imageHistory != null)
+                imageHistory.clear();
             imageHistory = new ImageHistory(image);
+            savedStateID = imageFile == null ? -1 : imageHistory.getCurrentSnapshot().getID();
+        }
+    }
+
+    /**
+     * Deletes the textures of the preview shown while a large image is loaded.
+     */
+    private void discardPreviewImage() {
+        if (previewImage != null) {
+            previewImage.cleanUp();
+            previewImage = null;
         }
     }
 
@@ -341,6 +449,13 @@ public class ImageManager {
         imageHistory.addSnapshot();
     }
 
+    /**
+     * Reverts all modifications of the image since the last snapshot.
+     */
+    public void discardUncommittedChanges() {
+        imageHistory.discardUncommittedChanges();
+    }
+
     public long getFilesize() {
         return imageFile == null ? -1 : imageFile.getSize();
     }
@@ -356,4 +471,28 @@ public class ImageManager {
     public Image getImage() {
         return image;
     }
+
+    /**
+     * @return The image that should be shown on the canvas. This is a low
+     *         resolution preview of {@link ImageManager#getImage()} while the
+     *         image is being loaded.
+     */
+    public Image getDisplayImage() {
+        return previewImage != null ? previewImage : image;
+    }
+
+    /**
+     * @return Wether the full resolution pixels of the image are still being
+     *         loaded. The image can't be modified or saved until then.
+     */
+    public boolean isLoading() {
+        return activeLoader != null;
+    }
+
+    /**
+     * @return The fraction of the image that has been loaded, between 0 and 1
+     */
+    public double getLoadingProgress() {
+        return loadingProgress;
+    }
 }
\ No newline at end of file
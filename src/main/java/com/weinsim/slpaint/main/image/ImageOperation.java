@@ -0,0 +1,145 @@
+package com.weinsim.slpaint.main.image;
+
+/**
+ * A modification of an {@link Image} together with all of its parameters, as
+ * recorded by the operation log of the image. Applying the same operations to
+ * the same pixels always gives the same result, so a sequence of operations
+ * can stand in for the pixels it produced (see {@link ImageHistory}).
+ */
+sealed interface ImageOperation {
+
+    void apply(Image image);
+
+    /**
+     * @return The approximate number of bytes of heap memory used by this
+     *         operation
+     */
+    default long getMemoryUsage() {
+        return 64;
+    }
+
+    record BeginStroke() implements ImageOperation {
+        @Override
+        public void apply(Image image) {
+            image.beginStroke();
+        }
+    }
+
+    record EndStroke() implements ImageOperation {
+        @Override
+        public void apply(Image image) {
+            image.endStroke();
+        }
+    }
+
+    record DrawLine(int x0, int y0, int x1, int y1, int size, int color, boolean ignoreAlpha)
+            implements ImageOperation {
+        @Override
+        public void apply(Image image) {
+            image.drawLine(x0, y0, x1, y1, size, color, ignoreAlpha);
+        }
+    }
+
+    record SetPixel(int x, int y, int color) implements ImageOperation {
+        @Override
+        public void apply(Image image) {
+            image.setPixel(x, y, color);
+        }
+    }
+
+    record DrawPixel(int x, int y, int color) implements ImageOperation {
+        @Override
+        public void apply(Image image) {
+            image.drawPixel(x, y, color);
+        }
+    }
+
+    record SetPixels(int x, int y, int width, int height, int color) implements ImageOperation {
+        @Override
+        public void apply(Image image) {
+            image.setPixels(x, y, width, height, color);
+        }
+    }
+
+    record FloodFill(int x, int y, int color, int tolerance) implements ImageOperation {
+        @Override
+        public void apply(Image image) {
+            image.floodFill(x, y, color, tolerance);
+        }
+    }
+
+    record ReplaceColor(int baseColor, int color, int tolerance) implements ImageOperation {
+        @Override
+        public void apply(Image image) {
+            image.replaceColor(baseColor, color, tolerance);
+        }
+    }
+
+    record Crop(int x, int y, int width, int height, int backgroundColor) implements ImageOperation {
+        @Override
+        public void apply(Image image) {
+            image.crop(x, y, width, height, backgroundColor);
+        }
+    }
+
+    record Resize(int width, int height, ResizeFilter filter) implements ImageOperation {
+        @Override
+        public void apply(Image image) {
+            image.resize(width, height, filter);
+        }
+    }
+
+    enum Orientation {
+        ROTATE_LEFT, ROTATE_RIGHT, ROTATE_180, FLIP_HORIZONTAL, FLIP_VERTICAL
+    }
+
+    record Reorient(Orientation orientation) implements ImageOperation {
+        @Override
+        public void apply(Image image) {
+            switch (orientation) {
+                case ROTATE_LEFT -> image.rotateLeft();
+                case ROTATE_RIGHT -> image.rotateRight();
+                case ROTATE_180 -> image.rotate180();
+                case FLIP_HORIZONTAL -> image.flipHorizontal();
+                case FLIP_VERTICAL -> image.flipVertical();
+            }
+        }
+    }
+
+    /**
+     * @param pixels A copy of the pixels, owned by this operation
+     */
+    record SubImage(int x, int y, int width, int height, int[] pixels, boolean alphaBlending)
+            implements ImageOperation {
+        @Override
+        public void apply(Image image) {
+            if (alphaBlending)
+                image.drawSubImage(x, y, width, height, pixels);
+            else
+                image.setSubImage(x, y, width, height, pixels);
+        }
+
+        @Override
+        public long getMemoryUsage() {
+            return 64 + (long) pixels.length * Integer.BYTES;
+        }
+    }
+
+    /**
+     * @param src A copy of the pixels of the drawn image. The tiles are shared
+     *            with the image, so this only costs memory once the image is
+     *            modified or freed.
+     */
+    record TransformedImage(TileGrid src, double x, double y, double width, double height, double angle,
+            Interpolation interpolation) implements ImageOperation {
+        @Override
+        public void apply(Image image) {
+            image.drawTransformedGrid(src, x, y, width, height, angle, interpolation);
+        }
+
+        @Override
+        public long getMemoryUsage() {
+            return 64 + src.getAllocatedBytes();
+        }
+    }
+}
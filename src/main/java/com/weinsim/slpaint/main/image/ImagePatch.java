@@ -0,0 +1,188 @@
+package com.weinsim.slpaint.main.image;
+
+import java.io.IOException;
+
+/**
+ * A rectangular area of an image (lying within a single tile) together with the
+ * pixels that this area had in a different state of the image. Applying the
+ * patch swaps the stored pixels with the current ones, so the same patch can be
+ * used for both undoing and redoing a change.
+ *
+ * <p>
+ * The stored pixels can be compressed (see {@link ImagePatch#compress()}) or
+ * moved to an {@link UndoSwapFile} (see {@link ImagePatch#spill(UndoSwapFile)})
+ * from any thread. They are loaded again the next time the patch is applied.
+ * </p>
+ */
+final class ImagePatch {
+
+    final int x, y, width, height;
+
+    /**
+     * If {@code pixels} and {@code compressedPixels} are {@code null} and the patch
+     * is not stored in a swap file, all pixels of the patch have the color
+     * {@code color}.
+     */
+    private int[] pixels;
+    private byte[] compressedPixels;
+    private int color;
+
+    /**
+     * If not {@code null}, the compressed pixels are stored in this file.
+     */
+    private UndoSwapFile swapFile;
+    private long swapOffset;
+    private int swapLength;
+
+    private boolean discarded = false;
+
+    private ImagePatch(int x, int y, int width, int height) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Creates a patch containing the given area of {@code grid}. The area must
+     * not span multiple tiles.
+     */
+    static ImagePatch create(TileGrid grid, int x, int y, int width, int height) {
+        ImagePatch patch = new ImagePatch(x, y, width, height);
+        patch.read(grid);
+        return patch;
+    }
+
+    /**
+     * Writes the stored pixels into {@code image} and stores the pixels that were
+     * overwritten instead.
+     */
+    synchronized void swap(Image image) {
+        int[] oldPixels = loadPixels();
+        int oldColor = color;
+
+        read(image.getGrid());
+
+        if (oldPixels == null)
+            image.setPixels(x, y, width, height, oldColor);
+        else
+            image.setSubImage(x, y, width, height, oldPixels);
+    }
+
+    /**
+     * Writes the stored pixels into {@code grid}. After this, the patch must not
+     * be used anymore.
+     */
+    synchronized void writeTo(TileGrid grid) {
+        int[] oldPixels = loadPixels();
+        if (oldPixels == null)
+            grid.fill(x, y, width, height, color);
+        else
+            grid.write(x, y, width, height, oldPixels, 0, width);
+    }
+
+    /**
+     * @return The stored pixels, or {@code null} if they all have the color
+     *         {@code color}
+     */
+    private int[] loadPixels() {
+        if (swapFile != null) {
+            compressedPixels = swapFile.read(swapOffset, swapLength);
+            freeSwapSpace();
+        }
+        if (compressedPixels != null)
+            return decompress(compressedPixels, width * height);
+        return pixels;
+    }
+
+    private void read(TileGrid grid) {
+        int index = (y >> TileGrid.TILE_SHIFT) * grid.numTilesX + (x >> TileGrid.TILE_SHIFT);
+        compressedPixels = null;
+        if (grid.tiles[index] == null) {
+            pixels = null;
+            color = grid.tileColors[index];
+        } else {
+            pixels = new int[width * height];
+            grid.read(x, y, width, height, pixels, 0, width);
+        }
+    }
+
+    /**
+     * Compresses the stored pixels, unless they are already compressed or the
+     * compressed data wouldn't be any smaller.
+     */
+    synchronized void compress() {
+        if (pixels == null)
+            return;
+
+        byte[] compressed = compress(pixels);
+        if (compressed.length < pixels.length * Integer.BYTES) {
+            compressedPixels = compressed;
+            pixels = null;
+        }
+    }
+
+    /**
+     * Compresses the stored pixels and moves them to {@code swapFile}.
+     */
+    synchronized void spill(UndoSwapFile swapFile) throws IOException {
+        if (discarded)
+            return;
+
+        if (pixels != null) {
+            compressedPixels = compress(pixels);
+            pixels = null;
+        }
+        if (compressedPixels == null)
+            return;
+
+        swapOffset = swapFile.write(compressedPixels);
+        swapLength = compressedPixels.length;
+        this.swapFile = swapFile;
+        compressedPixels = null;
+    }
+
+    /**
+     * Frees the space occupied by this patch in the swap file (if any). After
+     * this, the patch must not be used anymore.
+     */
+    synchronized void discard() {
+        discarded = true;
+        freeSwapSpace();
+    }
+
+    private void freeSwapSpace() {
+        if (swapFile != null) {
+            swapFile.free(swapOffset, swapLength);
+            swapFile = null;
+        }
+    }
+
+    /**
+     * @return The number of bytes of heap memory used by the stored pixels
+     */
+    synchronized long getMemoryUsage() {
+        if (compressedPixels != null)
+            return compressedPixels.length;
+        return pixels == null ? 0 : (long) pixels.length * Integer.BYTES;
+    }
+
+    synchronized long getSwapUsage() {
+        return swapFile == null ? 0 : swapLength;
+    }
+
+    private byte[] compress(int[] pixels) {
+        return QoiCodec.encode(pixels, width, height);
+    }
+
+    private static int[] decompress(byte[] data, int numPixels) {
+        try {
+            int[] pixels = QoiCodec.decode(data);
+            if (pixels.length != numPixels)
+                throw new IOException(String.format("Expected %d pixels, got %d", numPixels, pixels.length));
+            return pixels;
+        } catch (IOException e) {
+            throw new RuntimeException("Corrupted undo history data", e);
+        }
+    }
+}
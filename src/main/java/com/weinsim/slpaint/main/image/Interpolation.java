@@ -0,0 +1,48 @@
+package com.weinsim.slpaint.main.image;
+
+/**
+ * How pixels are sampled when an image is transformed (see
+ * {@link Image#drawTransformedImage}).
+ */
+public enum Interpolation {
+
+    /**
+     * Linear interpolation between the 2 x 2 nearest pixels
+     */
+    BILINEAR(2),
+    /**
+     * Catmull-Rom spline through the 4 x 4 nearest pixels. Sharper than
+     * {@code BILINEAR}, but 4 times as many pixels are read.
+     */
+    BICUBIC(4);
+
+    /**
+     * Number of pixels per axis that contribute to one sample
+     */
+    final int taps;
+
+    private Interpolation(int taps) {
+        this.taps = taps;
+    }
+
+    /**
+     * Writes the weights of the {@code taps} pixels around a sample position
+     * with fractional part {@code t} into {@code weights}.
+     */
+    void getWeights(double t, double[] weights) {
+        switch (this) {
+            case BILINEAR -> {
+                weights[0] = 1 - t;
+                weights[1] = t;
+            }
+            case BICUBIC -> {
+                double t2 = t * t,
+                        t3 = t2 * t;
+                weights[0] = -0.5 * t3 + t2 - 0.5 * t;
+                weights[1] = 1.5 * t3 - 2.5 * t2 + 1;
+                weights[2] = -1.5 * t3 + 2 * t2 + 0.5 * t;
+                weights[3] = 0.5 * t3 - 0.5 * t2;
+            }
+        }
+    }
+}
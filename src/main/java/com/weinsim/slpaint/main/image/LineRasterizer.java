@@ -0,0 +1,217 @@
+package com.weinsim.slpaint.main.image;
+
+/**
+ * Rasterizes the lines drawn by {@link Image#drawLine}: all pixels closer than
+ * {@code size / 2} to the segment {@code (x0, y0) - (x1, y1)} (a capsule),
+ * restricted to a band of {@code 2 * maxOffset} pixels around the rounded
+ * center line along the segment's minor axis.
+ *
+ * <p>
+ * The pixels of a row always form a single span, which is computed
+ * analytically and then corrected at its ends using exactly the same distance
+ * test as a per-pixel check. The result is identical to testing every pixel
+ * of the line's bounding box, but only the pixels next to the ends of each
+ * span are tested. Nothing is allocated per line or per pixel.
+ * </p>
+ */
+final class LineRasterizer {
+
+    private int x0, y0, x1, y1;
+    private int maxOffset;
+    private double maxDistSq, radius;
+    private double baX, baY, invBaSq, length;
+    /**
+     * Wether the line is more horizontal than vertical
+     */
+    private boolean xMajor;
+
+    private int width, height;
+
+    /**
+     * The span {@code [spanStart, spanEnd)} found by the last successful call of
+     * {@link LineRasterizer#span(int)}
+     */
+    int spanStart, spanEnd;
+
+    /**
+     * Prepares the rasterization of a line on an image of size
+     * {@code width x height}.
+     */
+    void set(int x0, int y0, int x1, int y1, int size, int width, int height) {
+        this.x0 = x0;
+        this.y0 = y0;
+        this.x1 = x1;
+        this.y1 = y1;
+        this.width = width;
+        this.height = height;
+
+        maxOffset = (size - 1) / 2;
+        maxDistSq = ((double) size * size) / 4;
+        radius = Math.sqrt(maxDistSq);
+
+        baX = x1 - x0;
+        baY = y1 - y0;
+        invBaSq = 1.0 / (baX * baX + baY * baY);
+        length = Math.sqrt(baX * baX + baY * baY);
+
+        xMajor = Math.abs(x0 - x1) > Math.abs(y0 - y1);
+    }
+
+    /**
+     * @return The first row that can contain pixels of the line
+     */
+    int getMinY() {
+        return Math.max(Math.min(y0, y1) - maxOffset, 0);
+    }
+
+    /**
+     * @return The last row that can contain pixels of the line
+     */
+    int getMaxY() {
+        return Math.min(Math.max(y0, y1) + maxOffset, height - 1);
+    }
+
+    /**
+     * Finds the pixels of the line in row {@code y} and stores them in
+     * {@code spanStart} and {@code spanEnd}.
+     *
+     * @return Wether the row contains any pixels of the line
+     */
+    boolean span(int y) {
+        if (maxDistSq == 0)
+            return false;
+
+        // estimate of the span of the capsule
+        double dy = y - y0;
+        double capsuleMin = Double.POSITIVE_INFINITY,
+                capsuleMax = Double.NEGATIVE_INFINITY;
+        double d = maxDistSq - dy * dy;
+        if (d > 0) {
+            double s = Math.sqrt(d);
+            capsuleMin = x0 - s;
+            capsuleMax = x0 + s;
+        }
+        double dy1 = y - y1;
+        d = maxDistSq - dy1 * dy1;
+        if (d > 0) {
+            double s = Math.sqrt(d);
+            capsuleMin = Math.min(capsuleMin, x1 - s);
+            capsuleMax = Math.max(capsuleMax, x1 + s);
+        }
+        if (length > 0) {
+            // 0 <= (p - a) . ba <= |ba|^2 and |(p - a) x ba| < radius * |ba|
+            double projMin, projMax, perpMin, perpMax;
+            if (baX != 0) {
+                double p0 = -dy * baY / baX,
+                        p1 = (length * length - dy * baY) / baX;
+                projMin = Math.min(p0, p1);
+                projMax = Math.max(p0, p1);
+            } else {
+                projMin = Double.NEGATIVE_INFINITY;
+                projMax = Double.POSITIVE_INFINITY;
+            }
+            if (baY != 0) {
+                double p0 = (dy * baX - radius * length) / baY,
+                        p1 = (dy * baX + radius * length) / baY;
+                perpMin = Math.min(p0, p1);
+                perpMax = Math.max(p0, p1);
+            } else if (Math.abs(dy) < radius) {
+                perpMin = Double.NEGATIVE_INFINITY;
+                perpMax = Double.POSITIVE_INFINITY;
+            } else {
+                perpMin = Double.POSITIVE_INFINITY;
+                perpMax = Double.NEGATIVE_INFINITY;
+            }
+            double slabMin = x0 + Math.max(projMin, perpMin),
+                    slabMax = x0 + Math.min(projMax, perpMax);
+            if (slabMin <= slabMax) {
+                capsuleMin = Math.min(capsuleMin, slabMin);
+                capsuleMax = Math.max(capsuleMax, slabMax);
+            }
+        }
+        if (capsuleMin > capsuleMax)
+            return false;
+
+        long start = (long) Math.floor(capsuleMin) + 1,
+                end = (long) Math.ceil(capsuleMax) - 1;
+
+        // estimate of the band around the center line
+        if (xMajor) {
+            start = Math.max(start, Math.min(x0, x1) - maxOffset);
+            end = Math.min(end, Math.max(x0, x1) + maxOffset);
+            int band = 2 * maxOffset;
+            if (y0 == y1) {
+                if (Math.abs(y - y0) > band)
+                    return false;
+            } else {
+                double slope = baY / baX;
+                double b0 = x0 + (y - band - 0.5 - y0) / slope,
+                        b1 = x0 + (y + band + 0.5 - y0) / slope;
+                start = Math.max(start, (long) Math.floor(Math.min(b0, b1)));
+                end = Math.min(end, (long) Math.ceil(Math.max(b0, b1)));
+            }
+        } else {
+            int px = centerX(y);
+            start = Math.max(start, px - 2 * maxOffset);
+            end = Math.min(end, px + 2 * maxOffset);
+        }
+
+        start = Math.max(start, 0);
+        end = Math.min(end, width - 1);
+
+        int x = (int) Math.min(start, width),
+                lastX = (int) Math.max(end, -1);
+        while (contains(x - 1, y))
+            x--;
+        while (x <= lastX && !contains(x, y))
+            x++;
+        while (contains(lastX + 1, y))
+            lastX++;
+        while (lastX >= x && !contains(lastX, y))
+            lastX--;
+
+        if (x > lastX)
+            return false;
+        spanStart = x;
+        spanEnd = lastX + 1;
+        return true;
+    }
+
+    /**
+     * The exact per-pixel test
+     */
+    private boolean contains(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height)
+            return false;
+
+        if (xMajor) {
+            if (x < Math.min(x0, x1) - maxOffset || x > Math.max(x0, x1) + maxOffset)
+                return false;
+            if (Math.abs(y - centerY(x)) > 2 * maxOffset)
+                return false;
+        } else {
+            if (y < Math.min(y0, y1) - maxOffset || y > Math.max(y0, y1) + maxOffset)
+                return false;
+            if (Math.abs(x - centerX(y)) > 2 * maxOffset)
+                return false;
+        }
+
+        // https://iquilezles.org/articles/distfunctions2d/
+        double paX = x - x0,
+                paY = y - y0;
+        double h = Math.min(Math.max((paX * baX + paY * baY) * invBaSq, 0), 1);
+        if (Double.isFinite(h)) {
+            paX -= baX * h;
+            paY -= baY * h;
+        }
+        return paX * paX + paY * paY < maxDistSq;
+    }
+
+    private int centerY(int x) {
+        return x1 == x0 ? y0 : (int) Math.round((double) (x - x0) / (x1 - x0) * (y1 - y0) + y0);
+    }
+
+    private int centerX(int y) {
+        return y1 == y0 ? x0 : (int) Math.round((double) (y - y0) / (y1 - y0) * (x1 - x0) + x0);
+    }
+}
@@ -0,0 +1,86 @@
+package com.weinsim.slpaint.main.image;
+
+/**
+ * The row loops that touch every pixel of large areas (blending, color
+ * masking, format conversion). This class contains the scalar implementations.
+ * If the build includes {@code VectorPixelKernels} (Maven profile
+ * {@code vector}) and the {@code jdk.incubator.vector} module is available at
+ * runtime, {@link PixelKernels#INSTANCE} is a {@code VectorPixelKernels}
+ * instead, which produces exactly the same results using SIMD instructions.
+ */
+class PixelKernels {
+
+    static final PixelKernels INSTANCE = create();
+
+    PixelKernels() {
+    }
+
+    private static PixelKernels create() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            // Loaded by name so that this class doesn't depend on the incubator module.
+            try {
+                return (PixelKernels) Class.forName("com.weinsim.slpaint.main.image.VectorPixelKernels")
+                        .getDeclaredConstructor()
+                        .newInstance();
+            } catch (ClassNotFoundException e) {
+                // built without the vector profile
+            } catch (ReflectiveOperationException | LinkageError e) {
+                e.printStackTrace();
+            }
+        }
+        return new PixelKernels();
+    }
+
+    /**
+     * Blends {@code len} pixels of {@code src} (starting at {@code srcOffset})
+     * over the pixels of {@code dst} (starting at {@code dstOffset}) in place.
+     *
+     * @see AlphaBlend#sourceOver(int, int, boolean)
+     */
+    void sourceOverRow(int[] src, int srcOffset, int[] dst, int dstOffset, int len, boolean premultiplied) {
+        for (int i = 0; i < len; i++)
+            dst[dstOffset + i] = AlphaBlend.sourceOver(src[srcOffset + i], dst[dstOffset + i], premultiplied);
+    }
+
+    /**
+     * Blends {@code color} (with straight alpha) over {@code len} pixels of
+     * {@code dst} in place.
+     */
+    void sourceOverRow(int color, int[] dst, int dstOffset, int len) {
+        for (int i = dstOffset; i < dstOffset + len; i++)
+            dst[i] = AlphaBlend.sourceOver(color, dst[i], false);
+    }
+
+    /**
+     * Writes the pixels of {@code src} blended over the opaque color
+     * {@code background} into {@code dst}. The result is fully opaque.
+     */
+    void flattenRow(int[] src, int srcOffset, int[] dst, int dstOffset, int len, int background) {
+        background |= 0xFF000000;
+        for (int i = 0; i < len; i++)
+            dst[dstOffset + i] = AlphaBlend.sourceOver(src[srcOffset + i], background, false);
+    }
+
+    /**
+     * @return Wether any of the {@code len} pixels starting at {@code offset}
+     *         has the given color
+     */
+    boolean contains(int[] pixels, int offset, int len, int color) {
+        for (int i = offset; i < offset + len; i++) {
+            if (pixels[i] == color)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Replaces all occurrences of {@code color} among the {@code len} pixels
+     * starting at {@code offset} with {@code replacement}.
+     */
+    void replace(int[] pixels, int offset, int len, int color, int replacement) {
+        for (int i = offset; i < offset + len; i++) {
+            if (pixels[i] == color)
+                pixels[i] = replacement;
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package com.weinsim.slpaint.main.image;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Encoder and decoder for the QOI ("Quite OK Image") format, a simple lossless
+ * format that compresses several times faster than PNG. Pixels are read from
+ * and written to {@code int[]} arrays of ARGB colors, a few rows at a time, so
+ * neither side needs to hold the whole image in a different representation.
+ *
+ * @see <a href="https://qoiformat.org/qoi-specification.pdf">QOI
+ *      specification</a>
+ */
+final class QoiCodec {
+
+    static final byte[] MAGIC = { 'q', 'o', 'i', 'f' };
+    static final int HEADER_SIZE = 14;
+    private static final byte[] END_MARKER = { 0, 0, 0, 0, 0, 0, 0, 1 };
+
+    private static final int OP_INDEX = 0x00, OP_DIFF = 0x40, OP_LUMA = 0x80, OP_RUN = 0xc0, OP_RGB = 0xfe,
+            OP_RGBA = 0xff;
+    private static final int MAX_RUN = 62;
+    /**
+     * The largest number of bytes a single pixel can take up ({@code OP_RGBA}).
+     */
+    private static final int MAX_PIXEL_SIZE = 5;
+    /**
+     * The largest number of bytes the encoder can write for a single pixel: the
+     * end of a pending run ({@code OP_RUN}) followed by {@code OP_RGBA}.
+     */
+    private static final int MAX_ENCODED_PIXEL_SIZE = 1 + MAX_PIXEL_SIZE;
+    static final int BUFFER_SIZE = 1 << 16;
+
+    private QoiCodec() {
+    }
+
+    private static int hash(int color) {
+        return ((color >>> 16 & 0xff) * 3 + (color >>> 8 & 0xff) * 5 + (color & 0xff) * 7 + (color >>> 24) * 11)
+                & 63;
+    }
+
+    /**
+     * @return The number of bytes of the chunk that starts with {@code b1}
+     */
+    private static int chunkSize(int b1) {
+        if (b1 == OP_RGB)
+            return 4;
+        if (b1 == OP_RGBA)
+            return 5;
+        return (b1 & 0xc0) == OP_LUMA ? 2 : 1;
+    }
+
+    /**
+     * @return Wether {@code header} starts with the QOI magic bytes
+     */
+    static boolean isQoi(byte[] header) {
+        return header.length >= MAGIC.length && Arrays.equals(header, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    /**
+     * Encodes pixels to a QOI stream. The pixels have to be passed in order,
+     * row by row, in any number of calls to {@link Encoder#write(int[], int, int)}.
+     */
+    static final class Encoder {
+
+        private final OutputStream out;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position;
+
+        private final int[] index = new int[64];
+        private int prev = 0xff000000;
+        private int run;
+        private long remainingPixels;
+
+        Encoder(OutputStream out, int width, int height, boolean hasAlpha) {
+            this.out = out;
+            remainingPixels = (long) width * height;
+
+            System.arraycopy(MAGIC, 0, buffer, 0, MAGIC.length);
+            putInt(4, width);
+            putInt(8, height);
+            buffer[12] = (byte) (hasAlpha ? 4 : 3);
+            buffer[13] = 0; // sRGB with linear alpha
+            position = HEADER_SIZE;
+        }
+
+        private void putInt(int offset, int value) {
+            buffer[offset] = (byte) (value >>> 24);
+            buffer[offset + 1] = (byte) (value >>> 16);
+            buffer[offset + 2] = (byte) (value >>> 8);
+            buffer[offset + 3] = (byte) value;
+        }
+
+        void write(int[] pixels, int offset, int length) throws IOException {
+            if (length > remainingPixels)
+                throw new IllegalArgumentException("More pixels than specified in the header");
+
+            final byte[] buffer = this.buffer;
+            final int[] index = this.index;
+            int position = this.position, prev = this.prev, run = this.run;
+            for (int i = offset; i < offset + length; i++) {
+                if (position > BUFFER_SIZE - MAX_ENCODED_PIXEL_SIZE) {
+                    out.write(buffer, 0, position);
+                    position = 0;
+                }
+
+                int color = pixels[i];
+                if (color == prev) {
+                    if (++run == MAX_RUN) {
+                        buffer[position++] = (byte) (OP_RUN | (run - 1));
+                        run = 0;
+                    }
+                    continue;
+                }
+                if (run > 0) {
+                    buffer[position++] = (byte) (OP_RUN | (run - 1));
+                    run = 0;
+                }
+
+                int hash = hash(color);
+                if (index[hash] == color) {
+                    buffer[position++] = (byte) (OP_INDEX | hash);
+                } else {
+                    index[hash] = color;
+
+                    if ((color ^ prev) >>> 24 == 0) {
+                        // same alpha
+                        int dr = (byte) ((color >> 16) - (prev >> 16)),
+                                dg = (byte) ((color >> 8) - (prev >> 8)),
+                                db = (byte) (color - prev);
+                        int drdg = dr - dg,
+                                dbdg = db - dg;
+                        if (dr >= -2 && dr <= 1 && dg >= -2 && dg <= 1 && db >= -2 && db <= 1) {
+                            buffer[position++] = (byte) (OP_DIFF | (dr + 2) << 4 | (dg + 2) << 2 | (db + 2));
+                        } else if (dg >= -32 && dg <= 31 && drdg >= -8 && drdg <= 7 && dbdg >= -8 && dbdg <= 7) {
+                            buffer[position++] = (byte) (OP_LUMA | (dg + 32));
+                            buffer[position++] = (byte) ((drdg + 8) << 4 | (dbdg + 8));
+                        } else {
+                            buffer[position++] = (byte) OP_RGB;
+                            buffer[position++] = (byte) (color >> 16);
+                            buffer[position++] = (byte) (color >> 8);
+                            buffer[position++] = (byte) color;
+                        }
+                    } else {
+                        buffer[position++] = (byte) OP_RGBA;
+                        buffer[position++] = (byte) (color >> 16);
+                        buffer[position++] = (byte) (color >> 8);
+                        buffer[position++] = (byte) color;
+                        buffer[position++] = (byte) (color >>> 24);
+                    }
+                }
+                prev = color;
+            }
+            this.position = position;
+            this.prev = prev;
+            this.run = run;
+            remainingPixels -= length;
+        }
+
+        /**
+         * Writes the remaining data and the end marker. Doesn't close the output
+         * stream.
+         */
+        void finish() throws IOException {
+            if (remainingPixels > 0)
+                throw new IllegalStateException(String.format("%d pixels are missing", remainingPixels));
+
+            if (position > BUFFER_SIZE - 1 - END_MARKER.length) {
+                out.write(buffer, 0, position);
+                position = 0;
+            }
+            if (run > 0) {
+                buffer[position++] = (byte) (OP_RUN | (run - 1));
+                run = 0;
+            }
+            System.arraycopy(END_MARKER, 0, buffer, position, END_MARKER.length);
+            position += END_MARKER.length;
+            out.write(buffer, 0, position);
+            out.flush();
+            position = 0;
+        }
+    }
+
+    /**
+     * Decodes a QOI stream. The header is read right away, the pixels are read
+     * in order with any number of calls to
+     * {@link Decoder#read(int[], int, int)}. Closing the decoder closes the
+     * input stream.
+     */
+    static final class Decoder implements Closeable {
+
+        final int width, height;
+        final boolean hasAlpha;
+
+        private final InputStream in;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position, limit;
+
+        private final int[] index = new int[64];
+        private int prev = 0xff000000;
+        private int run;
+        private long remainingPixels;
+
+        Decoder(InputStream in) throws IOException {
+            this.in = in;
+
+            fill(HEADER_SIZE);
+            if (limit < HEADER_SIZE || !isQoi(buffer))
+                throw new IOException("Not a QOI image");
+            width = getInt(4);
+            height = getInt(8);
+            hasAlpha = buffer[12] == 4;
+            position = HEADER_SIZE;
+            if (width <= 0 || height <= 0)
+                throw new IOException(String.format("Invalid QOI image size: %d x %d", width, height));
+            remainingPixels = (long) width * height;
+        }
+
+        private int getInt(int offset) {
+            return (buffer[offset] & 0xff) << 24 | (buffer[offset + 1] & 0xff) << 16
+                    | (buffer[offset + 2] & 0xff) << 8 | (buffer[offset + 3] & 0xff);
+        }
+
+        /**
+         * Reads from the stream until at least {@code count} bytes are buffered or
+         * the stream ends.
+         */
+        private void fill(int count) throws IOException {
+            if (limit - position >= count)
+                return;
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+            while (limit < count) {
+                int numBytes = in.read(buffer, limit, BUFFER_SIZE - limit);
+                if (numBytes < 0)
+                    return;
+                limit += numBytes;
+            }
+        }
+
+        void read(int[] pixels, int offset, int length) throws IOException {
+            if (length > remainingPixels)
+                throw new IllegalArgumentException("More pixels requested than the image contains");
+
+            final byte[] buffer = this.buffer;
+            final int[] index = this.index;
+            int prev = this.prev, run = this.run;
+            final int end = offset + length;
+            int i = offset;
+            while (i < end) {
+                if (run > 0) {
+                    int count = Math.min(run, end - i);
+                    Arrays.fill(pixels, i, i + count, prev);
+                    i += count;
+                    run -= count;
+                    continue;
+                }
+
+                if (limit - position < MAX_PIXEL_SIZE) {
+                    fill(MAX_PIXEL_SIZE);
+                    if (position == limit || limit - position < chunkSize(buffer[position] & 0xff))
+                        throw new IOException("Unexpected end of QOI data");
+                }
+
+                int b1 = buffer[position++] & 0xff;
+                int color;
+                if (b1 == OP_RGB) {
+                    color = (prev & 0xff000000) | (buffer[position] & 0xff) << 16
+                            | (buffer[position + 1] & 0xff) << 8 | (buffer[position + 2] & 0xff);
+                    position += 3;
+                } else if (b1 == OP_RGBA) {
+                    color = (buffer[position + 3] & 0xff) << 24 | (buffer[position] & 0xff) << 16
+                            | (buffer[position + 1] & 0xff) << 8 | (buffer[position + 2] & 0xff);
+                    position += 4;
+                } else {
+                    switch (b1 & 0xc0) {
+                        case OP_INDEX -> color = index[b1];
+                        case OP_DIFF -> {
+                            int r = (prev >> 16) + ((b1 >> 4 & 3) - 2),
+                                    g = (prev >> 8) + ((b1 >> 2 & 3) - 2),
+                                    b = prev + ((b1 & 3) - 2);
+                            color = (prev & 0xff000000) | (r & 0xff) << 16 | (g & 0xff) << 8 | (b & 0xff);
+                        }
+                        case OP_LUMA -> {
+                            int b2 = buffer[position++] & 0xff;
+                            int dg = (b1 & 0x3f) - 32;
+                            int r = (prev >> 16) + dg + ((b2 >> 4) - 8),
+                                    g = (prev >> 8) + dg,
+                                    b = prev + dg + ((b2 & 0x0f) - 8);
+                            color = (prev & 0xff000000) | (r & 0xff) << 16 | (g & 0xff) << 8 | (b & 0xff);
+                        }
+                        default -> {
+                            // OP_RUN, the current pixel is the first one of the run
+                            color = prev;
+                            run = b1 & 0x3f;
+                        }
+                    }
+                }
+
+                index[hash(color)] = color;
+                pixels[i++] = color;
+                prev = color;
+            }
+            this.prev = prev;
+            this.run = run;
+            remainingPixels -= length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes {@code image} to {@code file} in the QOI format.
+     */
+    static void write(BufferedImage image, File file) throws IOException {
+        int width = image.getWidth(),
+                height = image.getHeight();
+        ArgbConverter converter = new ArgbConverter(image);
+        int bandHeight = Math.min(TileGrid.TILE_SIZE, height);
+        int[] band = new int[width * bandHeight];
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            Encoder encoder = new Encoder(out, width, height, image.getColorModel().hasAlpha());
+            for (int y = 0; y < height; y += bandHeight) {
+                int h = Math.min(bandHeight, height - y);
+                converter.convertRows(y, h, band, 0);
+                encoder.write(band, 0, width * h);
+            }
+            encoder.finish();
+        }
+    }
+
+    /**
+     * @return The pixels encoded as a complete QOI image
+     */
+    static byte[] encode(int[] pixels, int width, int height) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER_SIZE + pixels.length + END_MARKER.length);
+        try {
+            Encoder encoder = new Encoder(out, width, height, true);
+            encoder.write(pixels, 0, pixels.length);
+            encoder.finish();
+        } catch (IOException e) {
+            // a ByteArrayOutputStream doesn't throw
+            throw new RuntimeException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return The pixels of a QOI image created by
+     *         {@link QoiCodec#encode(int[], int, int)}
+     */
+    static int[] decode(byte[] data) throws IOException {
+        Decoder decoder = new Decoder(new ByteArrayInputStream(data));
+        long numPixels = (long) decoder.width * decoder.height;
+        if (numPixels > Integer.MAX_VALUE)
+            throw new IOException(String.format("QOI image too large: %d x %d", decoder.width, decoder.height));
+        int[] pixels = new int[(int) numPixels];
+        decoder.read(pixels, 0, pixels.length);
+        return pixels;
+    }
+}
@@ -0,0 +1,414 @@
+package com.weinsim.slpaint.main.image;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Draws a {@link TileGrid} scaled and rotated onto another one, sampling the
+ * source at the (inverse transformed) center of every destination pixel.
+ * Interpolation happens with premultiplied alpha, so transparent pixels don't
+ * darken their neighbors. The edges of the source are anti-aliased by the
+ * distance of the destination pixel to the edge.
+ *
+ * <p>
+ * Bands of destination tile rows are processed in parallel on the common
+ * {@link ForkJoinPool}. Every band only writes to its own tiles, so no
+ * synchronization is needed.
+ * </p>
+ */
+final class Resampler extends RecursiveAction {
+
+    /**
+     * Bands with at most this many tile rows are not split any further.
+     */
+    private static final int MAX_BAND_SIZE = 1;
+
+    private final TileGrid src, dst;
+    private final Interpolation interpolation;
+    /**
+     * Wether the transformation is a translation by whole pixels, in which case
+     * the source pixels are blended without resampling
+     */
+    private final boolean identity;
+    /**
+     * Source position (in pixels) of the center of destination pixel
+     * {@code (x, y)}: {@code u = u0 + x * dudx + y * dudy},
+     * {@code v = v0 + x * dvdx + y * dvdy}
+     */
+    private final double u0, dudx, dudy, v0, dvdx, dvdy;
+    /**
+     * Destination pixels per source pixel along both source axes
+     */
+    private final double scaleU, scaleV;
+    /**
+     * Destination area {@code [x0, x1) x [y0, y1)}
+     */
+    private final int x0, y0, x1, y1;
+    private final int startTileY, endTileY;
+
+    private Resampler(Resampler parent, int startTileY, int endTileY) {
+        this.src = parent.src;
+        this.dst = parent.dst;
+        this.interpolation = parent.interpolation;
+        this.identity = parent.identity;
+        this.u0 = parent.u0;
+        this.dudx = parent.dudx;
+        this.dudy = parent.dudy;
+        this.v0 = parent.v0;
+        this.dvdx = parent.dvdx;
+        this.dvdy = parent.dvdy;
+        this.scaleU = parent.scaleU;
+        this.scaleV = parent.scaleV;
+        this.x0 = parent.x0;
+        this.y0 = parent.y0;
+        this.x1 = parent.x1;
+        this.y1 = parent.y1;
+        this.startTileY = startTileY;
+        this.endTileY = endTileY;
+    }
+
+    private Resampler(TileGrid src, TileGrid dst, double x, double y, double width, double height, double angle,
+            Interpolation interpolation) {
+        this.src = src;
+        this.dst = dst;
+        this.interpolation = interpolation;
+
+        double[] sinCos = sinCos(angle);
+        double sin = sinCos[0],
+                cos = sinCos[1];
+        double centerX = x + width / 2,
+                centerY = y + height / 2;
+
+        scaleU = width / src.width;
+        scaleV = height / src.height;
+
+        // inverse rotation around the center, then inverse scaling
+        dudx = cos / scaleU;
+        dudy = sin / scaleU;
+        dvdx = -sin / scaleV;
+        dvdy = cos / scaleV;
+        u0 = (0.5 - centerX) * dudx + (0.5 - centerY) * dudy + src.width / 2.0;
+        v0 = (0.5 - centerX) * dvdx + (0.5 - centerY) * dvdy + src.height / 2.0;
+
+        identity = sin == 0 && cos == 1 && scaleU == 1 && scaleV == 1 && x == Math.rint(x) && y == Math.rint(y);
+
+        double[] size = getBoundingSize(width, height, angle);
+        x0 = (int) Math.max(0, Math.floor(centerX - size[0] / 2));
+        y0 = (int) Math.max(0, Math.floor(centerY - size[1] / 2));
+        x1 = (int) Math.min(dst.width, Math.ceil(centerX + size[0] / 2));
+        y1 = (int) Math.min(dst.height, Math.ceil(centerY + size[1] / 2));
+
+        startTileY = y0 >> TileGrid.TILE_SHIFT;
+        endTileY = ((y1 - 1) >> TileGrid.TILE_SHIFT) + 1;
+    }
+
+    /**
+     * Draws {@code src} scaled to {@code width} x {@code height} at
+     * {@code (x, y)} and rotated by {@code angle} degrees (clockwise) around the
+     * center of that rectangle onto {@code dst}, blending it with the existing
+     * pixels.
+     *
+     * @return The area {x0, y0, x1, y1} of {@code dst} that was drawn to, or
+     *         {@code null} if it is empty
+     */
+    static int[] draw(TileGrid src, TileGrid dst, double x, double y, double width, double height, double angle,
+            Interpolation interpolation) {
+        if (!(width > 0 && height > 0))
+            return null;
+
+        Resampler resampler = new Resampler(src, dst, x, y, width, height, angle, interpolation);
+        if (resampler.x0 >= resampler.x1 || resampler.y0 >= resampler.y1)
+            return null;
+
+        ForkJoinPool.commonPool().invoke(resampler);
+        return new int[] { resampler.x0, resampler.y0, resampler.x1, resampler.y1 };
+    }
+
+    /**
+     * @return The size {width, height} of the axis aligned bounding box of a
+     *         {@code width} x {@code height} rectangle rotated by {@code angle}
+     *         degrees
+     */
+    static double[] getBoundingSize(double width, double height, double angle) {
+        double[] sinCos = sinCos(angle);
+        double sin = Math.abs(sinCos[0]),
+                cos = Math.abs(sinCos[1]);
+        return new double[] { cos * width + sin * height, sin * width + cos * height };
+    }
+
+    /**
+     * Same as {@code Math.sin} and {@code Math.cos} of the angle in radians, but
+     * exact for multiples of 90 degrees
+     */
+    private static double[] sinCos(double angle) {
+        angle %= 360;
+        if (angle < 0)
+            angle += 360;
+        if (angle == 0)
+            return new double[] { 0, 1 };
+        if (angle == 90)
+            return new double[] { 1, 0 };
+        if (angle == 180)
+            return new double[] { 0, -1 };
+        if (angle == 270)
+            return new double[] { -1, 0 };
+        double radians = Math.toRadians(angle);
+        return new double[] { Math.sin(radians), Math.cos(radians) };
+    }
+
+    @Override
+    protected void compute() {
+        if (endTileY - startTileY > MAX_BAND_SIZE) {
+            int middle = (startTileY + endTileY) >>> 1;
+            invokeAll(new Resampler(this, startTileY, middle), new Resampler(this, middle, endTileY));
+            return;
+        }
+
+        int len = x1 - x0;
+        int[] srcRow = new int[len],
+                dstRow = new int[len];
+        double[] weightsX = new double[interpolation.taps],
+                weightsY = new double[interpolation.taps];
+
+        int bandY0 = Math.max(y0, startTileY << TileGrid.TILE_SHIFT),
+                bandY1 = Math.min(y1, endTileY << TileGrid.TILE_SHIFT);
+        for (int y = bandY0; y < bandY1; y++) {
+            if (identity) {
+                int srcX = (int) Math.round(x0 + u0 - 0.5),
+                        srcY = (int) Math.round(y + v0 - 0.5);
+                if (srcY < 0 || srcY >= src.height)
+                    continue;
+                // the destination area might be clipped on the left
+                int from = Math.max(0, -srcX),
+                        to = Math.min(len, src.width - srcX);
+                if (from >= to)
+                    continue;
+                src.readRow(srcX + from, srcY, to - from, srcRow, from);
+                blendRow(y, srcRow, dstRow, from, to);
+            } else {
+                int[] range = getCoveredRange(y);
+                int from = range[0],
+                        to = range[1];
+                sampleRow(y, srcRow, from, to, weightsX, weightsY);
+
+                while (from < to && srcRow[from] == 0)
+                    from++;
+                while (to > from && srcRow[to - 1] == 0)
+                    to--;
+                if (from < to)
+                    blendRow(y, srcRow, dstRow, from, to);
+            }
+        }
+    }
+
+    /**
+     * Blends {@code srcRow[from, to)} over row {@code y} of {@code dst}
+     */
+    private void blendRow(int y, int[] srcRow, int[] dstRow, int from, int to) {
+        dst.readRow(x0 + from, y, to - from, dstRow, from);
+        PixelKernels.INSTANCE.sourceOverRow(srcRow, from, dstRow, from, to - from, false);
+        dst.writeRow(x0 + from, y, to - from, dstRow, from);
+    }
+
+    /**
+     * Writes the transformed source pixels (with straight alpha) of row
+     * {@code y} of the destination area into {@code row}. Only the pixels in
+     * {@code [from, to)} can be covered by the source, the others are set to 0.
+     */
+    private void sampleRow(int y, int[] row, int from, int to, double[] weightsX, double[] weightsY) {
+        final int shift = TileGrid.TILE_SHIFT,
+                mask = TileGrid.TILE_MASK;
+        final int taps = interpolation.taps;
+        final int offset = taps / 2 - 1;
+
+        Arrays.fill(row, 0, from, 0);
+        Arrays.fill(row, to, row.length, 0);
+
+        double rowU = u0 + y * dudy,
+                rowV = v0 + y * dvdy;
+        for (int i = from; i < to; i++) {
+            // not accumulated, so that long rows don't drift
+            double u = rowU + (x0 + i) * dudx,
+                    v = rowV + (x0 + i) * dvdx;
+            double coverage = coverage(u, src.width, scaleU) * coverage(v, src.height, scaleV);
+            if (coverage <= 0) {
+                row[i] = 0;
+                continue;
+            }
+
+            // sample position relative to the pixel centers
+            double sx = u - 0.5,
+                    sy = v - 0.5;
+            int ix = (int) Math.floor(sx),
+                    iy = (int) Math.floor(sy);
+            interpolation.getWeights(sx - ix, weightsX);
+            interpolation.getWeights(sy - iy, weightsY);
+
+            // Most samples only read pixels of a single tile, which can be
+            // accessed directly instead of through TileGrid.get.
+            int srcX0 = ix - offset,
+                    srcY0 = iy - offset;
+            int[] tile = null;
+            int tileOffset = 0;
+            if (srcX0 >= 0 && srcY0 >= 0 && srcX0 + taps <= src.width && srcY0 + taps <= src.height
+                    && srcX0 >> shift == (srcX0 + taps - 1) >> shift
+                    && srcY0 >> shift == (srcY0 + taps - 1) >> shift) {
+                int index = (srcY0 >> shift) * src.numTilesX + (srcX0 >> shift);
+                tile = src.tiles[index];
+                if (tile == null) {
+                    int color = src.tileColors[index];
+                    int alpha = color >>> 24;
+                    row[i] = toColor(alpha, alpha * ((color >> 16) & 0xFF), alpha * ((color >> 8) & 0xFF),
+                            alpha * (color & 0xFF), coverage);
+                    continue;
+                }
+                tileOffset = ((srcY0 & mask) << shift) | (srcX0 & mask);
+            }
+
+            double a = 0, r = 0, g = 0, b = 0;
+            for (int ty = 0; ty < taps; ty++) {
+                double wy = weightsY[ty];
+                if (wy == 0)
+                    continue;
+                int py = Math.min(Math.max(srcY0 + ty, 0), src.height - 1);
+
+                for (int tx = 0; tx < taps; tx++) {
+                    double w = weightsX[tx] * wy;
+                    if (w == 0)
+                        continue;
+
+                    int color = tile != null
+                            ? tile[tileOffset + (ty << shift) + tx]
+                            : src.get(Math.min(Math.max(srcX0 + tx, 0), src.width - 1), py);
+                    double wa = w * (color >>> 24);
+                    a += wa;
+                    r += wa * ((color >> 16) & 0xFF);
+                    g += wa * ((color >> 8) & 0xFF);
+                    b += wa * (color & 0xFF);
+                }
+            }
+
+            row[i] = toColor(a, r, g, b, coverage);
+        }
+    }
+
+    /**
+     * @return The range {from, to} of pixels of row {@code y} of the
+     *         destination area that can be covered by the source (plus a margin
+     *         of one pixel)
+     */
+    private int[] getCoveredRange(int y) {
+        int len = x1 - x0;
+        double[] range = { 0, len };
+        // u and v are linear in the pixel index i
+        intersectRange(range, u0 + y * dudy + x0 * dudx, dudx, -0.5 / scaleU, src.width + 0.5 / scaleU);
+        intersectRange(range, v0 + y * dvdy + x0 * dvdx, dvdx, -0.5 / scaleV, src.height + 0.5 / scaleV);
+        int from = (int) Math.min(Math.max(0, Math.floor(range[0]) - 1), len),
+                to = (int) Math.min(len, Math.ceil(range[1]) + 1);
+        return new int[] { from, Math.max(from, to) };
+    }
+
+    /**
+     * Intersects {@code range} with the values of {@code i} for which
+     * {@code min < start + i * step < max}.
+     */
+    private static void intersectRange(double[] range, double start, double step, double min, double max) {
+        if (step == 0) {
+            if (start <= min || start >= max)
+                range[1] = range[0];
+            return;
+        }
+
+        double i0 = (min - start) / step,
+                i1 = (max - start) / step;
+        range[0] = Math.max(range[0], Math.min(i0, i1));
+        range[1] = Math.min(range[1], Math.max(i0, i1));
+    }
+
+    /**
+     * @return How much of a destination pixel whose center lies at source
+     *         position {@code pos} is covered by the source, along one axis
+     */
+    private static double coverage(double pos, int size, double scale) {
+        double distance = Math.min(pos, size - pos) * scale;
+        return Math.min(Math.max(distance + 0.5, 0), 1);
+    }
+
+    /**
+     * @param a   Interpolated alpha
+     * @param r   Interpolated red, premultiplied with {@code a}
+     * @param g   Interpolated green, premultiplied with {@code a}
+     * @param b   Interpolated blue, premultiplied with {@code a}
+     * @return The straight alpha color, with its alpha scaled by
+     *         {@code coverage}
+     */
+    static int toColor(double a, double r, double g, double b, double coverage) {
+        if (a < 0.5)
+            return 0;
+
+        int alpha = (int) (Math.min(a, 255) * coverage + 0.5);
+        double inverse = 1 / a;
+        int red = (int) Math.min(Math.max(r * inverse + 0.5, 0), 255),
+                green = (int) Math.min(Math.max(g * inverse + 0.5, 0), 255),
+                blue = (int) Math.min(Math.max(b * inverse + 0.5, 0), 255);
+        return alpha << 24 | red << 16 | green << 8 | blue;
+    }
+
+    /**
+     * Creates a copy of {@code src} that is smaller by {@code factor} along both
+     * axes, where every pixel is the average of a {@code factor} x {@code factor}
+     * block (with premultiplied alpha).
+     */
+    static TileGrid downscale(TileGrid src, int factor) {
+        int width = (src.width + factor - 1) / factor,
+                height = (src.height + factor - 1) / factor;
+        TileGrid result = new TileGrid(width, height, 0);
+
+        int[] srcRow = new int[src.width],
+                row = new int[width];
+        long[] sums = new long[4 * width];
+        for (int y = 0; y < height; y++) {
+            Arrays.fill(sums, 0);
+            int srcY0 = y * factor,
+                    srcY1 = Math.min(srcY0 + factor, src.height);
+            for (int srcY = srcY0; srcY < srcY1; srcY++) {
+                src.readRow(0, srcY, src.width, srcRow, 0);
+                for (int srcX = 0; srcX < src.width; srcX++) {
+                    int color = srcRow[srcX];
+                    int alpha = color >>> 24;
+                    int i = 4 * (srcX / factor);
+                    sums[i] += alpha;
+                    sums[i + 1] += alpha * ((color >> 16) & 0xFF);
+                    sums[i + 2] += alpha * ((color >> 8) & 0xFF);
+                    sums[i + 3] += alpha * (color & 0xFF);
+                }
+            }
+
+            for (int x = 0; x < width; x++) {
+                int blockWidth = Math.min(factor, src.width - x * factor);
+                row[x] = averageColor(sums, 4 * x, (long) blockWidth * (srcY1 - srcY0));
+            }
+            result.writeRow(0, y, width, row, 0);
+        }
+        return result;
+    }
+
+    /**
+     * @param sums  The sums of the alpha and the premultiplied red, green and
+     *              blue values of {@code count} pixels, starting at
+     *              {@code offset}
+     * @return The average color of these pixels
+     */
+    static int averageColor(long[] sums, int offset, long count) {
+        long a = sums[offset];
+        if (a == 0)
+            return 0;
+
+        int alpha = (int) ((a + count / 2) / count),
+                red = (int) ((sums[offset + 1] + a / 2) / a),
+                green = (int) ((sums[offset + 2] + a / 2) / a),
+                blue = (int) ((sums[offset + 3] + a / 2) / a);
+        return alpha << 24 | red << 16 | green << 8 | blue;
+    }
+}
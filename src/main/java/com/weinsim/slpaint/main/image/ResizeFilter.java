@@ -0,0 +1,57 @@
+package com.weinsim.slpaint.main.image;
+
+/**
+ * The filters that an image can be resized (scaled) with (see
+ * {@link Image#resize(int, int, ResizeFilter)}). When downscaling, every
+ * filter except {@code NEAREST} is stretched by the scale factor, so that all
+ * source pixels contribute to the result.
+ */
+public enum ResizeFilter {
+
+    NEAREST("Nearest neighbor", 0.5),
+    BILINEAR("Bilinear", 1),
+    /**
+     * Averages the source pixels covered by each pixel of the result, weighted
+     * by the covered area. {@link ResizeFilter#weight(double)} is only an
+     * approximation of this, the resampler computes the exact overlap.
+     */
+    BOX("Box (area average)", 0.5),
+    LANCZOS3("Lanczos3", 3);
+
+    public final String name;
+    /**
+     * Radius of the filter in source pixels (before stretching)
+     */
+    final double support;
+
+    private ResizeFilter(String name, double support) {
+        this.name = name;
+        this.support = support;
+    }
+
+    /**
+     * @param x Distance from the sample position in (unstretched) source pixels
+     */
+    double weight(double x) {
+        return switch (this) {
+            case NEAREST, BOX -> x >= -0.5 && x < 0.5 ? 1 : 0;
+            case BILINEAR -> Math.max(1 - Math.abs(x), 0);
+            case LANCZOS3 -> Math.abs(x) < 3 ? sinc(x) * sinc(x / 3) : 0;
+        };
+    }
+
+    private static double sinc(double x) {
+        if (x == 0)
+            return 1;
+        x *= Math.PI;
+        return Math.sin(x) / x;
+    }
+
+    public static String[] getNames() {
+        ResizeFilter[] filters = values();
+        String[] names = new String[filters.length];
+        for (int i = 0; i < filters.length; i++)
+            names[i] = filters[i].name;
+        return names;
+    }
+}
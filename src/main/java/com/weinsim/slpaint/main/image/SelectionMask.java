@@ -0,0 +1,179 @@
+package com.weinsim.slpaint.main.image;
+
+/**
+ * A set of pixels of an image, stored as one bit per pixel. Every row starts at
+ * a new {@code long}, so masks of the same size can be combined word by word
+ * and the selected spans of a row can be found without looking at every pixel.
+ * An 8K image needs about 4 MB.
+ */
+public final class SelectionMask {
+
+    public final int width, height;
+
+    private final int wordsPerRow;
+    private final long[] bits;
+
+    /**
+     * Creates an empty mask.
+     */
+    public SelectionMask(int width, int height) {
+        this.width = width;
+        this.height = height;
+
+        wordsPerRow = (width + 63) >> 6;
+        bits = new long[wordsPerRow * height];
+    }
+
+    /**
+     * Creates a mask containing the rectangle {@code (x, y, w, h)}.
+     */
+    public static SelectionMask rectangle(int width, int height, int x, int y, int w, int h) {
+        SelectionMask mask = new SelectionMask(width, height);
+        int x0 = Math.max(x, 0),
+                x1 = Math.min(x + w, width);
+        for (int row = Math.max(y, 0); row < Math.min(y + h, height); row++)
+            mask.setSpan(x0, x1, row);
+        return mask;
+    }
+
+    /**
+     * Adds the pixels {@code [x0, x1) x {y}} to the mask.
+     */
+    void setSpan(int x0, int x1, int y) {
+        if (x0 >= x1)
+            return;
+
+        int rowStart = y * wordsPerRow;
+        int fromWord = rowStart + (x0 >> 6),
+                toWord = rowStart + ((x1 - 1) >> 6);
+        long fromMask = -1L << x0,
+                toMask = -1L >>> -x1;
+        if (fromWord == toWord) {
+            bits[fromWord] |= fromMask & toMask;
+            return;
+        }
+        bits[fromWord] |= fromMask;
+        for (int i = fromWord + 1; i < toWord; i++)
+            bits[i] = -1L;
+        bits[toWord] |= toMask;
+    }
+
+    /**
+     * Calls {@code consumer} for every maximal span of selected pixels of row
+     * {@code y} that lies within {@code [from, to)}, from left to right.
+     */
+    void forEachSpan(int y, int from, int to, FloodFill.SpanConsumer consumer) {
+        int rowStart = y * wordsPerRow;
+        int x = from;
+        while (x < to) {
+            int start = nextBit(rowStart, x, to, true);
+            if (start >= to)
+                return;
+            int end = nextBit(rowStart, start, to, false);
+            consumer.accept(start, end, y);
+            x = end;
+        }
+    }
+
+    /**
+     * @return The first {@code x >= from} whose bit equals {@code value}, or
+     *         {@code to} if there is none before {@code to}
+     */
+    private int nextBit(int rowStart, int from, int to, boolean value) {
+        int wordIndex = from >> 6;
+        long word = bits[rowStart + wordIndex];
+        if (!value)
+            word = ~word;
+        word &= -1L << from;
+        while (true) {
+            if (word != 0)
+                return Math.min((wordIndex << 6) + Long.numberOfTrailingZeros(word), to);
+            wordIndex++;
+            if (wordIndex << 6 >= to)
+                return to;
+            word = bits[rowStart + wordIndex];
+            if (!value)
+                word = ~word;
+        }
+    }
+
+    public boolean contains(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height)
+            return false;
+        return (bits[y * wordsPerRow + (x >> 6)] & (1L << x)) != 0;
+    }
+
+    /**
+     * Adds all pixels of {@code other} to this mask.
+     */
+    public void union(SelectionMask other) {
+        checkSize(other);
+        for (int i = 0; i < bits.length; i++)
+            bits[i] |= other.bits[i];
+    }
+
+    /**
+     * Removes all pixels of {@code other} from this mask.
+     */
+    public void subtract(SelectionMask other) {
+        checkSize(other);
+        for (int i = 0; i < bits.length; i++)
+            bits[i] &= ~other.bits[i];
+    }
+
+    /**
+     * Removes all pixels that are not part of {@code other} from this mask.
+     */
+    public void intersect(SelectionMask other) {
+        checkSize(other);
+        for (int i = 0; i < bits.length; i++)
+            bits[i] &= other.bits[i];
+    }
+
+    private void checkSize(SelectionMask other) {
+        if (other.width != width || other.height != height) {
+            throw new RuntimeException(String.format("Mask sizes don't match: %dx%d and %dx%d",
+                    width, height, other.width, other.height));
+        }
+    }
+
+    /**
+     * @return The bounding box {x, y, width, height} of the selected pixels, or
+     *         {@code null} if the mask is empty
+     */
+    public int[] getBounds() {
+        int minX = Integer.MAX_VALUE, maxX = -1,
+                minY = -1, maxY = -1;
+        for (int y = 0; y < height; y++) {
+            int rowStart = y * wordsPerRow;
+            int first = -1, last = -1;
+            for (int i = 0; i < wordsPerRow; i++) {
+                if (bits[rowStart + i] != 0) {
+                    if (first < 0)
+                        first = i;
+                    last = i;
+                }
+            }
+            if (first < 0)
+                continue;
+
+            if (minY < 0)
+                minY = y;
+            maxY = y;
+            minX = Math.min(minX, (first << 6) + Long.numberOfTrailingZeros(bits[rowStart + first]));
+            maxX = Math.max(maxX, (last << 6) + 63 - Long.numberOfLeadingZeros(bits[rowStart + last]));
+        }
+
+        if (minY < 0)
+            return null;
+        return new int[] { minX, minY, maxX - minX + 1, maxY - minY + 1 };
+    }
+
+    public boolean isEmpty() {
+        for (long word : bits) {
+            if (word != 0)
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,216 @@
+package com.weinsim.slpaint.main.image;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Resizes a {@link TileGrid} with a {@link ResizeFilter} in two separable
+ * passes: first every row is resampled to the new width, then every column to
+ * the new height. Like in {@link Resampler}, filtering happens with
+ * premultiplied alpha, and bands of destination tile rows are processed in
+ * parallel on the common {@link ForkJoinPool}.
+ */
+final class SeparableResampler extends RecursiveAction {
+
+    /**
+     * Bands with at most this many tile rows are not split any further.
+     */
+    private static final int MAX_BAND_SIZE = 1;
+
+    private final TileGrid src, dst;
+    private final Taps taps;
+    /**
+     * Wether this pass resamples the rows (instead of the columns) of
+     * {@code src}
+     */
+    private final boolean horizontal;
+    private final int startTileY, endTileY;
+
+    private SeparableResampler(TileGrid src, TileGrid dst, Taps taps, boolean horizontal, int startTileY,
+            int endTileY) {
+        this.src = src;
+        this.dst = dst;
+        this.taps = taps;
+        this.horizontal = horizontal;
+        this.startTileY = startTileY;
+        this.endTileY = endTileY;
+    }
+
+    /**
+     * @return A new grid containing {@code src} resized to {@code newWidth} x
+     *         {@code newHeight}
+     */
+    static TileGrid resize(TileGrid src, int newWidth, int newHeight, ResizeFilter filter) {
+        TileGrid result = src;
+        if (newWidth != src.width)
+            result = resamplePass(result, new TileGrid(newWidth, src.height, 0),
+                    new Taps(src.width, newWidth, filter), true);
+        if (newHeight != src.height)
+            result = resamplePass(result, new TileGrid(newWidth, newHeight, 0),
+                    new Taps(src.height, newHeight, filter), false);
+        return result != src ? result : src.copy();
+    }
+
+    private static TileGrid resamplePass(TileGrid src, TileGrid dst, Taps taps, boolean horizontal) {
+        ForkJoinPool.commonPool().invoke(new SeparableResampler(src, dst, taps, horizontal, 0, dst.numTilesY));
+        return dst;
+    }
+
+    @Override
+    protected void compute() {
+        if (endTileY - startTileY > MAX_BAND_SIZE) {
+            int middle = (startTileY + endTileY) >>> 1;
+            invokeAll(new SeparableResampler(src, dst, taps, horizontal, startTileY, middle),
+                    new SeparableResampler(src, dst, taps, horizontal, middle, endTileY));
+            return;
+        }
+
+        int y0 = startTileY << TileGrid.TILE_SHIFT,
+                y1 = Math.min(endTileY << TileGrid.TILE_SHIFT, dst.height);
+        if (horizontal)
+            resampleRows(y0, y1);
+        else
+            resampleColumns(y0, y1);
+    }
+
+    private void resampleRows(int y0, int y1) {
+        int[] srcRow = new int[src.width],
+                dstRow = new int[dst.width];
+        for (int y = y0; y < y1; y++) {
+            src.readRow(0, y, src.width, srcRow, 0);
+
+            for (int x = 0; x < dst.width; x++) {
+                int start = taps.start[x];
+                if (taps.count[x] == 1) {
+                    // the (normalized) weight is 1
+                    dstRow[x] = srcRow[start];
+                    continue;
+                }
+                int weightOffset = x * taps.stride;
+
+                double a = 0, r = 0, g = 0, b = 0;
+                for (int i = 0; i < taps.count[x]; i++) {
+                    int color = srcRow[start + i];
+                    double wa = taps.weights[weightOffset + i] * (color >>> 24);
+                    a += wa;
+                    r += wa * ((color >> 16) & 0xFF);
+                    g += wa * ((color >> 8) & 0xFF);
+                    b += wa * (color & 0xFF);
+                }
+                dstRow[x] = Resampler.toColor(a, r, g, b, 1);
+            }
+
+            dst.writeRow(0, y, dst.width, dstRow, 0);
+        }
+    }
+
+    private void resampleColumns(int y0, int y1) {
+        int width = dst.width;
+        int[] srcRow = new int[width],
+                dstRow = new int[width];
+        // premultiplied a, r, g, b of every pixel of the current row
+        double[] sums = new double[4 * width];
+        for (int y = y0; y < y1; y++) {
+            int start = taps.start[y];
+            if (taps.count[y] == 1) {
+                src.readRow(0, start, width, dstRow, 0);
+                dst.writeRow(0, y, width, dstRow, 0);
+                continue;
+            }
+
+            Arrays.fill(sums, 0);
+            int weightOffset = y * taps.stride;
+            for (int i = 0; i < taps.count[y]; i++) {
+                double w = taps.weights[weightOffset + i];
+                src.readRow(0, start + i, width, srcRow, 0);
+                for (int x = 0; x < width; x++) {
+                    int color = srcRow[x];
+                    double wa = w * (color >>> 24);
+                    sums[4 * x] += wa;
+                    sums[4 * x + 1] += wa * ((color >> 16) & 0xFF);
+                    sums[4 * x + 2] += wa * ((color >> 8) & 0xFF);
+                    sums[4 * x + 3] += wa * (color & 0xFF);
+                }
+            }
+
+            for (int x = 0; x < width; x++)
+                dstRow[x] = Resampler.toColor(sums[4 * x], sums[4 * x + 1], sums[4 * x + 2], sums[4 * x + 3], 1);
+            dst.writeRow(0, y, width, dstRow, 0);
+        }
+    }
+
+    /**
+     * The source pixels (and their normalized weights) that contribute to every
+     * pixel along one axis of the result
+     */
+    private static final class Taps {
+
+        final int[] start, count;
+        /**
+         * The weights of output pixel {@code i} start at {@code i * stride}.
+         */
+        final double[] weights;
+        final int stride;
+
+        Taps(int inSize, int outSize, ResizeFilter filter) {
+            start = new int[outSize];
+            count = new int[outSize];
+
+            double scale = (double) inSize / outSize;
+            if (filter == ResizeFilter.NEAREST) {
+                stride = 1;
+                weights = new double[outSize];
+                for (int i = 0; i < outSize; i++) {
+                    start[i] = Math.min((int) ((i + 0.5) * scale), inSize - 1);
+                    count[i] = 1;
+                    weights[i] = 1;
+                }
+                return;
+            }
+
+            // stretch the filter when downscaling
+            double filterScale = Math.max(scale, 1);
+            double support = filter.support * filterScale;
+            stride = (int) Math.ceil(support) * 2 + 1;
+            weights = new double[outSize * stride];
+
+            for (int i = 0; i < outSize; i++) {
+                double center = (i + 0.5) * scale;
+                // the area of the output pixel in source pixels, for BOX
+                double left = i * scale, right = left + scale;
+                int min, max;
+                if (filter == ResizeFilter.BOX) {
+                    min = (int) left;
+                    max = Math.min((int) Math.ceil(right), inSize);
+                } else {
+                    min = Math.max((int) Math.floor(center - support + 0.5), 0);
+                    max = Math.min((int) Math.floor(center + support + 0.5), inSize);
+                }
+                max = Math.min(max, min + stride);
+
+                double sum = 0;
+                for (int j = min; j < max; j++) {
+                    double w = filter == ResizeFilter.BOX
+                            ? Math.max(Math.min(j + 1, right) - Math.max(j, left), 0)
+                            : filter.weight((j + 0.5 - center) / filterScale);
+                    weights[i * stride + j - min] = w;
+                    sum += w;
+                }
+
+                if (sum == 0) {
+                    // e.g. if a box lies exactly between two pixels, use the nearest one
+                    start[i] = Math.min((int) center, inSize - 1);
+                    count[i] = 1;
+                    weights[i * stride] = 1;
+                    continue;
+                }
+
+                start[i] = min;
+                count[i] = max - min;
+                for (int j = 0; j < count[i]; j++)
+                    weights[i * stride + j] /= sum;
+            }
+        }
+    }
+}
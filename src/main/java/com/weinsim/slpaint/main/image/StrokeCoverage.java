@@ -0,0 +1,80 @@
+package com.weinsim.slpaint.main.image;
+
+/**
+ * The pixels that have already been drawn by the current pencil stroke (see
+ * {@link Image#beginStroke()}). Strokes are aliased, so the coverage of a pixel
+ * is either 0 or 1 and combining overlapping segments (maximum, not sum) is a
+ * simple OR. The bits are stored per tile of the image and only allocated for
+ * tiles that the stroke actually touches.
+ */
+final class StrokeCoverage {
+
+    private final int numTilesX;
+    private final long[][] tiles;
+
+    StrokeCoverage(int width, int height) {
+        numTilesX = (width + TileGrid.TILE_MASK) >> TileGrid.TILE_SHIFT;
+        int numTilesY = (height + TileGrid.TILE_MASK) >> TileGrid.TILE_SHIFT;
+        tiles = new long[numTilesX * numTilesY][];
+    }
+
+    /**
+     * Marks the pixels in {@code [x0, x1) x {y}} as covered by the stroke.
+     */
+    void cover(int x0, int x1, int y) {
+        int rowIndex = (y >> TileGrid.TILE_SHIFT) * numTilesX;
+        int rowBit = (y & TileGrid.TILE_MASK) << TileGrid.TILE_SHIFT;
+        for (int x = x0; x < x1;) {
+            int index = rowIndex + (x >> TileGrid.TILE_SHIFT);
+            long[] tile = tiles[index];
+            if (tile == null) {
+                tile = new long[TileGrid.TILE_AREA >> 6];
+                tiles[index] = tile;
+            }
+
+            // the bits of [x, wordEnd) are in the same long
+            int bit = rowBit | (x & TileGrid.TILE_MASK);
+            int wordEnd = Math.min(x1, (x | 63) + 1);
+            tile[bit >> 6] |= (-1L >>> (64 - (wordEnd - x))) << bit;
+            x = wordEnd;
+        }
+    }
+
+    /**
+     * @return The first pixel in {@code [x, end) x {y}} that isn't covered by
+     *         the stroke, or {@code end} if there is none
+     */
+    int nextUncovered(int x, int end, int y) {
+        return next(x, end, y, false);
+    }
+
+    /**
+     * @return The first pixel in {@code [x, end) x {y}} that is covered by the
+     *         stroke, or {@code end} if there is none
+     */
+    int nextCovered(int x, int end, int y) {
+        return next(x, end, y, true);
+    }
+
+    private int next(int x, int end, int y, boolean covered) {
+        int rowIndex = (y >> TileGrid.TILE_SHIFT) * numTilesX;
+        int rowBit = (y & TileGrid.TILE_MASK) << TileGrid.TILE_SHIFT;
+        while (x < end) {
+            long[] tile = tiles[rowIndex + (x >> TileGrid.TILE_SHIFT)];
+            if (tile == null) {
+                if (!covered)
+                    return x;
+                x = (x | TileGrid.TILE_MASK) + 1;
+                continue;
+            }
+
+            int bit = rowBit | (x & TileGrid.TILE_MASK);
+            long word = covered ? tile[bit >> 6] : ~tile[bit >> 6];
+            word >>>= bit;
+            if (word != 0)
+                return Math.min(end, x + Long.numberOfTrailingZeros(word));
+            x = (x | 63) + 1;
+        }
+        return end;
+    }
+}
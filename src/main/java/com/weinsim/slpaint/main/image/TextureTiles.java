@@ -0,0 +1,495 @@
+package com.weinsim.slpaint.main.image;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.*;
+import static org.lwjgl.opengl.GL30.*;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import org.lwjgl.BufferUtils;
+
+import com.weinsim.slpaint.renderengine.Cleanable;
+
+/**
+ * The OpenGL textures of an {@link Image}. Instead of one texture for the
+ * whole image (which fails for images larger than the maximum texture size of
+ * the driver), the image is split into square textures of
+ * {@code TEXTURE_SIZE} pixels.
+ *
+ * <p>
+ * Textures are only created for the parts of the image that are actually
+ * drawn, at a level of detail matching the zoom: at level {@code l}, every
+ * texture covers {@code TEXTURE_SIZE << l} pixels of the image (box filtered
+ * down to {@code TEXTURE_SIZE}). Textures that haven't been drawn for a while
+ * are deleted again, so the GPU memory in use depends on the size of the
+ * viewport instead of the size of the image.
+ * </p>
+ *
+ * <p>
+ * A texture of a coarse level averages {@code 4^l} times as many image pixels
+ * as it has, so it is filled a few rows per frame, with at most
+ * {@code BUILD_BUDGET} image pixels per frame in total. Until a texture is
+ * complete, its area is drawn with the textures of the next finer level if they
+ * all exist (e.g. right after zooming out), or else with the texture of the next
+ * coarser level if that one is complete.
+ * </p>
+ */
+final class TextureTiles implements Cleanable {
+
+    /**
+     * Width and height of every texture in pixels. A multiple of
+     * {@link TileGrid#TILE_SIZE} and well below the maximum texture size of any
+     * driver.
+     */
+    static final int TEXTURE_SIZE = 2048;
+
+    /**
+     * Textures that haven't been drawn for this many frames are deleted.
+     */
+    private static final int MAX_UNUSED_FRAMES = 120;
+    /**
+     * The number of image pixels that are averaged into textures of coarse
+     * levels per frame (an area of 2048 x 2048 pixels)
+     */
+    private static final long BUILD_BUDGET = 1 << 22;
+
+    /**
+     * Used for uploading the pixels to the GPU one tile at a time. Only ever
+     * accessed from the main thread.
+     */
+    private static IntBuffer uploadBuffer;
+
+    private final int width, height;
+    /**
+     * {@code levels[l][ty * getNumTilesX(l) + tx]} is the texture at level of
+     * detail {@code l}, or {@code null} if it doesn't exist
+     */
+    private final Texture[][] levels;
+    private int frame = 0;
+    /**
+     * The number of image pixels that can still be averaged in this frame
+     */
+    private long buildBudget = BUILD_BUDGET;
+
+    TextureTiles(int width, int height) {
+        this.width = width;
+        this.height = height;
+
+        int numLevels = 1;
+        while ((long) TEXTURE_SIZE << (numLevels - 1) < Math.max(width, height))
+            numLevels++;
+        levels = new Texture[numLevels][];
+        for (int level = 0; level < numLevels; level++)
+            levels[level] = new Texture[getNumTilesX(level) * getNumTilesY(level)];
+    }
+
+    private int getNumTilesX(int level) {
+        int span = TEXTURE_SIZE << level;
+        return (width + span - 1) / span;
+    }
+
+    private int getNumTilesY(int level) {
+        int span = TEXTURE_SIZE << level;
+        return (height + span - 1) / span;
+    }
+
+    /**
+     * Calls {@code action} for every texture that covers a part of the image
+     * that {@code visible} accepts, creating the texture if necessary. The
+     * level of detail is chosen such that the textures are never shrunk by more
+     * than a factor of 2. Parts whose texture isn't complete yet are drawn with
+     * a finer or coarser level instead, if possible.
+     *
+     * @param zoom The number of screen pixels per image pixel
+     */
+    void forEach(TileGrid grid, double zoom, Image.RegionPredicate visible, Image.TextureConsumer action) {
+        int level = 0;
+        while (level < levels.length - 1 && zoom * (2 << level) <= 1)
+            level++;
+
+        final int span = TEXTURE_SIZE << level;
+        int numTilesX = getNumTilesX(level),
+                numTilesY = getNumTilesY(level);
+        // the textures of the next coarser level that are drawn instead of all of
+        // their children, because one of them is incomplete
+        boolean[] drawParent = null;
+        for (int ty = 0; ty < numTilesY; ty++) {
+            for (int tx = 0; tx < numTilesX; tx++) {
+                int x = tx * span, y = ty * span;
+                if (!visible.test(x, y, Math.min(span, width - x), Math.min(span, height - y)))
+                    continue;
+
+                Texture texture = getTexture(grid, level, tx, ty);
+                buildBudget -= texture.build(grid, buildBudget);
+                if (texture.isComplete() || level == levels.length - 1 || hasCompleteChildren(level, tx, ty, visible))
+                    continue;
+
+                int parentIndex = getParentIndex(level, tx, ty);
+                Texture parent = levels[level + 1][parentIndex];
+                if (parent != null && parent.isComplete()) {
+                    if (drawParent == null)
+                        drawParent = new boolean[levels[level + 1].length];
+                    drawParent[parentIndex] = true;
+                }
+            }
+        }
+
+        for (int ty = 0; ty < numTilesY; ty++) {
+            for (int tx = 0; tx < numTilesX; tx++) {
+                int x = tx * span, y = ty * span;
+                if (!visible.test(x, y, Math.min(span, width - x), Math.min(span, height - y)))
+                    continue;
+                if (drawParent != null && drawParent[getParentIndex(level, tx, ty)])
+                    continue;
+
+                Texture texture = levels[level][ty * numTilesX + tx];
+                if (texture.isComplete()) {
+                    draw(texture, zoom, action);
+                } else if (hasCompleteChildren(level, tx, ty, visible)) {
+                    forEachVisibleChild(level, tx, ty, visible, child -> draw(child, zoom, action));
+                }
+                // otherwise the area stays empty until the texture is complete
+            }
+        }
+
+        if (drawParent != null) {
+            for (int i = 0; i < drawParent.length; i++) {
+                if (drawParent[i])
+                    draw(levels[level + 1][i], zoom, action);
+            }
+        }
+    }
+
+    private void draw(Texture texture, double zoom, Image.TextureConsumer action) {
+        if (zoom * (1 << texture.level) < 1)
+            texture.updateMipmaps();
+        texture.lastUsed = frame;
+        action.accept(texture.textureID, texture.x, texture.y, texture.width, texture.height);
+    }
+
+    private int getParentIndex(int level, int tx, int ty) {
+        return (ty >> 1) * getNumTilesX(level + 1) + (tx >> 1);
+    }
+
+    /**
+     * Calls {@code action} for the textures of level {@code level - 1} that
+     * cover the visible parts of the texture at {@code (tx, ty)} of level
+     * {@code level}. They must exist (see
+     * {@link TextureTiles#hasCompleteChildren}).
+     */
+    private void forEachVisibleChild(int level, int tx, int ty, Image.RegionPredicate visible,
+            Consumer<Texture> action) {
+        final int childSpan = TEXTURE_SIZE << (level - 1);
+        int numChildrenX = getNumTilesX(level - 1),
+                numChildrenY = getNumTilesY(level - 1);
+        for (int cy = 2 * ty; cy < Math.min(2 * ty + 2, numChildrenY); cy++) {
+            for (int cx = 2 * tx; cx < Math.min(2 * tx + 2, numChildrenX); cx++) {
+                int x = cx * childSpan, y = cy * childSpan;
+                if (visible.test(x, y, Math.min(childSpan, width - x), Math.min(childSpan, height - y)))
+                    action.accept(levels[level - 1][cy * numChildrenX + cx]);
+            }
+        }
+    }
+
+    /**
+     * @return Wether all textures of level {@code level - 1} that cover the
+     *         visible parts of the texture at {@code (tx, ty)} of level
+     *         {@code level} exist and are complete
+     */
+    private boolean hasCompleteChildren(int level, int tx, int ty, Image.RegionPredicate visible) {
+        if (level == 0)
+            return false;
+
+        final int childSpan = TEXTURE_SIZE << (level - 1);
+        int numChildrenX = getNumTilesX(level - 1),
+                numChildrenY = getNumTilesY(level - 1);
+        for (int cy = 2 * ty; cy < Math.min(2 * ty + 2, numChildrenY); cy++) {
+            for (int cx = 2 * tx; cx < Math.min(2 * tx + 2, numChildrenX); cx++) {
+                int x = cx * childSpan, y = cy * childSpan;
+                if (!visible.test(x, y, Math.min(childSpan, width - x), Math.min(childSpan, height - y)))
+                    continue;
+                Texture child = levels[level - 1][cy * numChildrenX + cx];
+                if (child == null || !child.isComplete())
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The texture of the whole image, which must not be larger than
+     *         {@code TEXTURE_SIZE}
+     */
+    int getSingleTexture(TileGrid grid) {
+        if (width > TEXTURE_SIZE || height > TEXTURE_SIZE) {
+            String message = String.format("Image is too large for a single texture (%d x %d)", width, height);
+            throw new RuntimeException(message);
+        }
+        return getTexture(grid, 0, 0, 0).textureID;
+    }
+
+    private Texture getTexture(TileGrid grid, int level, int tx, int ty) {
+        int index = ty * getNumTilesX(level) + tx;
+        Texture texture = levels[level][index];
+        if (texture == null) {
+            texture = new Texture(grid, level, tx, ty);
+            levels[level][index] = texture;
+        }
+        texture.lastUsed = frame;
+        return texture;
+    }
+
+    /**
+     * Copies the area {@code [x, x + w) x [y, y + h)} of {@code grid} into all
+     * existing textures that cover it.
+     */
+    void update(TileGrid grid, int x, int y, int w, int h) {
+        for (int level = 0; level < levels.length; level++) {
+            final int span = TEXTURE_SIZE << level;
+            int numTilesX = getNumTilesX(level);
+            for (int ty = y / span; ty <= (y + h - 1) / span; ty++) {
+                for (int tx = x / span; tx <= (x + w - 1) / span; tx++) {
+                    Texture texture = levels[level][ty * numTilesX + tx];
+                    if (texture == null)
+                        continue;
+
+                    // the rows that haven't been built yet will be read later anyway
+                    int y0 = Math.max(y, texture.y),
+                            y1 = Math.min(y + h, texture.getCompleteY());
+                    if (y0 >= y1)
+                        continue;
+
+                    glBindTexture(GL_TEXTURE_2D, texture.textureID);
+                    texture.upload(grid, Math.max(x, texture.x), y0, Math.min(x + w, texture.x + texture.width), y1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Advances the frame counter and deletes all textures that haven't been
+     * drawn for {@code MAX_UNUSED_FRAMES} frames.
+     */
+    void nextFrame() {
+        frame++;
+        buildBudget = BUILD_BUDGET;
+        for (Texture[] level : levels) {
+            for (int i = 0; i < level.length; i++) {
+                if (level[i] != null && frame - level[i].lastUsed > MAX_UNUSED_FRAMES) {
+                    glDeleteTextures(level[i].textureID);
+                    level[i] = null;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void cleanUp() {
+        for (Texture[] level : levels) {
+            for (Texture texture : level) {
+                if (texture != null)
+                    glDeleteTextures(texture.textureID);
+            }
+            Arrays.fill(level, null);
+        }
+    }
+
+    private static final class Texture {
+
+        final int textureID;
+        final int level;
+        /**
+         * The area of the image that this texture covers
+         */
+        final int x, y, width, height;
+        final int textureHeight;
+        /**
+         * The number of rows of the texture that have been filled (see
+         * {@link Texture#build})
+         */
+        int completeRows;
+        int lastUsed;
+        /**
+         * Wether the texture has changed since its mipmaps were last generated.
+         * While they are stale, only the base level of the texture is used.
+         */
+        boolean mipmapsStale;
+
+        Texture(TileGrid grid, int level, int tx, int ty) {
+            this.level = level;
+            int span = TEXTURE_SIZE << level;
+            x = tx * span;
+            y = ty * span;
+            width = Math.min(span, grid.width - x);
+            height = Math.min(span, grid.height - y);
+
+            textureHeight = (height + (1 << level) - 1) >> level;
+
+            textureID = glGenTextures();
+            glBindTexture(GL_TEXTURE_2D, textureID);
+            glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+            glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, (width + (1 << level) - 1) >> level, textureHeight, 0,
+                    GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, (IntBuffer) null);
+            // coarser levels are filled by build()
+            if (level == 0) {
+                upload(grid, x, y, x + width, y + height);
+                completeRows = textureHeight;
+            }
+        }
+
+        boolean isComplete() {
+            return completeRows == textureHeight;
+        }
+
+        /**
+         * @return The end of the area of the image that has been filled into this
+         *         texture (which starts at {@code y})
+         */
+        int getCompleteY() {
+            return Math.min(y + (completeRows << level), y + height);
+        }
+
+        /**
+         * Fills the next rows of an incomplete texture, averaging at most
+         * {@code budget} image pixels (but at least one row if the budget is
+         * positive).
+         *
+         * @return The number of image pixels that were averaged
+         */
+        long build(TileGrid grid, long budget) {
+            if (isComplete() || budget <= 0)
+                return 0;
+
+            long rowCost = (long) width << level;
+            int rows = (int) Math.min(Math.max(budget / rowCost, 1), textureHeight - completeRows);
+            int y0 = getCompleteY();
+            completeRows += rows;
+
+            glBindTexture(GL_TEXTURE_2D, textureID);
+            upload(grid, x, y0, x + width, getCompleteY());
+            return rows * rowCost;
+        }
+
+        /**
+         * Uploads the area {@code [x0, x1) x [y0, y1)} of the image to this
+         * (already bound) texture.
+         */
+        void upload(TileGrid grid, int x0, int y0, int x1, int y1) {
+            if (uploadBuffer == null)
+                uploadBuffer = BufferUtils.createIntBuffer(TileGrid.TILE_AREA);
+
+            if (level == 0)
+                uploadArea(grid, x0, y0, x1, y1);
+            else
+                uploadDownscaledArea(grid, x0, y0, x1, y1);
+
+            // the base level is complete on its own, the other levels are only used
+            // again once they are regenerated
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, 0);
+            mipmapsStale = true;
+        }
+
+        /**
+         * Uploads the area one tile of {@code grid} at a time.
+         */
+        private void uploadArea(TileGrid grid, int x0, int y0, int x1, int y1) {
+            final int shift = TileGrid.TILE_SHIFT;
+            for (int ty = y0 >> shift; ty <= (y1 - 1) >> shift; ty++) {
+                int tileY0 = Math.max(y0, ty << shift),
+                        tileY1 = Math.min(y1, (ty + 1) << shift);
+                for (int tx = x0 >> shift; tx <= (x1 - 1) >> shift; tx++) {
+                    int tileX0 = Math.max(x0, tx << shift),
+                            tileX1 = Math.min(x1, (tx + 1) << shift);
+                    int w = tileX1 - tileX0,
+                            h = tileY1 - tileY0;
+
+                    int index = ty * grid.numTilesX + tx;
+                    int[] tile = grid.tiles[index];
+
+                    uploadBuffer.clear();
+                    if (tile == null) {
+                        int color = grid.tileColors[index];
+                        for (int i = w * h; i > 0; i--)
+                            uploadBuffer.put(color);
+                    } else {
+                        for (int y = tileY0; y < tileY1; y++)
+                            uploadBuffer.put(tile, ((y & TileGrid.TILE_MASK) << shift) + (tileX0 & TileGrid.TILE_MASK),
+                                    w);
+                    }
+                    uploadBuffer.flip();
+
+                    glTexSubImage2D(GL_TEXTURE_2D, 0, tileX0 - x, tileY0 - y, w, h, GL_BGRA,
+                            GL_UNSIGNED_INT_8_8_8_8_REV, uploadBuffer);
+                }
+            }
+        }
+
+        /**
+         * Uploads the averages of all blocks of {@code 1 << level} x
+         * {@code 1 << level} pixels that intersect the area, a few rows of blocks
+         * at a time.
+         */
+        private void uploadDownscaledArea(TileGrid grid, int x0, int y0, int x1, int y1) {
+            int factor = 1 << level;
+            // in texture pixels
+            int blockX0 = (x0 - x) >> level,
+                    blockY0 = (y0 - y) >> level,
+                    blockX1 = ((x1 - x - 1) >> level) + 1,
+                    blockY1 = ((y1 - y - 1) >> level) + 1;
+            int numBlocks = blockX1 - blockX0;
+
+            int srcX0 = x + (blockX0 << level),
+                    srcX1 = Math.min(x + (blockX1 << level), x + width);
+            int[] srcRow = new int[srcX1 - srcX0];
+            long[] sums = new long[4 * numBlocks];
+
+            int rowsPerUpload = Math.max(TileGrid.TILE_AREA / numBlocks, 1);
+            for (int uploadY0 = blockY0; uploadY0 < blockY1; uploadY0 += rowsPerUpload) {
+                int uploadY1 = Math.min(uploadY0 + rowsPerUpload, blockY1);
+
+                uploadBuffer.clear();
+                for (int blockY = uploadY0; blockY < uploadY1; blockY++) {
+                    Arrays.fill(sums, 0);
+                    int srcY0 = y + (blockY << level),
+                            srcY1 = Math.min(srcY0 + factor, y + height);
+                    for (int srcY = srcY0; srcY < srcY1; srcY++) {
+                        grid.readRow(srcX0, srcY, srcRow.length, srcRow, 0);
+                        for (int i = 0; i < srcRow.length; i++) {
+                            int color = srcRow[i];
+                            int alpha = color >>> 24;
+                            int j = 4 * (i >> level);
+                            sums[j] += alpha;
+                            sums[j + 1] += alpha * ((color >> 16) & 0xFF);
+                            sums[j + 2] += alpha * ((color >> 8) & 0xFF);
+                            sums[j + 3] += alpha * (color & 0xFF);
+                        }
+                    }
+
+                    for (int i = 0; i < numBlocks; i++) {
+                        int blockWidth = Math.min(factor, srcRow.length - (i << level));
+                        uploadBuffer.put(Resampler.averageColor(sums, 4 * i, (long) blockWidth * (srcY1 - srcY0)));
+                    }
+                }
+                uploadBuffer.flip();
+
+                glTexSubImage2D(GL_TEXTURE_2D, 0, blockX0, uploadY0, numBlocks, uploadY1 - uploadY0, GL_BGRA,
+                        GL_UNSIGNED_INT_8_8_8_8_REV, uploadBuffer);
+            }
+        }
+
+        /**
+         * Regenerates the mipmaps of this texture if they are stale.
+         */
+        void updateMipmaps() {
+            if (!mipmapsStale)
+                return;
+
+            glBindTexture(GL_TEXTURE_2D, textureID);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, 1000);
+            glGenerateMipmap(GL_TEXTURE_2D);
+            mipmapsStale = false;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.weinsim.slpaint.main.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Pixel storage of an {@link Image}. The pixels are split into square tiles of
+ * {@code TILE_SIZE} x {@code TILE_SIZE} pixels that are only allocated once
+ * they contain more than a single color. Uniform tiles (e.g. the background of
+ * a new image) don't cost anything besides one entry in {@code tileColors}.
+ *
+ * <p>
+ * Tile arrays can be shared between multiple grids (see
+ * {@link TileGrid#copy()}). Shared tiles are copied before they are modified
+ * (copy on write), so sharing a tile is always safe.
+ * </p>
+ *
+ * <p>
+ * Pixels of edge tiles that lie outside of the grid are undefined.
+ * </p>
+ */
+final class TileGrid {
+
+    static final int TILE_SHIFT = 8;
+    static final int TILE_SIZE = 1 << TILE_SHIFT;
+    static final int TILE_MASK = TILE_SIZE - 1;
+    static final int TILE_AREA = TILE_SIZE * TILE_SIZE;
+
+    final int width, height;
+    final int numTilesX, numTilesY;
+
+    /**
+     * Row-major grid of tiles. A {@code null} entry means that all pixels of the
+     * tile have the color stored in {@code tileColors}.
+     */
+    final int[][] tiles;
+    final int[] tileColors;
+    /**
+     * Tiles whose array might also be referenced by another {@code TileGrid}.
+     */
+    final boolean[] shared;
+
+    TileGrid(int width, int height, int color) {
+        this.width = width;
+        this.height = height;
+
+        numTilesX = (width + TILE_MASK) >> TILE_SHIFT;
+        numTilesY = (height + TILE_MASK) >> TILE_SHIFT;
+        int numTiles = numTilesX * numTilesY;
+
+        tiles = new int[numTiles][];
+        tileColors = new int[numTiles];
+        shared = new boolean[numTiles];
+
+        Arrays.fill(tileColors, color);
+    }
+
+    /**
+     * Creates a copy of this grid. The tile arrays themselves are shared and only
+     * copied once either of the two grids modifies them.
+     */
+    TileGrid copy() {
+        TileGrid copy = new TileGrid(width, height, 0);
+        for (int i = 0; i < tiles.length; i++)
+            copy.shareTile(i, this, i);
+        return copy;
+    }
+
+    void shareTile(int index, TileGrid src, int srcIndex) {
+        int[] tile = src.tiles[srcIndex];
+        tiles[index] = tile;
+        tileColors[index] = src.tileColors[srcIndex];
+        shared[index] = tile != null;
+        if (tile != null)
+            src.shared[srcIndex] = true;
+    }
+
+    int get(int x, int y) {
+        int index = (y >> TILE_SHIFT) * numTilesX + (x >> TILE_SHIFT);
+        int[] tile = tiles[index];
+        return tile == null ? tileColors[index] : tile[((y & TILE_MASK) << TILE_SHIFT) | (x & TILE_MASK)];
+    }
+
+    void set(int x, int y, int color) {
+        int index = (y >> TILE_SHIFT) * numTilesX + (x >> TILE_SHIFT);
+        if (tiles[index] == null && tileColors[index] == color)
+            return;
+        writableTile(index)[((y & TILE_MASK) << TILE_SHIFT) | (x & TILE_MASK)] = color;
+    }
+
+    /**
+     * Returns the array of the given tile, allocating or copying it if necessary.
+     * The returned array can safely be modified.
+     */
+    int[] writableTile(int index) {
+        int[] tile = tiles[index];
+        if (tile == null) {
+            tile = new int[TILE_AREA];
+            Arrays.fill(tile, tileColors[index]);
+        } else if (shared[index]) {
+            tile = tile.clone();
+        } else {
+            return tile;
+        }
+        tiles[index] = tile;
+        shared[index] = false;
+        return tile;
+    }
+
+    /**
+     * Same as {@link TileGrid#writableTile(int)}, except that the contents of the
+     * returned array are undefined. Only to be used if all (in-bounds) pixels of
+     * the tile are going to be overwritten.
+     */
+    private int[] overwritableTile(int index) {
+        if (tiles[index] == null || shared[index]) {
+            tiles[index] = new int[TILE_AREA];
+            shared[index] = false;
+        }
+        return tiles[index];
+    }
+
+    void readRow(int x, int y, int len, int[] dst, int offset) {
+        final int end = x + len;
+        final int tileRow = (y >> TILE_SHIFT) * numTilesX;
+        final int rowOffset = (y & TILE_MASK) << TILE_SHIFT;
+        while (x < end) {
+            int tileEnd = Math.min((x | TILE_MASK) + 1, end);
+            int index = tileRow + (x >> TILE_SHIFT);
+            int[] tile = tiles[index];
+            if (tile == null)
+                Arrays.fill(dst, offset, offset + tileEnd - x, tileColors[index]);
+            else
+                System.arraycopy(tile, rowOffset + (x & TILE_MASK), dst, offset, tileEnd - x);
+            offset += tileEnd - x;
+            x = tileEnd;
+        }
+    }
+
+    void writeRow(int x, int y, int len, int[] src, int offset) {
+        final int end = x + len;
+        final int tileRow = (y >> TILE_SHIFT) * numTilesX;
+        final int rowOffset = (y & TILE_MASK) << TILE_SHIFT;
+        while (x < end) {
+            int tileEnd = Math.min((x | TILE_MASK) + 1, end);
+            int index = tileRow + (x >> TILE_SHIFT);
+            // writing the tile's own color into a uniform tile changes nothing
+            if (tiles[index] != null || !isUniform(src, offset, tileEnd - x, tileColors[index])) {
+                int[] tile = writableTile(index);
+                System.arraycopy(src, offset, tile, rowOffset + (x & TILE_MASK), tileEnd - x);
+            }
+            offset += tileEnd - x;
+            x = tileEnd;
+        }
+    }
+
+    private static boolean isUniform(int[] pixels, int offset, int len, int color) {
+        for (int i = offset; i < offset + len; i++) {
+            if (pixels[i] != color)
+                return false;
+        }
+        return true;
+    }
+
+    void fillRow(int x, int y, int len, int color) {
+        final int end = x + len;
+        final int tileRow = (y >> TILE_SHIFT) * numTilesX;
+        final int rowOffset = (y & TILE_MASK) << TILE_SHIFT;
+        while (x < end) {
+            int tileEnd = Math.min((x | TILE_MASK) + 1, end);
+            int index = tileRow + (x >> TILE_SHIFT);
+            if (tiles[index] != null || tileColors[index] != color) {
+                int from = rowOffset + (x & TILE_MASK);
+                Arrays.fill(writableTile(index), from, from + tileEnd - x, color);
+            }
+            x = tileEnd;
+        }
+    }
+
+    void read(int x, int y, int w, int h, int[] dst, int offset, int stride) {
+        for (int row = 0; row < h; row++)
+            readRow(x, y + row, w, dst, offset + row * stride);
+    }
+
+    void write(int x, int y, int w, int h, int[] src, int offset, int stride) {
+        if (w <= 0 || h <= 0)
+            return;
+
+        for (int ty = y >> TILE_SHIFT; ty <= (y + h - 1) >> TILE_SHIFT; ty++) {
+            int y0 = Math.max(y, ty << TILE_SHIFT),
+                    y1 = Math.min(y + h, (ty + 1) << TILE_SHIFT);
+            for (int tx = x >> TILE_SHIFT; tx <= (x + w - 1) >> TILE_SHIFT; tx++) {
+                int x0 = Math.max(x, tx << TILE_SHIFT),
+                        x1 = Math.min(x + w, (tx + 1) << TILE_SHIFT);
+                int index = ty * numTilesX + tx;
+                int[] tile = covers(tx, ty, x0, y0, x1, y1) ? overwritableTile(index) : writableTile(index);
+                for (int row = y0; row < y1; row++) {
+                    System.arraycopy(src, offset + (row - y) * stride + (x0 - x),
+                            tile, ((row & TILE_MASK) << TILE_SHIFT) + (x0 & TILE_MASK),
+                            x1 - x0);
+                }
+            }
+        }
+    }
+
+    void fill(int x, int y, int w, int h, int color) {
+        if (w <= 0 || h <= 0)
+            return;
+
+        for (int ty = y >> TILE_SHIFT; ty <= (y + h - 1) >> TILE_SHIFT; ty++) {
+            int y0 = Math.max(y, ty << TILE_SHIFT),
+                    y1 = Math.min(y + h, (ty + 1) << TILE_SHIFT);
+            for (int tx = x >> TILE_SHIFT; tx <= (x + w - 1) >> TILE_SHIFT; tx++) {
+                int x0 = Math.max(x, tx << TILE_SHIFT),
+                        x1 = Math.min(x + w, (tx + 1) << TILE_SHIFT);
+                int index = ty * numTilesX + tx;
+                if (covers(tx, ty, x0, y0, x1, y1)) {
+                    // the whole tile becomes uniform => no array needed
+                    tiles[index] = null;
+                    tileColors[index] = color;
+                    shared[index] = false;
+                } else {
+                    for (int row = y0; row < y1; row++)
+                        fillRow(x0, row, x1 - x0, color);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Wether the area {@code [x0, x1) x [y0, y1)} covers all in-bounds
+     *         pixels of the tile {@code (tx, ty)}
+     */
+    private boolean covers(int tx, int ty, int x0, int y0, int x1, int y1) {
+        return x0 == tx << TILE_SHIFT
+                && y0 == ty << TILE_SHIFT
+                && x1 == Math.min((tx + 1) << TILE_SHIFT, width)
+                && y1 == Math.min((ty + 1) << TILE_SHIFT, height);
+    }
+
+    /**
+     * Creates a new grid containing the area
+     * {@code [startX, startX + newWidth) x [startY, startY + newHeight)} of this
+     * grid. Parts of the new grid that lie outside of this grid are filled with
+     * {@code backgroundColor}. If {@code startX} and {@code startY} are multiples
+     * of {@code TILE_SIZE}, the tiles are shared instead of copied.
+     */
+    TileGrid crop(int startX, int startY, int newWidth, int newHeight, int backgroundColor) {
+        TileGrid cropped = new TileGrid(newWidth, newHeight, backgroundColor);
+        boolean aligned = ((startX | startY) & TILE_MASK) == 0;
+
+        int[] row = new int[TILE_SIZE];
+        for (int ty = 0; ty < cropped.numTilesY; ty++) {
+            for (int tx = 0; tx < cropped.numTilesX; tx++) {
+                int index = ty * cropped.numTilesX + tx;
+
+                // in-bounds area of the new tile in the coordinates of this grid
+                int x0 = (tx << TILE_SHIFT) + startX,
+                        y0 = (ty << TILE_SHIFT) + startY,
+                        x1 = Math.min((tx + 1) << TILE_SHIFT, newWidth) + startX,
+                        y1 = Math.min((ty + 1) << TILE_SHIFT, newHeight) + startY;
+                // the part of that area that is covered by this grid
+                int cx0 = Math.max(x0, 0),
+                        cy0 = Math.max(y0, 0),
+                        cx1 = Math.min(x1, width),
+                        cy1 = Math.min(y1, height);
+
+                if (cx0 >= cx1 || cy0 >= cy1)
+                    continue;
+
+                if (aligned && cx0 == x0 && cy0 == y0 && cx1 == x1 && cy1 == y1) {
+                    cropped.shareTile(index, this, (y0 >> TILE_SHIFT) * numTilesX + (x0 >> TILE_SHIFT));
+                    continue;
+                }
+
+                for (int y = cy0; y < cy1; y++) {
+                    readRow(cx0, y, cx1 - cx0, row, 0);
+                    cropped.writeRow(cx0 - startX, y - startY, cx1 - cx0, row, 0);
+                }
+            }
+        }
+
+        return cropped;
+    }
+
+    BufferedImage createBufferedImage() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        read(0, 0, width, height, pixels, 0, width);
+        return image;
+    }
+
+    /**
+     * @return The number of bytes used by the allocated tiles of this grid
+     *         (including shared ones)
+     */
+    long getAllocatedBytes() {
+        long numTiles = 0;
+        for (int[] tile : tiles) {
+            if (tile != null)
+                numTiles++;
+        }
+        return numTiles * TILE_AREA * Integer.BYTES;
+    }
+}
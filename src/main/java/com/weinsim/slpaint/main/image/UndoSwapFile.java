@@ -0,0 +1,144 @@
+package com.weinsim.slpaint.main.image;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import com.weinsim.slpaint.settings.Settings;
+
+/**
+ * A file in the config directory that undo history data can be moved to once
+ * it is unlikely to be needed again. The file is memory mapped in chunks of
+ * {@code CHUNK_SIZE} bytes. Records never span multiple chunks, and the space
+ * of freed records is reused for new ones.
+ *
+ * <p>
+ * All methods are thread safe.
+ * </p>
+ */
+final class UndoSwapFile {
+
+    static final int CHUNK_SIZE = 64 << 20;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final ArrayList<MappedByteBuffer> chunks;
+
+    /**
+     * Offset -> length of all unused areas of the file. Adjacent areas within the
+     * same chunk are merged.
+     */
+    private final TreeMap<Long, Integer> freeAreas;
+    private long usedBytes;
+
+    UndoSwapFile() throws IOException {
+        path = Settings.getConfigDirectory().resolve(String.format("undo-%d.swap", ProcessHandle.current().pid()));
+        channel = FileChannel.open(path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        path.toFile().deleteOnExit();
+
+        chunks = new ArrayList<>();
+        freeAreas = new TreeMap<>();
+    }
+
+    /**
+     * @return The offset of the new record within the file
+     */
+    synchronized long write(byte[] data) throws IOException {
+        if (data.length > CHUNK_SIZE) {
+            throw new IllegalArgumentException(String.format(
+                    "Record too large for undo swap file (%d bytes)", data.length));
+        }
+
+        long offset = allocate(data.length);
+        ByteBuffer buffer = chunks.get((int) (offset / CHUNK_SIZE)).duplicate();
+        buffer.position((int) (offset % CHUNK_SIZE));
+        buffer.put(data);
+        return offset;
+    }
+
+    synchronized byte[] read(long offset, int length) {
+        ByteBuffer buffer = chunks.get((int) (offset / CHUNK_SIZE)).duplicate();
+        buffer.position((int) (offset % CHUNK_SIZE));
+        byte[] data = new byte[length];
+        buffer.get(data);
+        return data;
+    }
+
+    private long allocate(int length) throws IOException {
+        for (Entry<Long, Integer> area : freeAreas.entrySet()) {
+            if (area.getValue() < length)
+                continue;
+
+            // read the entry before removing it, TreeMap reuses removed entries
+            long offset = area.getKey();
+            int areaLength = area.getValue();
+            freeAreas.remove(offset);
+            if (areaLength > length)
+                freeAreas.put(offset + length, areaLength - length);
+            usedBytes += length;
+            return offset;
+        }
+
+        long chunkOffset = (long) chunks.size() * CHUNK_SIZE;
+        chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, chunkOffset, CHUNK_SIZE));
+        if (length < CHUNK_SIZE)
+            freeAreas.put(chunkOffset + length, CHUNK_SIZE - length);
+        usedBytes += length;
+        return chunkOffset;
+    }
+
+    synchronized void free(long offset, int length) {
+        usedBytes -= length;
+
+        long chunk = offset / CHUNK_SIZE;
+        Entry<Long, Integer> before = freeAreas.floorEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset && before.getKey() / CHUNK_SIZE == chunk) {
+            offset = before.getKey();
+            length += before.getValue();
+            freeAreas.remove(offset);
+        }
+        Integer afterLength = freeAreas.get(offset + length);
+        if (afterLength != null && (offset + length) / CHUNK_SIZE == chunk) {
+            freeAreas.remove(offset + length);
+            length += afterLength;
+        }
+        freeAreas.put(offset, length);
+    }
+
+    /**
+     * @return The number of bytes occupied by records
+     */
+    synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return The size of the file
+     */
+    synchronized long getFileSize() {
+        return (long) chunks.size() * CHUNK_SIZE;
+    }
+
+    synchronized void delete() {
+        chunks.clear();
+        freeAreas.clear();
+        try {
+            channel.close();
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // the file might still be mapped, deleteOnExit() takes care of it
+            e.printStackTrace();
+        }
+    }
+}
@@ -1,15 +1,22 @@
 package com.weinsim.slpaint.main.tools;
 
-import java.util.LinkedList;
-
 import com.weinsim.slpaint.main.image.Image;
 
 public final class FillBucketTool extends ImageTool {
 
     public static final FillBucketTool INSTANCE = new FillBucketTool();
 
-    private static final int[] FILL_XOFF = { 0, -1, 0, 1 };
-    private static final int[] FILL_YOFF = { 1, 0, -1, 0 };
+    public static final int MIN_TOLERANCE = 0, MAX_TOLERANCE = 100;
+
+    /**
+     * In percent
+     */
+    private int tolerance = 0;
+    /**
+     * If {@code true}, all matching pixels of the image are replaced instead of
+     * only the connected area around the clicked pixel.
+     */
+    private boolean replaceEverywhere = false;
 
     private FillBucketTool() {
         super();
@@ -28,33 +35,15 @@ public final class FillBucketTool extends ImageTool {
 
         int baseColor = image.getPixel(x, y);
         int replaceColor = mouseButton == 0 ? app.getPrimaryColor() : app.getSecondaryColor();
-        if (baseColor == replaceColor)
+        if (baseColor == replaceColor && tolerance == 0)
             return;
-        LinkedList<Long> boundary = new LinkedList<>();
-        boundary.add((x & 0xFFFFFFFFL) << 32 | (y & 0xFFFFFFFFL));
-        // No noticeable performance increase with cached bitmap for discovered pixels.
-        // However, disabling it causes a bug where the while loop never finsihes when
-        // the fill color matches the initial pixel color.
-        boolean[][] discovered = new boolean[image.getWidth()][image.getHeight()];
-        while (!boundary.isEmpty()) {
-            long point = boundary.removeLast();
-            int pointX = (int) ((point >> 32) & 0xFFFFFFFFL);
-            int pointY = (int) (point & 0xFFFFFFFFL);
-            discovered[pointX][pointY] = true;
-            image.setPixel(pointX, pointY, replaceColor);
-            for (int i = 0; i < FILL_XOFF.length; i++) {
-                int newX = pointX + FILL_XOFF[i];
-                int newY = pointY + FILL_YOFF[i];
-                if (image.isInside(newX, newY)) {
-                    if (discovered[newX][newY])
-                        continue;
-
-                    if (image.getPixel(newX, newY) == baseColor) {
-                        boundary.add((newX & 0xFFFFFFFFL) << 32 | (newY & 0xFFFFFFFFL));
-                    }
-                }
-            }
-        }
+
+        // percent -> maximum difference per channel
+        int channelTolerance = (tolerance * 255 + 50) / 100;
+        if (replaceEverywhere)
+            image.replaceColor(baseColor, replaceColor, channelTolerance);
+        else
+            image.floodFill(x, y, replaceColor, channelTolerance);
 
         app.addImageSnapshot();
     }
@@ -71,4 +60,20 @@ public final class FillBucketTool extends ImageTool {
     public String getName() {
         return "FillBucket";
     }
+
+    public int getTolerance() {
+        return tolerance;
+    }
+
+    public void setTolerance(int tolerance) {
+        this.tolerance = Math.min(Math.max(tolerance, MIN_TOLERANCE), MAX_TOLERANCE);
+    }
+
+    public boolean isReplaceEverywhere() {
+        return replaceEverywhere;
+    }
+
+    public void setReplaceEverywhere(boolean replaceEverywhere) {
+        this.replaceEverywhere = replaceEverywhere;
+    }
 }
\ No newline at end of file
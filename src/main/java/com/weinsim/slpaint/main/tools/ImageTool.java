@@ -56,7 +56,7 @@ public abstract sealed class ImageTool permits PencilTool, LineTool, DragTool, F
             app.setActiveTool(this);
             action.run();
         };
-        BooleanSupplier possible = () -> (getState() & possibleStates) != 0;
+        BooleanSupplier possible = () -> (getState() & possibleStates) != 0 && !app.isImageLoading();
         UI.addKeyboardShortcut(identifier, key, modifiers, possible, shortcutAction);
     }
 }
\ No newline at end of file
@@ -38,6 +38,7 @@ public final class PencilTool extends ImageTool {
                 // can never happen
                 default -> 0;
             };
+            image.beginStroke();
         }
     }
 
@@ -7,16 +7,70 @@ import java.awt.image.BufferedImage;
 import com.weinsim.slpaint.main.ClipboardManager;
 import com.weinsim.slpaint.main.apps.MainApp;
 import com.weinsim.slpaint.main.image.Image;
+import com.weinsim.slpaint.main.image.Interpolation;
+import com.weinsim.slpaint.main.image.SelectionMask;
 import com.weinsim.slpaint.sutil.math.SVector;
+import com.weinsim.slpaint.sutil.ui.UI;
 
 public final class SelectionTool extends DragTool {
 
     public static final SelectionTool INSTANCE = new SelectionTool();
 
+    public static final int MIN_TOLERANCE = 0, MAX_TOLERANCE = 100;
+
+    /**
+     * The maximum side length of {@code proxy}
+     */
+    private static final int PROXY_SIZE = 512;
+
     private Image selection;
+    /**
+     * The pixels that the selection was lifted from if it isn't rectangular, in
+     * image coordinates
+     */
+    private SelectionMask mask;
+    /**
+     * The area {x, y, width, height} that the selection was lifted from, or
+     * {@code null} if it wasn't lifted from the image or has been rotated /
+     * flipped since. Only while the selection is still in this area, the magic
+     * wand can add pixels to it or remove pixels from it.
+     */
+    private int[] liftedArea;
+
+    /**
+     * If {@code true}, left clicks select the connected area of similar color
+     * around the clicked pixel instead of starting a rectangular selection.
+     */
+    private boolean magicWand = false;
+    /**
+     * In percent
+     */
+    private int tolerance = 0;
+
+    /**
+     * Clockwise rotation of the selection around its center in degrees, in
+     * {@code (-180, 180]}. The selection is first scaled to
+     * {@code width x height}, then rotated.
+     */
+    private int angle = 0;
+    private Interpolation interpolation = Interpolation.BICUBIC;
+
+    /**
+     * Downscaled copy of {@code selection} that the preview of a rotated
+     * selection is resampled from, or {@code null} if it hasn't been created
+     * yet
+     */
+    private Image proxy;
+    /**
+     * The rotated selection at the resolution of {@code proxy}, or {@code null}
+     */
+    private Image preview;
+    private int previewWidth, previewHeight, previewAngle;
 
     private SelectionTool() {
         selection = null;
+        mask = null;
+        liftedArea = null;
     }
 
     @Override
@@ -36,6 +90,73 @@ public final class SelectionTool extends DragTool {
         addShortcut("selection_right", GLFW_KEY_RIGHT, 0, IDLE, () -> x++);
     }
 
+    @Override
+    public void click(int x, int y, int mouseButton) {
+        if (!magicWand || mouseButton != GLFW_MOUSE_BUTTON_LEFT || !app.getImage().isInside(x, y)) {
+            super.click(x, y, mouseButton);
+            return;
+        }
+
+        int mods = UI.getModifiers();
+        boolean shift = (mods & GLFW_MOD_SHIFT) != 0,
+                alt = (mods & GLFW_MOD_ALT) != 0;
+        selectArea(x, y, shift, alt);
+    }
+
+    /**
+     * Selects the connected area of similar color around {@code (x, y)}. With
+     * Shift, the area is added to the current selection, with Alt it is removed
+     * from it and with both, the selection is reduced to the part that overlaps
+     * the area.
+     */
+    private void selectArea(int mouseX, int mouseY, boolean shift, boolean alt) {
+        Image image = app.getImage();
+
+        SelectionMask combined = null;
+        if ((shift || alt) && canCombine()) {
+            combined = mask != null ? mask
+                    : SelectionMask.rectangle(image.getWidth(), image.getHeight(), x, y, width, height);
+
+            // put the lifted pixels back without adding a snapshot
+            selection.cleanUp();
+            selection = null;
+            app.discardImageChanges();
+        } else {
+            finish();
+        }
+
+        // percent -> maximum difference per channel
+        int channelTolerance = (tolerance * 255 + 50) / 100;
+        SelectionMask area = image.magicWand(mouseX, mouseY, channelTolerance);
+        if (combined == null)
+            combined = area;
+        else if (shift && alt)
+            combined.intersect(area);
+        else if (shift)
+            combined.union(area);
+        else
+            combined.subtract(area);
+
+        int[] bounds = combined.getBounds();
+        if (bounds == null) {
+            discardSelection();
+            return;
+        }
+
+        x = bounds[0];
+        y = bounds[1];
+        width = bounds[2];
+        height = bounds[3];
+        mask = combined;
+        createSubImage();
+    }
+
+    private boolean canCombine() {
+        return state == IDLE && liftedArea != null
+                && liftedArea[0] == x && liftedArea[1] == y
+                && liftedArea[2] == width && liftedArea[3] == height;
+    }
+
     @Override
     public boolean enterIdle() {
         return width > 1 && height > 1;
@@ -43,13 +164,27 @@ public final class SelectionTool extends DragTool {
 
     @Override
     public void start() {
+        mask = null;
         createSubImage();
     }
 
+    /**
+     * Lifts the pixels of {@code mask} (or of the whole rectangle if there is no
+     * mask) off the image.
+     */
     private void createSubImage() {
-        selection = new Image(app.getImage().getSubImage(x, y, width, height,
-                MainApp.isTransparentSelection() ? app.getSecondaryColor() : null));
-        app.getImage().setPixels(x, y, width, height, app.getSecondaryColor());
+        discardPreview();
+
+        Image image = app.getImage();
+        Integer backgroundColor = MainApp.isTransparentSelection() ? app.getSecondaryColor() : null;
+        if (mask == null) {
+            selection = image.getSubImage(x, y, width, height, backgroundColor);
+            image.setPixels(x, y, width, height, app.getSecondaryColor());
+        } else {
+            selection = image.getSubImage(mask, x, y, width, height, backgroundColor);
+            image.setPixels(mask, app.getSecondaryColor());
+        }
+        liftedArea = new int[] { x, y, width, height };
 
         state = IDLE;
     }
@@ -69,13 +204,26 @@ public final class SelectionTool extends DragTool {
         app.addImageSnapshot();
     }
 
+    /**
+     * @param renderToImage Wether the (scaled and rotated) selection should be
+     *                      drawn onto the image at full resolution, which adds
+     *                      a single snapshot
+     */
     private void finish(boolean renderToImage) {
+        if (selection != null && renderToImage)
+            app.renderTransformedImage(selection, x, y, width, height, angle, interpolation);
+        discardSelection();
+    }
+
+    private void discardSelection() {
         if (selection != null) {
-            if (renderToImage)
-                app.renderImageToImage(selection, x, y, width, height);
             selection.cleanUp();
             selection = null;
         }
+        discardPreview();
+        mask = null;
+        liftedArea = null;
+        angle = 0;
 
         state = NONE;
     }
@@ -87,6 +235,7 @@ public final class SelectionTool extends DragTool {
         y = 0;
         width = app.getImage().getWidth();
         height = app.getImage().getHeight();
+        mask = null;
         createSubImage();
     }
 
@@ -94,7 +243,7 @@ public final class SelectionTool extends DragTool {
         if (state != IDLE)
             return;
 
-        ClipboardManager.setImage(selection.getBufferedImage());
+        ClipboardManager.setImage(selection.createBufferedImage());
     }
 
     public void cutToClipboard() {
@@ -119,6 +268,7 @@ public final class SelectionTool extends DragTool {
         height = paste.getHeight();
 
         selection = new Image(paste);
+        discardPreview();
 
         app.setActiveTool(this);
         state = IDLE;
@@ -128,7 +278,7 @@ public final class SelectionTool extends DragTool {
         if (state != IDLE)
             return;
 
-        app.setImage(selection.getBufferedImage());
+        app.setImage(selection);
         app.translateImage(x, y);
         finish(false);
     }
@@ -136,6 +286,8 @@ public final class SelectionTool extends DragTool {
     public void rotateRight() {
         if (state != IDLE)
             return;
+        liftedArea = null;
+        discardPreview();
         selection.rotateRight();
         int temp = width;
         width = height;
@@ -145,6 +297,8 @@ public final class SelectionTool extends DragTool {
     public void rotateLeft() {
         if (state != IDLE)
             return;
+        liftedArea = null;
+        discardPreview();
         selection.rotateLeft();
         int temp = width;
         width = height;
@@ -154,21 +308,121 @@ public final class SelectionTool extends DragTool {
     public void rotate180() {
         if (state != IDLE)
             return;
+        liftedArea = null;
+        discardPreview();
         selection.rotate180();
     }
 
     public void flipHorizontal() {
         if (state != IDLE)
             return;
+        liftedArea = null;
+        discardPreview();
         selection.flipHorizontal();
     }
 
     public void flipVertical() {
         if (state != IDLE)
             return;
+        liftedArea = null;
+        discardPreview();
         selection.flipVertical();
     }
 
+    public boolean isMagicWand() {
+        return magicWand;
+    }
+
+    public void setMagicWand(boolean magicWand) {
+        this.magicWand = magicWand;
+    }
+
+    public int getTolerance() {
+        return tolerance;
+    }
+
+    public void setTolerance(int tolerance) {
+        this.tolerance = Math.min(Math.max(tolerance, MIN_TOLERANCE), MAX_TOLERANCE);
+    }
+
+    /**
+     * @return The rotated selection, resampled from a downscaled proxy so that
+     *         it can be recomputed while the selection is resized, or
+     *         {@code null} if the selection isn't rotated
+     */
+    public Image getPreview() {
+        if (selection == null || angle == 0)
+            return null;
+
+        if (preview != null && previewWidth == width && previewHeight == height && previewAngle == angle)
+            return preview;
+
+        if (proxy == null)
+            proxy = selection.createProxy(PROXY_SIZE);
+        if (preview != null)
+            preview.cleanUp();
+
+        double scale = (double) proxy.getWidth() / selection.getWidth();
+        preview = proxy.createTransformedImage(width * scale, height * scale, angle, Interpolation.BILINEAR);
+        previewWidth = width;
+        previewHeight = height;
+        previewAngle = angle;
+        return preview;
+    }
+
+    /**
+     * Must be called whenever the pixels of {@code selection} change.
+     */
+    private void discardPreview() {
+        if (proxy != null) {
+            proxy.cleanUp();
+            proxy = null;
+        }
+        if (preview != null) {
+            preview.cleanUp();
+            preview = null;
+        }
+    }
+
+    /**
+     * @return The size {width, height} of the bounding box of the scaled and
+     *         rotated selection
+     */
+    public double[] getTransformedSize() {
+        double radians = Math.toRadians(angle);
+        double sin = Math.abs(Math.sin(radians)),
+                cos = Math.abs(Math.cos(radians));
+        return new double[] { cos * width + sin * height, sin * width + cos * height };
+    }
+
+    public int getAngle() {
+        return angle;
+    }
+
+    public void setAngle(int angle) {
+        if (state != IDLE)
+            return;
+
+        // normalize to (-180, 180]
+        angle %= 360;
+        if (angle <= -180)
+            angle += 360;
+        else if (angle > 180)
+            angle -= 360;
+
+        if (angle != this.angle)
+            liftedArea = null;
+        this.angle = angle;
+    }
+
+    public boolean isBicubic() {
+        return interpolation == Interpolation.BICUBIC;
+    }
+
+    public void setBicubic(boolean bicubic) {
+        interpolation = bicubic ? Interpolation.BICUBIC : Interpolation.BILINEAR;
+    }
+
     @Override
     public int getMargin() {
         return 0;
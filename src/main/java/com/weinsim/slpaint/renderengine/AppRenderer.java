@@ -1,7 +1,6 @@
 package com.weinsim.slpaint.renderengine;
 
 import static org.lwjgl.opengl.GL11.*;
-import static org.lwjgl.opengl.GL12.*;
 import static org.lwjgl.opengl.GL14.*;
 import static com.weinsim.slpaint.sutil.ui.UI.*;
 
@@ -11,6 +10,7 @@ import com.weinsim.slpaint.main.apps.App;
 import com.weinsim.slpaint.main.apps.MainApp;
 import com.weinsim.slpaint.main.image.Image;
 import com.weinsim.slpaint.renderengine.bufferobjects.FrameBufferObject;
+import com.weinsim.slpaint.renderengine.bufferobjects.PixelPackBuffer;
 import com.weinsim.slpaint.renderengine.font.TextFont;
 import com.weinsim.slpaint.sutil.math.SVector;
 import com.weinsim.slpaint.sutil.ui.UI;
@@ -23,6 +23,7 @@ import com.weinsim.slpaint.sutil.ui.elements.UIImage;
 import com.weinsim.slpaint.sutil.ui.elements.UIText;
 import com.weinsim.slpaint.ui.components.AlphaScale;
 import com.weinsim.slpaint.ui.components.HueSatField;
+import com.weinsim.slpaint.ui.components.ImageView;
 import com.weinsim.slpaint.ui.components.LightnessScale;
 
 public class AppRenderer implements Cleanable {
@@ -51,6 +52,10 @@ public class AppRenderer implements Cleanable {
     protected App app;
 
     protected UIRenderMaster uiMaster;
+    /**
+     * Used to read back what was rendered into the temp framebuffer
+     */
+    private PixelPackBuffer readbackBuffer;
 
     protected int layer;
     protected int division;
@@ -58,6 +63,7 @@ public class AppRenderer implements Cleanable {
     public AppRenderer(App app) {
         this.app = app;
         uiMaster = new UIRenderMaster(app);
+        readbackBuffer = new PixelPackBuffer();
     }
 
     public void render() {
@@ -212,6 +218,9 @@ public class AppRenderer implements Cleanable {
         if (element instanceof UIImage image) {
             uiMaster.image(image.getTextureID(), position, size);
         }
+        if (element instanceof ImageView view) {
+            renderImageView(view.getImage(), position, size);
+        }
         if (element instanceof LightnessScale.LSVisuals l) {
             uiMaster.lightnessScale(position, size, l.getHue(), l.getSaturation(),
                     l.getOrientation() == VERTICAL, App.isHSLColorSpace());
@@ -239,6 +248,23 @@ public class AppRenderer implements Cleanable {
         division = oldDivision;
     }
 
+    /**
+     * Draws the texture tiles of {@code image} that aren't clipped away,
+     * stretched to {@code size}
+     */
+    private void renderImageView(Image image, SVector position, SVector size) {
+        double scaleX = size.x / image.getWidth(),
+                scaleY = size.y / image.getHeight();
+
+        image.forEachTextureTile(Math.max(scaleX, scaleY),
+                (x, y, w, h) -> !uiMaster.isOutsideClipArea(
+                        new SVector(position.x + x * scaleX, position.y + y * scaleY),
+                        new SVector(w * scaleX, h * scaleY)),
+                (textureID, x, y, w, h) -> uiMaster.image(textureID,
+                        new SVector(position.x + x * scaleX, position.y + y * scaleY),
+                        new SVector(w * scaleX, h * scaleY)));
+    }
+
     private void drawShape(UIShape shape, SVector position, SVector size) {
         switch (shape) {
             case RECTANGLE -> uiMaster.rect(position, size);
@@ -284,29 +310,6 @@ public class AppRenderer implements Cleanable {
         uiMaster = new UIRenderMaster(app);
     }
 
-    public void renderImageToImage(Image srcImage, int x, int y, int width, int height, Image dstImage) {
-        glDisable(GL_BLEND);
-
-        uiMaster.start();
-        uiMaster.tempFrameBuffer();
-        uiMaster.setBGColor(new Vector4f(0, 0, 0, 0));
-        uiMaster.image(srcImage.getTextureID(), new SVector(x, y), new SVector(width, height));
-        uiMaster.render();
-
-        // glEnable(GL_BLEND);
-
-        FrameBufferObject fbo = uiMaster.getTempFBO();
-        int fboWidth = fbo.width, fboHeight = fbo.height;
-
-        int[] array = new int[fboWidth * fboHeight];
-        glBindTexture(GL_TEXTURE_2D, fbo.textureID);
-        glGetTexImage(GL_TEXTURE_2D, 0, GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, array);
-
-        glEnable(GL_BLEND);
-
-        dstImage.drawSubImage(0, 0, fboWidth, fboHeight, array);
-    }
-
     public void renderTextToImage(String text, double x, double y, double size, Vector4f color, TextFont font,
             Image image) {
 
@@ -330,38 +333,32 @@ public class AppRenderer implements Cleanable {
 
         uiMaster.render();
 
-        FrameBufferObject fbo = uiMaster.getTempFBO();
-        int width = fbo.width, height = fbo.height;
-
-        int[] array = new int[width * height];
-        glBindTexture(GL_TEXTURE_2D, fbo.textureID);
-        glGetTexImage(GL_TEXTURE_2D, 0, GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, array);
-
-        image.drawSubImage(0, 0, width, height, array);
+        // Glyphs can extend beyond the advance width and the text size, so be
+        // generous. The area is still tiny compared to the whole image.
+        double width = font.textWidth(text) * size / font.size;
+        drawTempFrameBuffer(
+                (int) Math.floor(x - size), (int) Math.floor(y - size),
+                (int) Math.ceil(x + width + size), (int) Math.ceil(y + 2 * size),
+                image);
     }
 
     /**
-     * WARNING: this method expects the temp framebuffer to have a size of
-     * {@code newWidth} x {@code newHeight}!
+     * Blends the area {@code [x0, x1) x [y0, y1)} of the temp framebuffer, which
+     * must still be bound, onto {@code image}. Only this area is read back from
+     * the GPU.
      */
-    public void resizeImage(Image image, int newWidth, int newHeight) {
-        uiMaster.start();
-        uiMaster.tempFrameBuffer();
-
-        glDisable(GL_BLEND);
-
-        uiMaster.image(image.getTextureID(), new SVector(), new SVector(newWidth, newHeight));
-
-        uiMaster.render();
-
+    private void drawTempFrameBuffer(int x0, int y0, int x1, int y1, Image image) {
         FrameBufferObject fbo = uiMaster.getTempFBO();
-        int width = fbo.width, height = fbo.height;
-
-        int[] array = new int[width * height];
-        glBindTexture(GL_TEXTURE_2D, fbo.textureID);
-        glGetTexImage(GL_TEXTURE_2D, 0, GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, array);
+        x0 = Math.max(x0, 0);
+        y0 = Math.max(y0, 0);
+        x1 = Math.min(x1, fbo.width);
+        y1 = Math.min(y1, fbo.height);
+        if (x0 >= x1 || y0 >= y1)
+            return;
 
-        image.resize(newWidth, newHeight, array);
+        int width = x1 - x0, height = y1 - y0;
+        int[] pixels = readbackBuffer.readPixels(x0, y0, width, height);
+        image.drawSubImage(x0, y0, width, height, pixels);
     }
 
     public void setTempFBOSize(int width, int height) {
@@ -371,6 +368,7 @@ public class AppRenderer implements Cleanable {
     @Override
     public void cleanUp() {
         uiMaster.cleanUp();
+        readbackBuffer.cleanUp();
     }
 
     private void renderDebug() {
@@ -392,6 +392,24 @@ public class UIRenderMaster {
         clipAreaInfo = clipAreaStack.removeLast();
     }
 
+    /**
+     * @return Wether a shape at the given position and size (in the current
+     *         coordinate system) would be clipped entirely
+     */
+    public boolean isOutsideClipArea(SVector position, SVector size) {
+        if (!clipAreaInfo.isEnabled())
+            return false;
+
+        Vector3f pos3f = new Vector3f((float) position.x, (float) position.y, 1);
+        Matrix3f.transform(uiMatrix, pos3f, pos3f);
+
+        Vector3f size3f = new Vector3f((float) size.x, (float) size.y, 0);
+        Matrix3f.transform(uiMatrix, size3f, size3f);
+
+        return !SUtil.rectsOverlap(new SVector(pos3f.x, pos3f.y), new SVector(size3f.x, size3f.y),
+                clipAreaInfo.getPosition(), clipAreaInfo.getSize());
+    }
+
     public void depth(double depth) {
         this.depth = depth;
     }
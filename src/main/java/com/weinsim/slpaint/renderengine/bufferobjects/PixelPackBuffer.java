@@ -0,0 +1,65 @@
+package com.weinsim.slpaint.renderengine.bufferobjects;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL21.*;
+import static org.lwjgl.opengl.GL30.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.weinsim.slpaint.renderengine.Cleanable;
+
+/**
+ * A pixel buffer object that areas of the currently bound framebuffer are read
+ * back into. Both the buffer and the array that the pixels end up in are reused
+ * and only ever grow, so reading back small areas doesn't allocate anything.
+ */
+public class PixelPackBuffer implements Cleanable {
+
+    private int bufferID = 0;
+    /**
+     * Size of the buffer in pixels
+     */
+    private int capacity = 0;
+    private int[] pixels = new int[0];
+
+    /**
+     * Reads the area {@code [x, x + width) x [y, y + height)} of the currently
+     * bound framebuffer.
+     *
+     * @return An array containing the pixels of the area row by row (in ARGB
+     *         format), followed by unspecified values. The array is overwritten
+     *         by the next call.
+     */
+    public int[] readPixels(int x, int y, int width, int height) {
+        int numPixels = width * height;
+
+        if (bufferID == 0)
+            bufferID = glGenBuffers();
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, bufferID);
+        if (numPixels > capacity) {
+            capacity = numPixels;
+            glBufferData(GL_PIXEL_PACK_BUFFER, 4L * capacity, GL_STREAM_READ);
+            pixels = new int[capacity];
+        }
+
+        glReadPixels(x, y, width, height, GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, 0L);
+
+        ByteBuffer mapped = glMapBufferRange(GL_PIXEL_PACK_BUFFER, 0, 4L * numPixels, GL_MAP_READ_BIT);
+        if (mapped == null)
+            throw new RuntimeException(String.format("Unable to map pixel buffer (%d x %d)", width, height));
+        mapped.order(ByteOrder.nativeOrder()).asIntBuffer().get(pixels, 0, numPixels);
+        glUnmapBuffer(GL_PIXEL_PACK_BUFFER);
+
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+        return pixels;
+    }
+
+    @Override
+    public void cleanUp() {
+        if (bufferID != 0)
+            glDeleteBuffers(bufferID);
+    }
+}
@@ -20,12 +20,19 @@ public class ImageRenderer extends InstanceShapeRenderer<ImageDrawCall> {
      * Texture sampler i will sample from texture textureIDs[i]
      */
     private int[] textureIDs;
+    /**
+     * Images that didn't get a texture sampler. They are drawn in another pass
+     * once the current images are rendered, so there is no limit on the number of
+     * textures per frame (e.g. for images made of many texture tiles).
+     */
+    private ArrayList<ImageDrawCall> deferred;
 
     public ImageRenderer() {
         super("image");
 
         textureIDs = new int[NUM_TEXTURE_UNITS];
         clearTextureIDs();
+        deferred = new ArrayList<>();
 
         shaderProgram.start();
         for (int i = 0; i < NUM_TEXTURE_UNITS; i++) {
@@ -53,16 +60,30 @@ public class ImageRenderer extends InstanceShapeRenderer<ImageDrawCall> {
             }
         }
 
-        if (samplerID != -1)
-            drawCall.samplerID = samplerID;
-        else
-            throw new RuntimeException("Maximum number of image textures used. Unable to draw image.");
+        if (samplerID == -1) {
+            deferred.add(drawCall);
+            return;
+        }
 
+        drawCall.samplerID = samplerID;
         super.addShape(drawCall);
     }
 
     @Override
     public void render(Matrix3f viewMatrix) {
+        renderPass(viewMatrix);
+
+        while (!deferred.isEmpty()) {
+            ArrayList<ImageDrawCall> drawCalls = deferred;
+            deferred = new ArrayList<>();
+            for (ImageDrawCall drawCall : drawCalls)
+                addShape(drawCall);
+
+            renderPass(viewMatrix);
+        }
+    }
+
+    private void renderPass(Matrix3f viewMatrix) {
         for (int i = 0; i < textureIDs.length; i++) {
             int textureID = textureIDs[i];
             if (textureID != NO_TEXTURE) {
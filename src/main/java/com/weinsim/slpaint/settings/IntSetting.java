@@ -0,0 +1,25 @@
+package com.weinsim.slpaint.settings;
+
+import com.weinsim.slpaint.sutil.json.values.JSONInteger;
+import com.weinsim.slpaint.sutil.json.values.JSONValue;
+
+public final class IntSetting extends Setting<Integer> {
+
+    public IntSetting(String identifier) {
+        super(identifier);
+    }
+
+    @Override
+    public JSONValue getJSONValue() {
+        return new JSONInteger(value);
+    }
+
+    @Override
+    public void setJSONValue(JSONValue json) {
+        if (json instanceof JSONInteger i) {
+            value = i.getValue();
+        } else {
+            handleIncorrectJSONType("JSONInteger", json.getClass().getName());
+        }
+    }
+}
@@ -2,7 +2,7 @@ package com.weinsim.slpaint.settings;
 
 import com.weinsim.slpaint.sutil.json.values.JSONValue;
 
-public abstract sealed class Setting<T> permits BooleanSetting, StringSetting, ColorSetting, ColorArraySetting {
+public abstract sealed class Setting<T> permits BooleanSetting, IntSetting, StringSetting, ColorSetting, ColorArraySetting {
 
     protected String identifier;
     protected T value;
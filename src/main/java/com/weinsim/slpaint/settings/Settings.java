@@ -29,6 +29,7 @@ import com.weinsim.slpaint.sutil.json.values.JSONValue;
 public class Settings {
 
     private static final String DEFAULT_SETTINGS_FILE = "settings/defaultSettings.json";
+    private static final Path CONFIG_DIRECTORY;
     private static final String SETTINGS_FILE;
 
     private static JSONObject defaultSettings;
@@ -39,13 +40,13 @@ public class Settings {
     private static SettingsSaveThread saveThread;
 
     static {
-        Path configPath = Path.of(System.getProperty("user.home"), ".slpaint");
+        CONFIG_DIRECTORY = Path.of(System.getProperty("user.home"), ".slpaint");
         try {
-            Files.createDirectories(configPath);
+            Files.createDirectories(CONFIG_DIRECTORY);
         } catch (IOException e) {
             throw new RuntimeException("Unable to create config directory", e);
         }
-        SETTINGS_FILE = configPath.resolve("settings.json").toString();
+        SETTINGS_FILE = CONFIG_DIRECTORY.resolve("settings.json").toString();
 
         allSettings = new HashMap<>();
         try {
@@ -85,6 +86,13 @@ public class Settings {
         setting.setJSONValue(jsonValue);
     }
 
+    /**
+     * @return The directory containing the settings file ({@code ~/.slpaint})
+     */
+    public static Path getConfigDirectory() {
+        return CONFIG_DIRECTORY;
+    }
+
     public static void setDefaultSettings() {
         currentSettings = new JSONObject(defaultSettings);
 
@@ -508,4 +508,22 @@ public class SUtil {
 
         return () -> predicate.getAsBoolean() ? option1.get() : option2.get();
     }
+
+    public static String formatFilesize(long filesize) {
+        final String[] prefixes = { "k", "M", "G", "T" };
+        long remainder = 0;
+        for (int i = 0; i < prefixes.length + 1; i++) {
+            if (filesize < 1024) {
+                if (i == 0) {
+                    return filesize + "B";
+                } else {
+                    String unit = prefixes[i - 1] + "B";
+                    return "%d.%02d%s".formatted(filesize, (remainder * 100) / 1024, unit);
+                }
+            }
+            remainder = (filesize & 0x3FF);
+            filesize = filesize >> 10;
+        }
+        return "[Filesize too large!]";
+    }
 }
\ No newline at end of file
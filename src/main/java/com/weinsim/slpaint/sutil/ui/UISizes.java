@@ -32,7 +32,8 @@ public enum UISizes implements DoubleSupplier {
     HUE_SAT_FIELD(200),
     SIZE_KNOB(12),
     COLOR_PICKER_EXTRA_WINDOW(300),
-    COLOR_PICKER_PREVIEW(96, 60);
+    COLOR_PICKER_PREVIEW(96, 60),
+    RESIZE_PREVIEW(200);
 
     public final double size;
     public final double width;
@@ -13,6 +13,7 @@ import com.weinsim.slpaint.main.apps.MainApp;
 import com.weinsim.slpaint.main.image.Image;
 import com.weinsim.slpaint.main.image.ImageFormat;
 import com.weinsim.slpaint.main.tools.DragTool;
+import com.weinsim.slpaint.main.tools.FillBucketTool;
 import com.weinsim.slpaint.main.tools.ImageTool;
 import com.weinsim.slpaint.main.tools.LineTool;
 import com.weinsim.slpaint.main.tools.PencilTool;
@@ -142,11 +143,12 @@ public class MainUI extends AppUI<MainApp> {
         viewMenu.addLabel("Reset view", getKeyboardShortcut("reset_transform"));
 
         UIFloatMenu imageMenu = menuBar.addMenu("Image");
+        final BooleanSupplier imageEditable = () -> !app.isImageLoading();
         imageMenu.addLabel(UILabel.iconText("resize", "Resize"), () -> app.showDialog(MainApp.RESIZE_DIALOG));
         imageMenu.addLabel(UILabel.iconText("crop", "Crop"), () -> app.showDialog(MainApp.CROP_DIALOG));
         imageMenu.addSeparator();
-        addRotateFlipMenues(imageMenu, () -> true, app::rotateImageRight, app::rotateImageLeft, app::rotateImage180,
-                app::flipImageHorizontal, app::flipImageVertical);
+        addRotateFlipMenues(imageMenu, imageEditable, app::rotateImageRight, app::rotateImageLeft,
+                app::rotateImage180, app::flipImageHorizontal, app::flipImageVertical);
 
         if (MainApp.DEV_BUILD) {
             UIFloatMenu debugMenu = menuBar.addMenu("Debug");
@@ -174,10 +176,11 @@ public class MainUI extends AppUI<MainApp> {
         fileButtons.add(new UIButton(UILabel.icon("save"), app::saveImage));
 
         UIContainer imageOptions = addToolRowSection(toolRow, "Image");
+        final BooleanSupplier imageEditable = () -> !app.isImageLoading();
         imageOptions.add(new UIButton(
                 UILabel.iconText("resize", "Resize"),
                 () -> app.showDialog(MainApp.RESIZE_DIALOG)));
-        UIDropdown[] imageRotateFlipDropdowns = createRotateFlipDropdowns(() -> true, app::rotateImageRight,
+        UIDropdown[] imageRotateFlipDropdowns = createRotateFlipDropdowns(imageEditable, app::rotateImageRight,
                 app::rotateImageLeft, app::rotateImage180, app::flipImageHorizontal, app::flipImageVertical);
         imageOptions.add(imageRotateFlipDropdowns[0]);
         imageOptions.add(imageRotateFlipDropdowns[1]);
@@ -244,6 +247,32 @@ public class MainUI extends AppUI<MainApp> {
                 ImageTool.PENCIL::setApplyTransparency);
         toolRow.add(pencilTools);
 
+        final FillBucketTool fillBucket = ImageTool.FILL_BUCKET;
+        UIContainer fillTools = new UIContainer(HORIZONTAL, CENTER);
+        fillTools.zeroMargin().setPaddingScale(2.0).noOutline();
+        fillTools.setVisibilitySupplier(() -> app.getActiveTool() == fillBucket);
+
+        UIContainer toleranceTools = new UIContainer(VERTICAL, CENTER);
+        toleranceTools.zeroMargin().noOutline();
+        final double minTolerance = FillBucketTool.MIN_TOLERANCE,
+                maxTolerance = FillBucketTool.MAX_TOLERANCE;
+        toleranceTools.add(new UIScale(HORIZONTAL,
+                () -> SUtil.map(fillBucket.getTolerance(), minTolerance, maxTolerance, 0, 1),
+                x -> fillBucket.setTolerance((int) Math.round(SUtil.map(x, 0, 1, minTolerance, maxTolerance)))));
+
+        UIContainer toleranceBottomRow = new UIContainer(HORIZONTAL, CENTER);
+        toleranceBottomRow.zeroMargin().noOutline();
+        toleranceBottomRow.add(new UIText("Tolerance (%):", UIText.SMALL));
+        toleranceBottomRow.add(new UIContainer(0, 0).setHFillSize().noOutline());
+        toleranceBottomRow.add(createIntPicker(fillBucket::getTolerance, fillBucket::setTolerance));
+        toleranceTools.add(toleranceBottomRow);
+        fillTools.add(toleranceTools);
+
+        fillTools.add(new UIToggleList("Replace everywhere",
+                fillBucket::isReplaceEverywhere,
+                fillBucket::setReplaceEverywhere));
+        toolRow.add(fillTools);
+
         UIContainer selectionTools = new UIContainer(VERTICAL, CENTER);
         selectionTools.zeroMargin().setPaddingScale(2.0).noOutline();
         selectionTools.setVisibilitySupplier(() -> app.getActiveTool() == ImageTool.SELECTION);
@@ -260,6 +289,13 @@ public class MainUI extends AppUI<MainApp> {
         selectionButtons.add(selectionRotateFlipDropdowns[1]);
         selectionToolsTop.add(selectionButtons);
 
+        UIContainer selectionAngle = new UIContainer(HORIZONTAL, CENTER);
+        selectionAngle.zeroMargin().noOutline();
+        selectionAngle.setVisibilitySupplier(selectionActive);
+        selectionAngle.add(new UIText("Angle (°):", UIText.SMALL));
+        selectionAngle.add(createIntPicker(selection::getAngle, selection::setAngle));
+        selectionToolsTop.add(selectionAngle);
+
         UIToggleList selectionToggles = new UIToggleList();
         selectionToggles.setOrientation(HORIZONTAL).setPaddingScale(2.0);
         selectionToggles.addToggle("Transparent selection",
@@ -268,8 +304,21 @@ public class MainUI extends AppUI<MainApp> {
         selectionToggles.addToggle("Lock aspect ratio",
                 MainApp::isLockSelectionRatio,
                 MainApp::setLockSelectionRatio);
+        selectionToggles.addToggle("Magic wand",
+                selection::isMagicWand,
+                selection::setMagicWand);
+        selectionToggles.addToggle("Bicubic",
+                selection::isBicubic,
+                selection::setBicubic);
         selectionToolsTop.add(selectionToggles);
 
+        UIContainer wandTolerance = new UIContainer(HORIZONTAL, CENTER);
+        wandTolerance.zeroMargin().noOutline();
+        wandTolerance.setVisibilitySupplier(selection::isMagicWand);
+        wandTolerance.add(new UIText("Tolerance (%):", UIText.SMALL));
+        wandTolerance.add(createIntPicker(selection::getTolerance, selection::setTolerance));
+        selectionToolsTop.add(wandTolerance);
+
         selectionTools.add(selectionToolsTop);
         selectionTools.add(new UIText("Selection", UISizes.TEXT_SMALL));
         toolRow.add(selectionTools);
@@ -491,7 +540,7 @@ public class MainUI extends AppUI<MainApp> {
             String filename = app.getFilename();
             if (filename != null && filename.length() > 0) {
                 long filesize = app.getFilesize();
-                ret += "%s (%s)".formatted(filename, MainApp.formatFilesize(filesize));
+                ret += "%s (%s)".formatted(filename, SUtil.formatFilesize(filesize));
             }
             return ret;
         });
@@ -507,6 +556,9 @@ public class MainUI extends AppUI<MainApp> {
             }
             return "Image Size: %d x %d px".formatted(width, height);
         });
+        addStatusBarLabel(statusBar,
+                () -> String.format("Loading... %d%%", (int) (100 * app.getImageLoadingProgress())))
+                .setVisibilitySupplier(app::isImageLoading);
         addStatusBarLabel(statusBar,
                 () -> String.format("Selection size: %d x %d px",
                         ImageTool.SELECTION.getWidth(),
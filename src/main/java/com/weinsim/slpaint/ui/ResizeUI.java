@@ -6,9 +6,13 @@ import java.util.function.IntConsumer;
 import java.util.function.IntSupplier;
 
 import com.weinsim.slpaint.main.apps.ResizeApp;
+import com.weinsim.slpaint.main.image.ResizeFilter;
+import com.weinsim.slpaint.sutil.math.SVector;
 import com.weinsim.slpaint.sutil.ui.UI;
+import com.weinsim.slpaint.sutil.ui.UISizes;
 import com.weinsim.slpaint.sutil.ui.elements.UIButton;
 import com.weinsim.slpaint.sutil.ui.elements.UIContainer;
+import com.weinsim.slpaint.sutil.ui.elements.UIImage;
 import com.weinsim.slpaint.sutil.ui.elements.UINumberInput;
 import com.weinsim.slpaint.sutil.ui.elements.UIRadioButtonList;
 import com.weinsim.slpaint.sutil.ui.elements.UIText;
@@ -91,8 +95,25 @@ public class ResizeUI extends AppUI<ResizeApp> {
         lockRatio.setHFillSize().setMarginScale(1.0);
         inner.add(lockRatio);
 
+        UIContainer filter = new UIContainer(VERTICAL, LEFT);
+        filter.setHFillSize().zeroMargin().noOutline();
+        filter.setVisibilitySupplier(() -> app.getResizeMode() == ResizeApp.SCALE);
+        filter.add(new UIText("Resampling:"));
+        filter.add(new UIRadioButtonList(
+                VERTICAL,
+                ResizeFilter.getNames(),
+                app::getFilter,
+                app::setFilter));
+        inner.add(filter);
+
         root.add(inner);
 
+        UIContainer preview = new UIContainer(VERTICAL, CENTER, CENTER);
+        preview.zeroMargin().noOutline();
+        preview.setFixedSize(UISizes.RESIZE_PREVIEW.getWidthHeight());
+        preview.add(new UIImage(app::getPreviewTextureID, this::getPreviewSize));
+        root.add(preview);
+
         UIContainer buttonRow = new UIContainer(HORIZONTAL, RIGHT, CENTER);
         buttonRow.setHFillSize().zeroMargin().noOutline();
 
@@ -102,6 +123,16 @@ public class ResizeUI extends AppUI<ResizeApp> {
         root.add(buttonRow);
     }
 
+    /**
+     * @return The size of the preview image, scaled to fit into
+     *         {@link UISizes#RESIZE_PREVIEW}
+     */
+    private SVector getPreviewSize() {
+        double maxSize = UISizes.RESIZE_PREVIEW.get();
+        double scale = maxSize / Math.max(app.getPreviewWidth(), app.getPreviewHeight());
+        return new SVector(app.getPreviewWidth(), app.getPreviewHeight()).scale(scale);
+    }
+
     public int getInputMode() {
         return inputMode;
     }
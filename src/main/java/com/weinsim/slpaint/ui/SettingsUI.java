@@ -11,8 +11,10 @@ import com.weinsim.slpaint.main.ColorPicker;
 import com.weinsim.slpaint.main.apps.App;
 import com.weinsim.slpaint.main.apps.MainApp;
 import com.weinsim.slpaint.main.apps.SettingsApp;
+import com.weinsim.slpaint.main.image.ImageHistory;
 import com.weinsim.slpaint.renderengine.font.TextFont;
 import com.weinsim.slpaint.settings.Settings;
+import com.weinsim.slpaint.sutil.SUtil;
 import com.weinsim.slpaint.sutil.ui.UI;
 import com.weinsim.slpaint.sutil.ui.UISizes;
 import com.weinsim.slpaint.sutil.ui.elements.UIButton;
@@ -30,6 +32,11 @@ public class SettingsUI extends AppUI<SettingsApp> {
 
     public static final int NUM_UI_BASE_COLOR_BUTTONS = 10;
 
+    /**
+     * In MiB
+     */
+    private static final int[] UNDO_MEMORY_BUDGETS = { 128, 256, 512, 1024, 2048, 4096 };
+
     private boolean colorSelectionExpanded;
 
     public SettingsUI(SettingsApp app) {
@@ -75,6 +82,18 @@ public class SettingsUI extends AppUI<SettingsApp> {
                 fonts,
                 TextFont::getCurrentFontName,
                 s -> app.queueEvent(() -> TextFont.setCurrentFontName(s))));
+        String[] budgets = new String[UNDO_MEMORY_BUDGETS.length];
+        for (int i = 0; i < budgets.length; i++)
+            budgets[i] = SUtil.formatFilesize(UNDO_MEMORY_BUDGETS[i] * (1L << 20));
+        mainContainer.add(createDropdown("Undo history memory:",
+                budgets,
+                () -> SUtil.formatFilesize(ImageHistory.getMemoryBudget() * (1L << 20)),
+                s -> {
+                    for (int i = 0; i < budgets.length; i++) {
+                        if (budgets[i].equals(s))
+                            ImageHistory.setMemoryBudget(UNDO_MEMORY_BUDGETS[i]);
+                    }
+                }));
 
         if (MainApp.DEV_BUILD) {
             UIContextMenu contextMenu = new UIContextMenu(mainContainer, false);
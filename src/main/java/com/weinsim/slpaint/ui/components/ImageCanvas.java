@@ -17,7 +17,6 @@ import com.weinsim.slpaint.sutil.ui.UISizes;
 import com.weinsim.slpaint.sutil.ui.elements.UIContainer;
 import com.weinsim.slpaint.sutil.ui.elements.UIElement;
 import com.weinsim.slpaint.sutil.ui.elements.UIFloatContainer;
-import com.weinsim.slpaint.sutil.ui.elements.UIImage;
 import com.weinsim.slpaint.ui.components.toolContainers.LineToolContainer;
 import com.weinsim.slpaint.ui.components.toolContainers.PencilToolContainer;
 import com.weinsim.slpaint.ui.components.toolContainers.SelectionToolContainer;
@@ -138,7 +137,7 @@ public class ImageCanvas extends UIContainer {
     }
 
     private void toolClick(int mouseButton, int mods) {
-        if ((mods & GLFW_MOD_CONTROL) == 0) {
+        if ((mods & GLFW_MOD_CONTROL) == 0 && !app.isImageLoading()) {
             int[] mousePosition = app.getMouseImagePosition();
             int mouseX = mousePosition[0],
                     mouseY = mousePosition[1];
@@ -272,12 +271,12 @@ public class ImageCanvas extends UIContainer {
         }
 
         // Horrible name but whatever.
-        // This needs to be its own class because it is a UIImage (and ImageContainer is
-        // a subclass of UIFloatContainer).
-        private class ImageContainerChild extends UIImage {
+        // This needs to be its own class because it is an ImageView (and ImageContainer
+        // is a subclass of UIFloatContainer).
+        private class ImageContainerChild extends ImageView {
 
             ImageContainerChild() {
-                super(() -> app.getImage().getTextureID(), new SVector());
+                super(app::getDisplayImage);
 
                 style.setBackgroundCheckerboard(UIColors.TRANSPARENCY_1, UIColors.TRANSPARENCY_2, UISizes.CHECKERBOARD);
             }
@@ -0,0 +1,39 @@
+package com.weinsim.slpaint.ui.components;
+
+import java.util.function.Supplier;
+
+import com.weinsim.slpaint.main.image.Image;
+import com.weinsim.slpaint.sutil.math.SVector;
+import com.weinsim.slpaint.sutil.ui.elements.UIElement;
+
+/**
+ * Shows an {@link Image} of any size, stretched to the size of the element.
+ * Unlike a {@code UIImage}, the image is drawn one texture tile at a time, so
+ * only the visible part of it is uploaded to the GPU.
+ */
+public class ImageView extends UIElement {
+
+    private final Supplier<Image> imageSupplier;
+    private final Supplier<SVector> sizeSupplier;
+
+    public ImageView(Supplier<Image> imageSupplier) {
+        this(imageSupplier, () -> {
+            Image image = imageSupplier.get();
+            return new SVector(image.getWidth(), image.getHeight());
+        });
+    }
+
+    public ImageView(Supplier<Image> imageSupplier, Supplier<SVector> sizeSupplier) {
+        this.imageSupplier = imageSupplier;
+        this.sizeSupplier = sizeSupplier;
+    }
+
+    @Override
+    public void setPreferredSize() {
+        size.set(sizeSupplier.get());
+    }
+
+    public Image getImage() {
+        return imageSupplier.get();
+    }
+}
@@ -2,7 +2,6 @@ package com.weinsim.slpaint.ui.components.toolContainers;
 
 import static org.lwjgl.glfw.GLFW.*;
 
-import java.awt.image.BufferedImage;
 import java.util.function.BooleanSupplier;
 
 import com.weinsim.slpaint.main.apps.MainApp;
@@ -12,8 +11,8 @@ import com.weinsim.slpaint.main.tools.ImageTool;
 import com.weinsim.slpaint.main.tools.LineTool;
 import com.weinsim.slpaint.sutil.math.SVector;
 import com.weinsim.slpaint.sutil.ui.UI;
-import com.weinsim.slpaint.sutil.ui.elements.UIImage;
 import com.weinsim.slpaint.ui.components.DragKnob;
+import com.weinsim.slpaint.ui.components.ImageView;
 
 public final class LineToolContainer extends ToolContainer<LineTool> {
 
@@ -51,7 +50,7 @@ public final class LineToolContainer extends ToolContainer<LineTool> {
         Image image = app.getImage();
         int width = image.getWidth(),
                 height = image.getHeight();
-        previewImage = new Image(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB));
+        previewImage = new Image(width, height, 0);
     }
 
     @Override
@@ -61,8 +60,7 @@ public final class LineToolContainer extends ToolContainer<LineTool> {
         Image image = app.getImage();
         int width = image.getWidth(),
                 height = image.getHeight();
-        int[] pixels = new int[width * height];
-        previewImage.resize(width, height, pixels);
+        previewImage.reset(width, height, 0);
 
         switch (tool.getState()) {
             case LineTool.INITIAL_DRAG -> {
@@ -131,10 +129,10 @@ public final class LineToolContainer extends ToolContainer<LineTool> {
     }
 
     // copied from ImageCanvas
-    private class ImageDisplay extends UIImage {
+    private class ImageDisplay extends ImageView {
 
         ImageDisplay() {
-            super(() -> previewImage.getTextureID(), new SVector());
+            super(() -> previewImage);
         }
 
         @Override
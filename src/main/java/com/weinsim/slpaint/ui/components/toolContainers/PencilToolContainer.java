@@ -14,12 +14,14 @@ public final class PencilToolContainer extends ToolContainer<PencilTool> {
         addMouseReleaseAction(GLFW_MOUSE_BUTTON_LEFT, false, () -> {
             if (tool.getState() == PencilTool.DRAWING_PRIMARY) {
                 tool.setState(PencilTool.NONE);
+                app.getImage().endStroke();
                 app.addImageSnapshot();
             }
         });
         addMouseReleaseAction(GLFW_MOUSE_BUTTON_RIGHT, false, () -> {
             if (tool.getState() == PencilTool.DRAWING_SECONDARY) {
                 tool.setState(PencilTool.NONE);
+                app.getImage().endStroke();
                 app.addImageSnapshot();
             }
         });
@@ -4,7 +4,8 @@ import com.weinsim.slpaint.main.apps.MainApp;
 import com.weinsim.slpaint.main.tools.ImageTool;
 import com.weinsim.slpaint.main.tools.SelectionTool;
 import com.weinsim.slpaint.sutil.math.SVector;
-import com.weinsim.slpaint.sutil.ui.elements.UIImage;
+import com.weinsim.slpaint.sutil.ui.elements.UIFloatContainer;
+import com.weinsim.slpaint.ui.components.ImageView;
 
 public final class SelectionToolContainer extends DragToolContainer<SelectionTool> {
 
@@ -14,21 +15,23 @@ public final class SelectionToolContainer extends DragToolContainer<SelectionToo
         zeroMargin();
 
         add(new SelectionImage());
+        add(new RotatedSelection());
     }
 
-    private class SelectionImage extends UIImage {
+    private class SelectionImage extends ImageView {
 
         SelectionImage() {
-            super(0, new SVector());
+            super(ImageTool.SELECTION::getSelection);
 
-            setVisibilitySupplier(() -> ImageTool.SELECTION.getSelection() != null);
+            setVisibilitySupplier(() -> ImageTool.SELECTION.getSelection() != null
+                    && ImageTool.SELECTION.getAngle() == 0);
         }
 
         @Override
         public void update() {
             super.update();
 
-            setTextureID(ImageTool.SELECTION.getSelection().getTextureID());
+            getImage().updateOpenGLTexture();
         }
 
         @Override
@@ -40,4 +43,32 @@ public final class SelectionToolContainer extends DragToolContainer<SelectionToo
             size.scale(app.getImageZoom());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Shows the preview of a rotated selection, centered on the (unrotated)
+     * selection area
+     */
+    private class RotatedSelection extends UIFloatContainer {
+
+        RotatedSelection() {
+            super(0, 0);
+            zeroMargin().zeroPadding().noOutline();
+
+            setVisibilitySupplier(() -> ImageTool.SELECTION.getSelection() != null
+                    && ImageTool.SELECTION.getAngle() != 0);
+            addAnchor(Anchor.CENTER_CENTER, Anchor.CENTER_CENTER);
+
+            add(new ImageView(ImageTool.SELECTION::getPreview, () -> {
+                double[] size = ImageTool.SELECTION.getTransformedSize();
+                return new SVector(size[0], size[1]).scale(app.getImageZoom());
+            }));
+        }
+
+        @Override
+        public void update() {
+            super.update();
+
+            ImageTool.SELECTION.getPreview().updateOpenGLTexture();
+        }
+    }
+}
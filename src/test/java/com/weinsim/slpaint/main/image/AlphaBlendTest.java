@@ -0,0 +1,95 @@
+package com.weinsim.slpaint.main.image;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.weinsim.slpaint.sutil.SUtil;
+
+class AlphaBlendTest {
+
+    @Test
+    void div255IsExact() {
+        for (int x = 0; x < 65535; x++)
+            assertEquals(x / 255, AlphaBlend.div255(x), String.valueOf(x));
+    }
+
+    @Test
+    void matchesDoubleBlendWithin1() {
+        Random random = new Random(11);
+        // edge alphas are picked more often than the others
+        int[] edgeAlphas = { 0, 1, 2, 127, 128, 254, 255 };
+        for (int i = 0; i < 500_000; i++) {
+            int srcAlpha = i % 3 == 0 ? edgeAlphas[random.nextInt(edgeAlphas.length)] : random.nextInt(256);
+            int dstAlpha = i % 2 == 0 ? edgeAlphas[random.nextInt(edgeAlphas.length)] : random.nextInt(256);
+            boolean premultiplied = random.nextBoolean();
+            int src = srcAlpha << 24 | random.nextInt() & 0xFFFFFF,
+                    dst = dstAlpha << 24 | random.nextInt() & 0xFFFFFF;
+            if (premultiplied && random.nextInt(4) > 0)
+                src = premultiply(src);
+
+            int expected = doubleSourceOver(src, dst, premultiplied),
+                    actual = AlphaBlend.sourceOver(src, dst, premultiplied);
+            for (int shift = 0; shift < 32; shift += 8) {
+                int error = Math.abs((expected >>> shift & 0xFF) - (actual >>> shift & 0xFF));
+                assertTrue(error <= 1, String.format("src %08x, dst %08x, premultiplied %b: expected %08x, got %08x",
+                        src, dst, premultiplied, expected, actual));
+            }
+        }
+    }
+
+    @Test
+    void rowsMatchSinglePixels() {
+        Random random = new Random(12);
+        int len = 1000;
+        int[] src = new int[len], dst = new int[len], expected = new int[len];
+        for (boolean premultiplied : new boolean[] { false, true }) {
+            for (int i = 0; i < len; i++) {
+                src[i] = random.nextInt();
+                if (premultiplied)
+                    src[i] = premultiply(src[i]);
+                dst[i] = i % 2 == 0 ? random.nextInt() : 0xff000000 | random.nextInt();
+                expected[i] = AlphaBlend.sourceOver(src[i], dst[i], premultiplied);
+            }
+            PixelKernels.INSTANCE.sourceOverRow(src, 0, dst, 0, len, premultiplied);
+            for (int i = 0; i < len; i++)
+                assertEquals(expected[i], dst[i], String.format("index %d, premultiplied %b", i, premultiplied));
+        }
+    }
+
+    private static int premultiply(int color) {
+        int alpha = SUtil.alpha(color);
+        return alpha << 24
+                | SUtil.red(color) * alpha / 255 << 16
+                | SUtil.green(color) * alpha / 255 << 8
+                | SUtil.blue(color) * alpha / 255;
+    }
+
+    /**
+     * The floating point version that {@link Image} used before
+     * {@link AlphaBlend}
+     */
+    static int doubleSourceOver(int src, int dst, boolean premultiplied) {
+        int srcAlpha = SUtil.alpha(src);
+        if (srcAlpha == 0)
+            return dst;
+        if (srcAlpha == 255)
+            return src;
+
+        int dstAlpha = SUtil.alpha(dst);
+        double sFactor = srcAlpha / 255.0,
+                dFactor = (1 - srcAlpha / 255.0) * dstAlpha / 255.0;
+        double sum = sFactor + dFactor;
+        if (premultiplied)
+            sFactor = 1;
+
+        return SUtil.toARGB(
+                (sFactor * SUtil.red(src) + dFactor * SUtil.red(dst)) / sum,
+                (sFactor * SUtil.green(src) + dFactor * SUtil.green(dst)) / sum,
+                (sFactor * SUtil.blue(src) + dFactor * SUtil.blue(dst)) / sum,
+                255 - (255 - srcAlpha) * (255 - dstAlpha) / 255);
+    }
+}
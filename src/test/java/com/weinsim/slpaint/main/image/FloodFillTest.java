@@ -0,0 +1,95 @@
+package com.weinsim.slpaint.main.image;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class FloodFillTest {
+
+    @Test
+    void matchesPixelByPixelFill() {
+        Random random = new Random(6);
+        // sizes around the tile size, so that areas cross tile borders
+        int[][] sizes = { { 1, 1 }, { 7, 300 }, { 300, 7 }, { 257, 257 }, { 600, 520 } };
+        for (int[] size : sizes) {
+            for (int trial = 0; trial < 6; trial++) {
+                int width = size[0], height = size[1];
+                // few colors and coarse blobs, so that the areas are large and irregular
+                int[] pixels = new int[width * height];
+                int[] palette = { 0xffffffff, 0xff000000, 0xfffefefe, 0x80ffffff };
+                for (int i = 0; i < pixels.length; i++) {
+                    int x = i % width, y = i / width;
+                    pixels[i] = ((x / 3 + y / 5) * 31 + random.nextInt(4)) % 7 < 5 ? palette[0]
+                            : palette[random.nextInt(palette.length)];
+                }
+
+                int seedX = random.nextInt(width), seedY = random.nextInt(height);
+                int tolerance = trial % 2 == 0 ? 0 : 2;
+                assertFill(pixels, width, height, seedX, seedY, tolerance,
+                        String.format("%d x %d, trial %d", width, height, trial));
+            }
+        }
+    }
+
+    @Test
+    void onePixelWideColumns() {
+        Random random = new Random(7);
+        int width = 300, height = 280;
+        for (int trial = 0; trial < 6; trial++) {
+            // white columns one pixel apart, joined by short rows and cut by a few gaps
+            int[] pixels = new int[width * height];
+            for (int i = 0; i < pixels.length; i++) {
+                int x = i % width, y = i / width;
+                boolean column = x % 2 == 0 && random.nextInt(40) != 0;
+                boolean bridge = random.nextInt(60) == 0;
+                pixels[i] = column || bridge ? 0xffffffff : 0xff000000;
+            }
+            int seedX = 2 * random.nextInt(width / 2), seedY = random.nextInt(height);
+            pixels[seedY * width + seedX] = 0xffffffff;
+            assertFill(pixels, width, height, seedX, seedY, 0, "trial " + trial);
+        }
+    }
+
+    private static void assertFill(int[] pixels, int width, int height, int seedX, int seedY, int tolerance,
+            String message) {
+        TileGrid grid = new TileGrid(width, height, 0);
+        grid.write(0, 0, width, height, pixels, 0, width);
+        int baseColor = pixels[seedY * width + seedX];
+
+        boolean[] expected = referenceFill(pixels, width, height, seedX, seedY, tolerance);
+        boolean[] actual = new boolean[pixels.length];
+        new FloodFill(grid, baseColor, tolerance).run(seedX, seedY, (x0, x1, y) -> {
+            for (int x = x0; x < x1; x++)
+                actual[y * width + x] = true;
+            // the consumer may modify the span
+            grid.fillRow(x0, y, x1 - x0, 0xff123456);
+        });
+        assertArrayEquals(expected, actual, message);
+    }
+
+    private static boolean[] referenceFill(int[] pixels, int width, int height, int seedX, int seedY,
+            int tolerance) {
+        int baseColor = pixels[seedY * width + seedX];
+        boolean[] filled = new boolean[pixels.length];
+        ArrayDeque<int[]> queue = new ArrayDeque<>();
+        filled[seedY * width + seedX] = true;
+        queue.add(new int[] { seedX, seedY });
+        int[][] offsets = { { 1, 0 }, { -1, 0 }, { 0, 1 }, { 0, -1 } };
+        while (!queue.isEmpty()) {
+            int[] point = queue.poll();
+            for (int[] offset : offsets) {
+                int x = point[0] + offset[0], y = point[1] + offset[1];
+                if (x < 0 || x >= width || y < 0 || y >= height || filled[y * width + x])
+                    continue;
+                if (!FloodFill.matches(pixels[y * width + x], baseColor, tolerance))
+                    continue;
+                filled[y * width + x] = true;
+                queue.add(new int[] { x, y });
+            }
+        }
+        return filled;
+    }
+}
@@ -0,0 +1,262 @@
+package com.weinsim.slpaint.main.image;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class ImageHistoryTest {
+
+    private static final int WHITE = 0xffffffff;
+
+    private int previousBudget;
+
+    @BeforeEach
+    void saveBudget() {
+        previousBudget = ImageHistory.getMemoryBudget();
+    }
+
+    @AfterEach
+    void restoreBudget() {
+        ImageHistory.setMemoryBudget(previousBudget);
+    }
+
+    @Test
+    void memoryUsageStaysWithinBudget() {
+        final int budgetMiB = 1;
+        ImageHistory.setMemoryBudget(budgetMiB);
+
+        final int size = 1024, tileSize = TileGrid.TILE_SIZE;
+        Image image = new Image(size, size, WHITE);
+        ImageHistory history = new ImageHistory(image);
+
+        // every change replaces a whole tile of noise, which doesn't compress, so
+        // each one costs a full tile worth of memory
+        Random random = new Random(2);
+        int[] noise = new int[TileGrid.TILE_AREA];
+        final int numChanges = 40;
+        for (int i = 0; i < numChanges; i++) {
+            for (int j = 0; j < noise.length; j++)
+                noise[j] = random.nextInt();
+            int x = random.nextInt(size / tileSize) * tileSize,
+                    y = random.nextInt(size / tileSize) * tileSize;
+            image.setSubImage(x, y, tileSize, tileSize, noise);
+            // not logged, so the change stores pixels instead of operations
+            image.setPixels(SelectionMask.rectangle(size, size, x, y, 1, 1), random.nextInt());
+            history.addSnapshot();
+        }
+        ImageHistory.awaitBackgroundWork();
+
+        String report = history.getMemoryReport();
+        assertEquals(numChanges + 1, history.size(), report);
+        assertTrue(history.getMemoryUsage() <= budgetMiB * (1L << 20), report);
+        assertTrue(history.getSwapUsage() > 0, report);
+
+        // the spilled changes can still be undone
+        while (history.canUndo())
+            history.undo();
+        int[] row = new int[size];
+        for (int y = 0; y < size; y++) {
+            image.getPixels(0, y, size, 1, row, 0, size);
+            for (int x = 0; x < size; x++)
+                assertEquals(WHITE, row[x], String.format("(%d, %d)", x, y));
+        }
+        history.clear();
+    }
+
+    @Test
+    void replayedOperationsMatchLiveImage() {
+        Random random = new Random(21);
+        for (int trial = 0; trial < 40; trial++) {
+            Image image = new Image(200 + random.nextInt(400), 150 + random.nextInt(400), WHITE);
+            Image source = createSourceImage();
+            Image replayed = new Image(1, 1, 0);
+            replayed.setImage(image);
+
+            image.startOperationLog();
+            for (int i = 0; i < 30; i++)
+                randomOperation(image, source, random);
+            ArrayList<ImageOperation> operations = image.getOperationLog();
+            image.stopOperationLog();
+            // some of the operations weren't logged (a selection was filled)
+            if (operations == null)
+                continue;
+
+            for (ImageOperation operation : operations)
+                operation.apply(replayed);
+            assertArrayEquals(getPixels(image), getPixels(replayed), "trial " + trial);
+        }
+    }
+
+    /**
+     * Undoes and redoes random changes and compares every state with a copy of
+     * the pixels taken when the state was created. With a budget of 1 MiB,
+     * keyframes and pixel changes are spilled to the swap file.
+     */
+    @ParameterizedTest
+    @ValueSource(ints = { 512, 1 })
+    void undoRedoRestoresEveryState(int budgetMiB) {
+        ImageHistory.setMemoryBudget(budgetMiB);
+
+        Random random = new Random(budgetMiB);
+        long maxSwapUsage = 0;
+        for (int trial = 0; trial < 20; trial++) {
+            Image image = new Image(200 + random.nextInt(300), 150 + random.nextInt(300), WHITE);
+            Image source = createSourceImage();
+            ImageHistory history = new ImageHistory(image);
+
+            ArrayList<int[]> states = new ArrayList<>();
+            states.add(getPixels(image));
+            int index = 0;
+            for (int step = 0; step < 150; step++) {
+                int action = random.nextInt(10);
+                if (action < 6) {
+                    randomOperation(image, source, random);
+                    if (random.nextInt(6) == 0)
+                        randomOperation(image, source, random);
+
+                    if (history.canUndo() && random.nextInt(8) == 0) {
+                        // discards the uncommitted operations
+                        history.undo();
+                        index--;
+                    } else if (image.hasChangedRegions()) {
+                        history.addSnapshot();
+                        while (states.size() > index + 1)
+                            states.removeLast();
+                        states.add(getPixels(image));
+                        index++;
+                    }
+                } else if (action < 8) {
+                    if (history.canUndo()) {
+                        history.undo();
+                        index--;
+                    }
+                } else if (history.canRedo()) {
+                    history.redo();
+                    index++;
+                }
+
+                String message = String.format("trial %d, step %d", trial, step);
+                assertArrayEquals(states.get(index), getPixels(image), message);
+                assertEquals(index > 0, history.canUndo(), message);
+                assertEquals(index < states.size() - 1, history.canRedo(), message);
+            }
+
+            ImageHistory.awaitBackgroundWork();
+            maxSwapUsage = Math.max(maxSwapUsage, history.getSwapUsage());
+            history.clear();
+        }
+        if (budgetMiB == 1)
+            assertTrue(maxSwapUsage > 0);
+    }
+
+    private static Image createSourceImage() {
+        Image source = new Image(50, 60, 0x80ff0000);
+        source.drawLine(0, 0, 49, 59, 5, 0xff00ff00);
+        return source;
+    }
+
+    /**
+     * @return The size of the image followed by its pixels
+     */
+    private static int[] getPixels(Image image) {
+        int width = image.getWidth(), height = image.getHeight();
+        int[] pixels = new int[width * height + 2];
+        pixels[0] = width;
+        pixels[1] = height;
+        image.getPixels(0, 0, width, height, pixels, 2, width);
+        return pixels;
+    }
+
+    private static int randomColor(Random random) {
+        int color = random.nextInt();
+        return random.nextInt(3) == 0 ? color | 0xff000000 : color;
+    }
+
+    private static void randomOperation(Image image, Image source, Random random) {
+        int width = image.getWidth(), height = image.getHeight();
+        switch (random.nextInt(12)) {
+            case 0, 1, 2 -> {
+                boolean stroke = random.nextBoolean();
+                if (stroke)
+                    image.beginStroke();
+                int color = randomColor(random);
+                int x = random.nextInt(width), y = random.nextInt(height);
+                for (int i = random.nextInt(20); i >= 0; i--) {
+                    int nextX = random.nextInt(width), nextY = random.nextInt(height);
+                    image.drawLine(x, y, nextX, nextY, 1 + random.nextInt(30), color);
+                    x = nextX;
+                    y = nextY;
+                }
+                if (stroke)
+                    image.endStroke();
+            }
+            case 3 -> image.floodFill(random.nextInt(width), random.nextInt(height), randomColor(random),
+                    random.nextInt(40));
+            case 4 -> image.replaceColor(image.getPixel(random.nextInt(width), random.nextInt(height)),
+                    randomColor(random), random.nextInt(30));
+            case 5 -> {
+                int x = random.nextInt(width), y = random.nextInt(height);
+                image.setPixels(x, y, random.nextInt(width - x) + 1, random.nextInt(height - y) + 1,
+                        randomColor(random));
+            }
+            case 6 -> {
+                switch (random.nextInt(5)) {
+                    case 0 -> image.rotateLeft();
+                    case 1 -> image.rotateRight();
+                    case 2 -> image.rotate180();
+                    case 3 -> image.flipHorizontal();
+                    default -> image.flipVertical();
+                }
+            }
+            case 7 -> image.crop(random.nextInt(60) - 30, random.nextInt(60) - 30,
+                    Math.max(40, width + random.nextInt(80) - 40), Math.max(40, height + random.nextInt(80) - 40),
+                    randomColor(random));
+            case 8 -> {
+                int w = 1 + random.nextInt(80), h = 1 + random.nextInt(80);
+                int[] pixels = new int[w * h];
+                for (int i = 0; i < pixels.length; i++)
+                    pixels[i] = randomColor(random);
+                if (random.nextBoolean())
+                    image.setSubImage(random.nextInt(width) - 20, random.nextInt(height) - 20, w, h, pixels);
+                else
+                    image.drawSubImage(random.nextInt(width) - 20, random.nextInt(height) - 20, w, h, pixels);
+                // the operations must not share the array with the caller
+                Arrays.fill(pixels, 0);
+            }
+            case 9 -> {
+                Interpolation[] interpolations = Interpolation.values();
+                image.drawTransformedImage(source, random.nextInt(width), random.nextInt(height),
+                        20 + random.nextInt(200), 20 + random.nextInt(200), random.nextInt(360),
+                        interpolations[random.nextInt(interpolations.length)]);
+                // the operation must not share the pixels with the source image
+                source.setPixels(0, 0, 10, 10, randomColor(random));
+            }
+            case 10 -> {
+                for (int i = 0; i < 10; i++)
+                    image.drawPixel(random.nextInt(width), random.nextInt(height), randomColor(random));
+            }
+            default -> {
+                if (random.nextInt(4) == 0) {
+                    ResizeFilter[] filters = ResizeFilter.values();
+                    image.resize(Math.max(20, width + random.nextInt(60) - 30),
+                            Math.max(20, height + random.nextInt(60) - 30),
+                            filters[random.nextInt(filters.length)]);
+                } else {
+                    // not logged, so the change stores pixels instead of operations
+                    image.setPixels(SelectionMask.rectangle(width, height, 0, 0, width / 2, height / 2),
+                            randomColor(random));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.weinsim.slpaint.main.image;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares lines drawn with {@link Image#drawLine} to the reference output in
+ * {@code lines.png}, which was rendered with the per-pixel distance test that
+ * {@link LineRasterizer} replaced. Every case is drawn on its own
+ * {@code CANVAS_SIZE x CANVAS_SIZE} canvas, and the canvases are stacked
+ * vertically in the reference image.
+ */
+class LineRasterizerTest {
+
+    static final int CANVAS_SIZE = 40;
+    static final String REFERENCE = "lines.png";
+
+    private static final int OPAQUE_BACKGROUND = 0xffffffff, TRANSLUCENT_BACKGROUND = 0x8020c040;
+
+    /**
+     * A line drawn onto a canvas filled with {@code background}
+     */
+    record Case(int x0, int y0, int x1, int y1, int size, int color, boolean ignoreAlpha, int background) {
+    }
+
+    static List<Case> cases() {
+        List<Case> cases = new ArrayList<>();
+        // horizontal, vertical, diagonal, shallow and steep lines in all
+        // directions, and a single point
+        int[][] directions = {
+                { 24, 0 }, { 0, 24 }, { 24, 24 }, { 24, -24 }, { 24, 9 },
+                { 9, 24 }, { -24, 5 }, { 7, -24 }, { -13, -22 }, { 0, 0 },
+        };
+        // odd sizes are centered on a pixel, even sizes between two pixels
+        int[] sizes = { 1, 2, 3, 4, 6, 9, 14 };
+        int center = CANVAS_SIZE / 2;
+        for (int[] d : directions) {
+            int x0 = center - d[0] / 2, y0 = center - d[1] / 2;
+            for (int size : sizes)
+                cases.add(new Case(x0, y0, x0 + d[0], y0 + d[1], size, 0xff2050a0, false, OPAQUE_BACKGROUND));
+            for (int size : new int[] { 1, 4, 9 }) {
+                cases.add(new Case(x0, y0, x0 + d[0], y0 + d[1], size, 0x80d03010, false, OPAQUE_BACKGROUND));
+                cases.add(new Case(x0, y0, x0 + d[0], y0 + d[1], size, 0x40d03010, false, TRANSLUCENT_BACKGROUND));
+            }
+            // the alpha channel is written instead of blended
+            cases.add(new Case(x0, y0, x0 + d[0], y0 + d[1], 5, 0x400000ff, true, OPAQUE_BACKGROUND));
+        }
+
+        // lines that are clipped by the image border
+        int max = CANVAS_SIZE - 1;
+        cases.add(new Case(-10, 5, 50, 30, 7, 0xff000000, false, OPAQUE_BACKGROUND));
+        cases.add(new Case(5, -20, 30, 60, 4, 0xff000000, false, OPAQUE_BACKGROUND));
+        cases.add(new Case(-30, -30, 70, 70, 9, 0x80000000, false, OPAQUE_BACKGROUND));
+        cases.add(new Case(max + 5, 2, max + 25, 30, 12, 0xff000000, false, OPAQUE_BACKGROUND));
+        cases.add(new Case(0, 0, 0, 0, 10, 0xff000000, false, OPAQUE_BACKGROUND));
+        cases.add(new Case(max, max, max, 10, 3, 0xc0000000, false, TRANSLUCENT_BACKGROUND));
+        cases.add(new Case(-20, -20, -5, -5, 3, 0xff000000, false, OPAQUE_BACKGROUND));
+        cases.add(new Case(-5, max + 3, max + 5, max + 3, 8, 0xff000000, false, OPAQUE_BACKGROUND));
+        cases.add(new Case(0, 20, max, 20, 0, 0xff000000, false, OPAQUE_BACKGROUND));
+        cases.add(new Case(-8, 12, max + 8, 28, 5, 0x00000000, true, OPAQUE_BACKGROUND));
+        return cases;
+    }
+
+    static Image draw(Case c) {
+        Image image = new Image(CANVAS_SIZE, CANVAS_SIZE, c.background());
+        image.drawLine(c.x0(), c.y0(), c.x1(), c.y1(), c.size(), c.color(), c.ignoreAlpha());
+        return image;
+    }
+
+    @Test
+    void matchesReferenceImage() throws IOException {
+        BufferedImage reference;
+        try (InputStream in = LineRasterizerTest.class.getResourceAsStream(REFERENCE)) {
+            assertNotNull(in, REFERENCE);
+            reference = ImageIO.read(in);
+        }
+        List<Case> cases = cases();
+        assertEquals(CANVAS_SIZE, reference.getWidth());
+        assertEquals(cases.size() * CANVAS_SIZE, reference.getHeight());
+
+        int[] expected = new int[CANVAS_SIZE * CANVAS_SIZE], actual = new int[CANVAS_SIZE * CANVAS_SIZE];
+        for (int i = 0; i < cases.size(); i++) {
+            Case c = cases.get(i);
+            reference.getRGB(0, i * CANVAS_SIZE, CANVAS_SIZE, CANVAS_SIZE, expected, 0, CANVAS_SIZE);
+            draw(c).getPixels(0, 0, CANVAS_SIZE, CANVAS_SIZE, actual, 0, CANVAS_SIZE);
+            if (!Arrays.equals(expected, actual)) {
+                int index = Arrays.mismatch(expected, actual);
+                throw new AssertionError(String.format("%s: pixel (%d, %d) is %08x instead of %08x", c,
+                        index % CANVAS_SIZE, index / CANVAS_SIZE, actual[index], expected[index]));
+            }
+        }
+    }
+
+    @Test
+    void spansStayInsideImage() {
+        LineRasterizer line = new LineRasterizer();
+        for (Case c : cases()) {
+            line.set(c.x0(), c.y0(), c.x1(), c.y1(), c.size(), CANVAS_SIZE, CANVAS_SIZE);
+            for (int y = line.getMinY(); y <= line.getMaxY(); y++) {
+                if (!line.span(y))
+                    continue;
+                assertTrue(line.spanStart >= 0 && line.spanStart < line.spanEnd && line.spanEnd <= CANVAS_SIZE,
+                        String.format("%s, row %d: [%d, %d)", c, y, line.spanStart, line.spanEnd));
+            }
+        }
+    }
+}
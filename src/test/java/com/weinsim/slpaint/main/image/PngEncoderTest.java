@@ -0,0 +1,101 @@
+package com.weinsim.slpaint.main.image;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PngEncoderTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void singlePixel() throws IOException {
+        for (int type : new int[] { BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB })
+            assertRoundTrip(createImage(1, 1, type, new Random(1)));
+    }
+
+    @Test
+    void rowsLongerThanABand() throws IOException {
+        Random random = new Random(2);
+        // every band has a single row
+        assertRoundTrip(createImage(PngEncoder.BAND_BYTES / 4 + 1, 3, BufferedImage.TYPE_INT_ARGB, random));
+        assertRoundTrip(createImage(PngEncoder.BAND_BYTES / 3 + 1, 3, BufferedImage.TYPE_INT_RGB, random));
+        // a single band with a single row that only just fits
+        assertRoundTrip(createImage((PngEncoder.BAND_BYTES - 1) / 4, 1, BufferedImage.TYPE_INT_ARGB, random));
+    }
+
+    @Test
+    void multipleBands() throws IOException {
+        Random random = new Random(3);
+        int width = 1000;
+        int rowsPerBand = PngEncoder.BAND_BYTES / (1 + 4 * width);
+        // exactly one band, one row more, and enough bands for several batches
+        for (int height : new int[] { rowsPerBand, rowsPerBand + 1, 10 * rowsPerBand + 7 })
+            assertRoundTrip(createImage(width, height, BufferedImage.TYPE_INT_ARGB, random));
+        assertRoundTrip(createImage(width, 3 * rowsPerBand, BufferedImage.TYPE_INT_RGB, random));
+        assertRoundTrip(createImage(width, 3 * rowsPerBand, BufferedImage.TYPE_4BYTE_ABGR, random));
+    }
+
+    /**
+     * @return An image with flat areas, gradients and noise, so that rows get
+     *         different filters
+     */
+    private static BufferedImage createImage(int width, int height, int type, Random random) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            int kind = random.nextInt(4);
+            for (int x = 0; x < width; x++) {
+                row[x] = switch (kind) {
+                    case 0 -> 0xff336699;
+                    case 1 -> (x + y) * 0x010203 | (x & 0xff) << 24;
+                    case 2 -> x % 97 < 40 ? random.nextInt() : 0x80ffffff;
+                    default -> random.nextInt();
+                };
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    /**
+     * Writes the image with both the parallel and the single stream encoder and
+     * compares the pixels read by ImageIO.
+     */
+    private void assertRoundTrip(BufferedImage image) throws IOException {
+        assertRoundTrip(image, true);
+        assertRoundTrip(image, false);
+    }
+
+    private void assertRoundTrip(BufferedImage image, boolean parallel) throws IOException {
+        int width = image.getWidth(), height = image.getHeight();
+        File file = directory.resolve("image.png").toFile();
+        PngEncoder.write(image, file, parallel);
+
+        BufferedImage decoded = ImageIO.read(file);
+        assertNotNull(decoded);
+        String message = String.format("%d x %d, type %d, parallel %b", width, height, image.getType(), parallel);
+        assertEquals(width, decoded.getWidth(), message);
+        assertEquals(height, decoded.getHeight(), message);
+        assertEquals(image.getColorModel().hasAlpha(), decoded.getColorModel().hasAlpha(), message);
+
+        int[] expected = new int[width], actual = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, expected, 0, width);
+            decoded.getRGB(0, y, width, 1, actual, 0, width);
+            assertArrayEquals(expected, actual, message + ", row " + y);
+        }
+    }
+}
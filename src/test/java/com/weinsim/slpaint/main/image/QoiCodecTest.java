@@ -0,0 +1,135 @@
+package com.weinsim.slpaint.main.image;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class QoiCodecTest {
+
+    @Test
+    void randomTilesRoundTrip() throws IOException {
+        Random random = new Random(25);
+        int[] pixels = new int[TileGrid.TILE_AREA];
+        for (int trial = 0; trial < 20; trial++) {
+            // mixes all chunk types: runs, repeated colors, small and large
+            // differences, and alpha changes
+            int[] palette = new int[1 + random.nextInt(100)];
+            for (int i = 0; i < palette.length; i++)
+                palette[i] = random.nextInt();
+            int color = random.nextInt();
+            for (int i = 0; i < pixels.length; i++) {
+                switch (random.nextInt(6)) {
+                    case 0 -> color = random.nextInt();
+                    case 1 -> color = palette[random.nextInt(palette.length)];
+                    case 2 -> color += random.nextInt(4) - 2;
+                    case 3 -> color = color & 0xff000000 | (color + random.nextInt(0x101010)) & 0xffffff;
+                    case 4 -> color = color & 0xffffff | random.nextInt(256) << 24;
+                    default -> {
+                        // run of up to 200 pixels
+                        int end = Math.min(pixels.length, i + random.nextInt(200));
+                        Arrays.fill(pixels, i, end, color);
+                        i = Math.max(i, end - 1);
+                        continue;
+                    }
+                }
+                pixels[i] = color;
+            }
+            assertRoundTrip(pixels, TileGrid.TILE_SIZE, TileGrid.TILE_SIZE, random);
+        }
+    }
+
+    @Test
+    void flatTilesRoundTrip() throws IOException {
+        Random random = new Random(26);
+        for (int color : new int[] { 0, 0xff000000, 0xffffffff, 0x80402010, 0x00ffffff }) {
+            int[] pixels = new int[TileGrid.TILE_AREA];
+            Arrays.fill(pixels, color);
+            byte[] data = assertRoundTrip(pixels, TileGrid.TILE_SIZE, TileGrid.TILE_SIZE, random);
+            // at most one chunk for the first pixel, then one byte per 62 pixels
+            int maxSize = QoiCodec.HEADER_SIZE + 5 + (pixels.length + 61) / 62 + 8;
+            assertTrue(data.length <= maxSize, String.format("%08x: %d bytes", color, data.length));
+        }
+        assertRoundTrip(new int[] { 0x12345678 }, 1, 1, random);
+        assertRoundTrip(new int[] { 0xff000000 }, 1, 1, random);
+    }
+
+    @Test
+    void runFollowedByRgbaAtBufferEnd() throws IOException {
+        Random random = new Random(28);
+        // the end of a run and an OP_RGBA chunk (6 bytes) are written for the last
+        // pixel, starting at every position close to the end of the encoder buffer
+        for (int start = QoiCodec.BUFFER_SIZE - 12; start < QoiCodec.BUFFER_SIZE; start++) {
+            // OP_RGBA chunks (5 bytes) with alternating alpha, then OP_DIFF chunks
+            // (1 byte) to reach the start position
+            int numRgba = (start - QoiCodec.HEADER_SIZE) / 5,
+                    numDiff = (start - QoiCodec.HEADER_SIZE) % 5;
+            int[] pixels = new int[numRgba + numDiff + 2];
+            for (int i = 0; i < numRgba; i++)
+                pixels[i] = (i % 2 == 0 ? 0x80 : 0x40) << 24 | i << 8;
+            for (int i = numRgba; i < numRgba + numDiff; i++)
+                pixels[i] = pixels[i - 1] + 1;
+            pixels[pixels.length - 2] = pixels[pixels.length - 3];
+            pixels[pixels.length - 1] = 0xff123456;
+
+            byte[] data = assertRoundTrip(pixels, pixels.length, 1, random);
+            assertEquals(start + 1 + 5 + 8, data.length, "start " + start);
+        }
+    }
+
+    /**
+     * Encodes the pixels, then decodes them both at once and in chunks of
+     * random size.
+     */
+    private static byte[] assertRoundTrip(int[] pixels, int width, int height, Random random)
+            throws IOException {
+        byte[] data = QoiCodec.encode(pixels, width, height);
+        assertArrayEquals(pixels, QoiCodec.decode(data));
+
+        int[] decoded = new int[pixels.length];
+        try (QoiCodec.Decoder decoder = new QoiCodec.Decoder(new ByteArrayInputStream(data))) {
+            assertEquals(width, decoder.width);
+            assertEquals(height, decoder.height);
+            for (int offset = 0; offset < decoded.length;) {
+                int length = Math.min(decoded.length - offset, 1 + random.nextInt(500));
+                decoder.read(decoded, offset, length);
+                offset += length;
+            }
+        }
+        assertArrayEquals(pixels, decoded);
+        return data;
+    }
+
+    @Test
+    void truncatedStreamThrows() {
+        Random random = new Random(27);
+        int width = 40, height = 30;
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++)
+            pixels[i] = i % 7 == 0 ? pixels[Math.max(i - 1, 0)] : random.nextInt();
+        byte[] data = QoiCodec.encode(pixels, width, height);
+
+        // every chunk is needed, only the end marker can be missing
+        for (int length = 0; length < data.length - 8; length++) {
+            byte[] truncated = Arrays.copyOf(data, length);
+            assertThrows(IOException.class, () -> QoiCodec.decode(truncated), "length " + length);
+        }
+    }
+
+    @Test
+    void tooLargeImageThrows() {
+        byte[] header = QoiCodec.encode(new int[1], 1, 1);
+        // 65536 x 65536 pixels
+        header[4] = header[8] = 0;
+        header[5] = header[9] = 1;
+        header[6] = header[7] = header[10] = header[11] = 0;
+        assertThrows(IOException.class, () -> QoiCodec.decode(header));
+    }
+}
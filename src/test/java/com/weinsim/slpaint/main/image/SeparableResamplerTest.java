@@ -0,0 +1,57 @@
+package com.weinsim.slpaint.main.image;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class SeparableResamplerTest {
+
+    private static Image createRow(int... greys) {
+        Image image = new Image(greys.length, 1, 0);
+        int[] pixels = new int[greys.length];
+        for (int i = 0; i < greys.length; i++)
+            pixels[i] = 0xff000000 | greys[i] * 0x010101;
+        image.setSubImage(0, 0, greys.length, 1, pixels);
+        return image;
+    }
+
+    private static void assertGreys(Image image, int... greys) {
+        assertEquals(greys.length, image.getWidth());
+        for (int i = 0; i < greys.length; i++) {
+            int color = image.getPixel(i, 0);
+            assertEquals(0xff, color >>> 24, "alpha of pixel " + i);
+            assertTrue(Math.abs((color & 0xff) - greys[i]) <= 1,
+                    String.format("pixel %d is %08x instead of grey %d", i, color, greys[i]));
+        }
+    }
+
+    @Test
+    void boxAveragesCoveredArea() {
+        // every result pixel covers 1.5 source pixels
+        assertGreys(createRow(0, 90, 180).createResizedImage(2, 1, ResizeFilter.BOX), 30, 150);
+        // 2.5 source pixels
+        assertGreys(createRow(0, 100, 200, 50, 250).createResizedImage(2, 1, ResizeFilter.BOX), 80, 160);
+        // the middle pixel covers half of both source pixels
+        assertGreys(createRow(0, 100).createResizedImage(3, 1, ResizeFilter.BOX), 0, 50, 100);
+    }
+
+    @Test
+    void boxAveragesBlocksForIntegerFactors() {
+        Random random = new Random(15);
+        int factor = 4, width = 300;
+        int[] greys = new int[width * factor];
+        for (int i = 0; i < greys.length; i++)
+            greys[i] = random.nextInt(256);
+        int[] averages = new int[width];
+        for (int i = 0; i < width; i++) {
+            int sum = 0;
+            for (int j = 0; j < factor; j++)
+                sum += greys[i * factor + j];
+            averages[i] = Math.round(sum / (float) factor);
+        }
+        assertGreys(createRow(greys).createResizedImage(width, 1, ResizeFilter.BOX), averages);
+    }
+}
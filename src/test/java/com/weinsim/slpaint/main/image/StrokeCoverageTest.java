@@ -0,0 +1,41 @@
+package com.weinsim.slpaint.main.image;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class StrokeCoverageTest {
+
+    @Test
+    void matchesPixelByPixelCoverage() {
+        Random random = new Random(10);
+        // wider than two tiles, so that spans cross tile and word borders
+        int width = 600, height = 300;
+        StrokeCoverage coverage = new StrokeCoverage(width, height);
+        boolean[] expected = new boolean[width * height];
+
+        for (int i = 0; i < 2000; i++) {
+            int y = random.nextInt(height);
+            int x0 = random.nextInt(width);
+            int x1 = Math.min(width, x0 + 1 + random.nextInt(i % 2 == 0 ? 8 : 300));
+            String message = String.format("span %d, [%d, %d) x %d", i, x0, x1, y);
+
+            for (int x = x0; x < x1; x++) {
+                assertEquals(next(expected, width, x, x1, y, false), coverage.nextUncovered(x, x1, y), message);
+                assertEquals(next(expected, width, x, x1, y, true), coverage.nextCovered(x, x1, y), message);
+            }
+
+            coverage.cover(x0, x1, y);
+            for (int x = x0; x < x1; x++)
+                expected[y * width + x] = true;
+        }
+    }
+
+    private static int next(boolean[] covered, int width, int x, int end, int y, boolean value) {
+        while (x < end && covered[y * width + x] != value)
+            x++;
+        return x;
+    }
+}
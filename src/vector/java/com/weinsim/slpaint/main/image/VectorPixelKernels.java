@@ -0,0 +1,120 @@
+package com.weinsim.slpaint.main.image;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD versions of the {@link PixelKernels}, using the (incubating) Vector API.
+ * The results are identical to the scalar versions.
+ *
+ * <p>
+ * Blending only has a vectorized path for opaque destination pixels, which
+ * only need exact divisions by 255. Vectors containing semi-transparent
+ * destination pixels (which need a real division per pixel) fall back to the
+ * scalar kernel, as does the tail of every row.
+ * </p>
+ */
+final class VectorPixelKernels extends PixelKernels {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    VectorPixelKernels() {
+    }
+
+    @Override
+    void sourceOverRow(int[] src, int srcOffset, int[] dst, int dstOffset, int len, boolean premultiplied) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(len); i < bound; i += SPECIES.length()) {
+            IntVector s = IntVector.fromArray(SPECIES, src, srcOffset + i),
+                    d = IntVector.fromArray(SPECIES, dst, dstOffset + i);
+            if (!d.lanewise(VectorOperators.LSHR, 24).eq(255).allTrue()) {
+                super.sourceOverRow(src, srcOffset + i, dst, dstOffset + i, SPECIES.length(), premultiplied);
+                continue;
+            }
+            blendOpaque(s, d, premultiplied).intoArray(dst, dstOffset + i);
+        }
+        super.sourceOverRow(src, srcOffset + i, dst, dstOffset + i, len - i, premultiplied);
+    }
+
+    @Override
+    void sourceOverRow(int color, int[] dst, int dstOffset, int len) {
+        IntVector s = IntVector.broadcast(SPECIES, color);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(len); i < bound; i += SPECIES.length()) {
+            IntVector d = IntVector.fromArray(SPECIES, dst, dstOffset + i);
+            if (!d.lanewise(VectorOperators.LSHR, 24).eq(255).allTrue()) {
+                super.sourceOverRow(color, dst, dstOffset + i, SPECIES.length());
+                continue;
+            }
+            blendOpaque(s, d, false).intoArray(dst, dstOffset + i);
+        }
+        super.sourceOverRow(color, dst, dstOffset + i, len - i);
+    }
+
+    @Override
+    void flattenRow(int[] src, int srcOffset, int[] dst, int dstOffset, int len, int background) {
+        IntVector d = IntVector.broadcast(SPECIES, background | 0xFF000000);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(len); i < bound; i += SPECIES.length()) {
+            IntVector s = IntVector.fromArray(SPECIES, src, srcOffset + i);
+            blendOpaque(s, d, false).intoArray(dst, dstOffset + i);
+        }
+        super.flattenRow(src, srcOffset + i, dst, dstOffset + i, len - i, background);
+    }
+
+    /**
+     * Same as {@link AlphaBlend#sourceOver(int, int, boolean)} for destination
+     * pixels that are all fully opaque
+     */
+    private static IntVector blendOpaque(IntVector s, IntVector d, boolean premultiplied) {
+        IntVector srcAlpha = s.lanewise(VectorOperators.LSHR, 24);
+        IntVector invSrcAlpha = srcAlpha.neg().add(255);
+
+        IntVector result = IntVector.broadcast(SPECIES, 0xFF000000);
+        for (int shift = 0; shift <= 16; shift += 8) {
+            IntVector sc = s.lanewise(VectorOperators.LSHR, shift).and(0xFF),
+                    dc = d.lanewise(VectorOperators.LSHR, shift).and(0xFF);
+            IntVector c;
+            if (premultiplied)
+                c = sc.add(div255(invSrcAlpha.mul(dc))).min(255);
+            else
+                c = div255(srcAlpha.mul(sc).add(invSrcAlpha.mul(dc)));
+            result = result.or(c.lanewise(VectorOperators.LSHL, shift));
+        }
+
+        // a fully transparent source leaves the destination unchanged, even if
+        // its (premultiplied) color channels aren't 0
+        if (premultiplied)
+            result = result.blend(d, srcAlpha.eq(0));
+        return result;
+    }
+
+    private static IntVector div255(IntVector x) {
+        return x.add(1).add(x.lanewise(VectorOperators.ASHR, 8)).lanewise(VectorOperators.ASHR, 8);
+    }
+
+    @Override
+    boolean contains(int[] pixels, int offset, int len, int color) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(len); i < bound; i += SPECIES.length()) {
+            if (IntVector.fromArray(SPECIES, pixels, offset + i).eq(color).anyTrue())
+                return true;
+        }
+        return super.contains(pixels, offset + i, len - i, color);
+    }
+
+    @Override
+    void replace(int[] pixels, int offset, int len, int color, int replacement) {
+        IntVector r = IntVector.broadcast(SPECIES, replacement);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(len); i < bound; i += SPECIES.length()) {
+            IntVector v = IntVector.fromArray(SPECIES, pixels, offset + i);
+            VectorMask<Integer> mask = v.eq(color);
+            if (mask.anyTrue())
+                v.blend(r, mask).intoArray(pixels, offset + i);
+        }
+        super.replace(pixels, offset + i, len - i, color, replacement);
+    }
+}